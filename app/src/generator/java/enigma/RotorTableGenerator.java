@@ -0,0 +1,272 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the source of DefaultRotors, the default rotor set as tables,
+ * from a configuration file: the alphabet on the first line, then the
+ * number of slots and pawls, then each rotor's name, type (M and its
+ * notches, N or R) and cycles.  The build runs
+ * <pre>
+ *     java enigma.RotorTableGenerator src/main/rotors/default.conf DIR
+ * </pre>
+ * before compiling, with DIR among the Java source directories, so
+ * Simulator sets up its machine from the tables without parsing
+ * anything.  This class lives in its own source set, outside the app,
+ * and only uses Alphabet, Wiring and the classes they use, so the build
+ * can compile it on its own first.
+ *
+ * @author Junyi Cao
+ */
+final class RotorTableGenerator {
+
+    /**
+     * Not instantiable.
+     */
+    private RotorTableGenerator() {
+    }
+
+    /**
+     * Write enigma/DefaultRotors.java, generated from the configuration
+     * file ARGS[0], under the directory ARGS[1].
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length != 2) {
+            throw EnigmaException.error("Usage: java "
+                    + "enigma.RotorTableGenerator CONFIG DIR");
+        }
+        String config = new String(Files.readAllBytes(
+                new File(args[0]).toPath()), Charset.forName("UTF-8"));
+        File file = new File(new File(args[1], "enigma"),
+                CLASS_NAME + ".java");
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw EnigmaException.error("cannot create %s.", dir);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            out.write(generate(config));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Return the source of DefaultRotors for the configuration CONFIG.
+     */
+    static String generate(String config) {
+        String[] lines = config.split("\r?\n", 3);
+        if (lines.length < 3) {
+            throw EnigmaException.error("configuration file truncated");
+        }
+        String letters = lines[0];
+        Alphabet alphabet = new Alphabet(letters);
+        if (alphabet.size() > Long.SIZE) {
+            throw EnigmaException.error("config error, notch masks need "
+                    + "an alphabet of at most %d characters.", Long.SIZE);
+        }
+        String[] layout = lines[1].trim().split("\\s+");
+        if (layout.length != 2) {
+            throw EnigmaException.error("config error, expected the number "
+                    + "of slots and pawls, but found: %s", lines[1]);
+        }
+        int numRotors, numPawls;
+        try {
+            numRotors = Integer.parseInt(layout[0]);
+            numPawls = Integer.parseInt(layout[1]);
+        } catch (NumberFormatException excp) {
+            throw EnigmaException.error("config error, the number of slots "
+                    + "and pawls must be whole numbers: %s", lines[1]);
+        }
+        List<String> names = new ArrayList<>();
+        List<Character> types = new ArrayList<>();
+        List<Long> notches = new ArrayList<>();
+        List<Wiring> wirings = new ArrayList<>();
+        Matcher rotor = ROTOR.matcher(lines[2]);
+        int end = 0;
+        while (rotor.find()) {
+            if (!lines[2].substring(end, rotor.start()).trim().isEmpty()) {
+                throw EnigmaException.error("config error, bad rotor "
+                        + "description: %s", lines[2].substring(end,
+                        rotor.start()).trim());
+            }
+            end = rotor.end();
+            String type = rotor.group(2);
+            long mask = 0;
+            for (int i = 1; i < type.length(); i++) {
+                mask |= 1L << alphabet.toInt(type.charAt(i));
+            }
+            if (type.equals("M")) {
+                throw EnigmaException.error("config error, doesn't assign "
+                        + "any notches to a moving rotor %s.",
+                        rotor.group(1));
+            }
+            names.add(rotor.group(1));
+            types.add(type.charAt(0));
+            notches.add(mask);
+            wirings.add(Wiring.of(rotor.group(3).replaceAll("\\s+", ""),
+                    alphabet));
+        }
+        if (!lines[2].substring(end).trim().isEmpty()) {
+            throw EnigmaException.error("config error, bad rotor "
+                    + "description: %s", lines[2].substring(end).trim());
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append("package enigma;\n\n");
+        out.append("/**\n");
+        out.append(" * The default rotor set as tables.  Generated by ")
+                .append("RotorTableGenerator from\n");
+        out.append(" * src/main/rotors/default.conf; do not edit.\n");
+        out.append(" */\n");
+        out.append("final class ").append(CLASS_NAME).append(" {\n\n");
+        out.append("    private ").append(CLASS_NAME).append("() {\n");
+        out.append("    }\n\n");
+        out.append("    static final String ID = \"")
+                .append(String.format("%016x", id(config))).append("\";\n\n");
+        out.append("    static final String ALPHABET =\n");
+        out.append("            \"").append(escape(letters)).append("\";\n\n");
+        out.append("    static final int NUM_ROTORS = ")
+                .append(numRotors).append(";\n\n");
+        out.append("    static final int NUM_PAWLS = ")
+                .append(numPawls).append(";\n\n");
+        List<String> items = new ArrayList<>();
+        for (String name : names) {
+            items.add("\"" + escape(name) + "\"");
+        }
+        array(out, "String[] NAMES", items);
+        items.clear();
+        for (char type : types) {
+            items.add("'" + type + "'");
+        }
+        array(out, "char[] TYPES", items);
+        items.clear();
+        for (long mask : notches) {
+            items.add("0x" + Long.toHexString(mask) + "L");
+        }
+        array(out, "long[] NOTCHES", items);
+        tables(out, "FORWARD", wirings, false);
+        tables(out, "INVERSE", wirings, true);
+        out.setLength(out.length() - 1);
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Append the declaration of the array DECLARATION with the elements
+     * ITEMS to OUT, wrapped at 80 columns.
+     */
+    private static void array(StringBuilder out, String declaration,
+                              List<String> items) {
+        out.append("    static final ").append(declaration)
+                .append(" = {\n");
+        line(out, items, "        ");
+        out.append("    };\n\n");
+    }
+
+    /**
+     * Append the declaration of the table NAME, holding the forward
+     * pass, or the inverse pass if INVERSE, of each of WIRINGS, to OUT.
+     */
+    private static void tables(StringBuilder out, String name,
+                               List<Wiring> wirings, boolean inverse) {
+        out.append("    static final int[][] ").append(name)
+                .append(" = {\n");
+        List<String> items = new ArrayList<>();
+        for (Wiring wiring : wirings) {
+            items.clear();
+            for (int c = 0; c < wiring.size(); c++) {
+                items.add(String.valueOf(inverse ? wiring.inverse(c)
+                        : wiring.forward(c)));
+            }
+            out.append("        {\n");
+            line(out, items, "            ");
+            out.append("        },\n");
+        }
+        out.append("    };\n\n");
+    }
+
+    /**
+     * Append ITEMS to OUT, separated by commas, in lines starting with
+     * INDENT and at most 80 columns long.
+     */
+    private static void line(StringBuilder out, List<String> items,
+                             String indent) {
+        int column = 0;
+        for (int k = 0; k < items.size(); k++) {
+            String item = items.get(k) + (k + 1 < items.size() ? "," : "");
+            if (column > 0 && column + 1 + item.length() > LINE_WIDTH) {
+                out.append('\n');
+                column = 0;
+            }
+            if (column == 0) {
+                out.append(indent);
+                column = indent.length();
+            } else {
+                out.append(' ');
+                column += 1;
+            }
+            out.append(item);
+            column += item.length();
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Return the 64-bit FNV-1a hash of CONFIG, which identifies the
+     * configuration the tables were generated from.
+     */
+    static long id(String config) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < config.length(); i++) {
+            hash = (hash ^ config.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Return S as the contents of a Java string literal.
+     */
+    private static String escape(String s) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ' || c > '~') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Name of the generated class.
+     */
+    static final String CLASS_NAME = "DefaultRotors";
+
+    /**
+     * Longest generated line.
+     */
+    private static final int LINE_WIDTH = 80;
+
+    /**
+     * A rotor description: its name, its type and notches, and its
+     * cycles.
+     */
+    private static final Pattern ROTOR = Pattern.compile(
+            "([^()\\s]+)\\s+(M[^()\\s]*|N|R)((?:\\s*\\([^()]*\\))*)");
+}
@@ -0,0 +1,263 @@
+package com.android.xjay.enigma;
+
+import java.util.concurrent.Executor;
+
+import enigma.EncryptionCache;
+import enigma.Simulator;
+
+/**
+ * Runs a Simulator on a background executor and delivers its progress
+ * and output on the UI executor.  Large outputs are delivered in several
+ * chunks so that no single update blocks the UI for long.
+ *
+ * @author Junyi Cao
+ */
+public class EncodeTask {
+
+    /**
+     * Receives the results of an EncodeTask.  All methods are called on
+     * the UI executor.
+     */
+    public interface Callback {
+
+        /**
+         * Called once before any output, when encoding starts.
+         */
+        void onStarted();
+
+        /**
+         * Called whenever the progress changes, with PERCENT in 0..100.
+         */
+        void onProgress(int percent);
+
+        /**
+         * Called with each successive CHUNK of the encoded output.
+         */
+        void onOutput(CharSequence chunk);
+
+        /**
+         * Called after the last chunk of output.
+         */
+        void onFinished();
+
+        /**
+         * Called instead of onFinished() if encoding failed with ERROR:
+         * an EnigmaException for bad input, or anything else thrown
+         * while encoding, such as an OutOfMemoryError on a huge input.
+         */
+        void onError(Throwable error);
+    }
+
+    /**
+     * Number of output characters delivered per onOutput() call.
+     */
+    static final int OUTPUT_CHUNK = 4096;
+
+    /**
+     * A task that encodes INPUT (a settings line followed by messages)
+     * on BACKGROUND and reports to CALLBACK through UI.
+     */
+    EncodeTask(String input, Executor background, Executor ui,
+               Callback callback) {
+        mInput = input;
+        mBackground = background;
+        mUi = ui;
+        mCallback = callback;
+    }
+
+    /**
+     * Read messages leniently (see Simulator.setLenientInput) iff
+     * LENIENT.  Must be called before start().
+     */
+    void setLenientInput(boolean lenient) {
+        mLenient = lenient;
+    }
+
+    /**
+     * Look up the output in CACHE before encoding, and remember it there
+     * afterwards.  Must be called before start().
+     */
+    void setCache(EncryptionCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Start encoding.
+     */
+    void start() {
+        mUi.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mCallback.onStarted();
+                }
+            }
+        });
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                encode();
+            }
+        });
+    }
+
+    /**
+     * Stop encoding.  No callbacks are made after this returns, as long
+     * as it is called on the UI executor.
+     */
+    void cancel() {
+        mCancelled = true;
+        Simulator simulator = mSimulator;
+        if (simulator != null) {
+            simulator.cancel();
+        }
+    }
+
+    /**
+     * Return true iff cancel() has been called.
+     */
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Take the output from the cache or run the simulator, and post the
+     * results.  Called on the background executor.
+     */
+    private void encode() {
+        if (mCancelled) {
+            return;
+        }
+        try {
+            String output = mCache == null ? null
+                    : mCache.getEncode(mInput, mLenient);
+            if (output == null) {
+                output = simulate();
+            }
+            if (output == null) {
+                return;
+            }
+            for (int i = 0; i < output.length(); i += OUTPUT_CHUNK) {
+                final CharSequence chunk = output.substring(
+                        i, Math.min(output.length(), i + OUTPUT_CHUNK));
+                mUi.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mCancelled) {
+                            mCallback.onOutput(chunk);
+                        }
+                    }
+                });
+            }
+            mUi.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onFinished();
+                    }
+                }
+            });
+        } catch (final Throwable error) {
+            mUi.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onError(error);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Run the simulator and return its output, or null if cancelled.
+     * Called on the background executor.
+     */
+    private String simulate() {
+        Simulator simulator = new Simulator(mInput);
+        simulator.setLenientInput(mLenient);
+        mSimulator = simulator;
+        if (mCancelled) {
+            return null;
+        }
+        simulator.setProgressListener(new Simulator.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                postProgress(total == 0 ? 100 : (int) (100 * done / total));
+            }
+        });
+        simulator.process();
+        if (simulator.isCancelled()) {
+            return null;
+        }
+        String output = simulator.getEncode();
+        if (mCache != null) {
+            mCache.putEncode(mInput, mLenient, output);
+        }
+        return output;
+    }
+
+    /**
+     * Post PERCENT to the callback if it differs from the last value
+     * posted.
+     */
+    private void postProgress(final int percent) {
+        if (percent == mLastPercent) {
+            return;
+        }
+        mLastPercent = percent;
+        mUi.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mCallback.onProgress(percent);
+                }
+            }
+        });
+    }
+
+    /**
+     * The settings line and messages to encode.
+     */
+    private final String mInput;
+
+    /**
+     * Executor that runs the simulator.
+     */
+    private final Executor mBackground;
+
+    /**
+     * Executor that runs the callbacks.
+     */
+    private final Executor mUi;
+
+    /**
+     * Receiver of the results.
+     */
+    private final Callback mCallback;
+
+    /**
+     * Whether messages are read leniently.
+     */
+    private boolean mLenient;
+
+    /**
+     * Cache of outputs, or null.
+     */
+    private EncryptionCache mCache;
+
+    /**
+     * The running simulator, once created.
+     */
+    private volatile Simulator mSimulator;
+
+    /**
+     * True iff cancel() has been called.
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * Last progress posted, used to skip duplicate reports.
+     */
+    private int mLastPercent = -1;
+}
@@ -0,0 +1,124 @@
+package com.android.xjay.enigma;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.TextView;
+
+import enigma.EnigmaException;
+import enigma.GroupFormatter;
+import enigma.LiveSession;
+
+/**
+ * A helper class that encrypts the message frame as it is typed and
+ * shows the result in the output frame.  Letters typed at the end are
+ * appended to the output; only an edit that changes letters already
+ * shown lays the whole output out again.  Live encryption is off while
+ * the message frame is longer than LIVE_LIMIT, since laying it out
+ * again on the UI thread would take too long; ENCODE still works.
+ *
+ * @author Junyi Cao
+ */
+public class LiveEncodeWatcher implements TextWatcher {
+
+    /** Longest message frame encrypted live, in characters. */
+    static final int LIVE_LIMIT = 16384;
+
+    private TextView mOutput;
+    private LiveSession mSession = null;
+    /** The valid settings line of the last restart(), or null. */
+    private String mSettings = null;
+    private final StringBuilder mGrouped = new StringBuilder();
+    /** Number of ciphertext letters in the output frame. */
+    private int mShown;
+    /** Number of those letters the edits since the last show() kept. */
+    private int mKept;
+
+    LiveEncodeWatcher(TextView output) {
+        super();
+        mOutput = output;
+    }
+
+    /**
+     * Start a new session for the settings line SETTINGS and encrypt
+     * TEXT with it.  Live encryption stops while SETTINGS is invalid
+     * or TEXT is longer than LIVE_LIMIT.
+     */
+    void restart(String settings, CharSequence text) {
+        stop();
+        mSettings = settings;
+        if (text.length() > LIVE_LIMIT) {
+            return;
+        }
+        try {
+            mSession = new LiveSession(settings);
+            mSession.reset(text);
+            mKept = -1;
+            show();
+        } catch (EnigmaException exception) {
+            mSession = null;
+            mSettings = null;
+        }
+    }
+
+    /**
+     * Note that something else has written to the output frame, so that
+     * the next update lays it out again in full.
+     */
+    void invalidate() {
+        mKept = -1;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (mSession != null && s.length() > LIVE_LIMIT) {
+            stop();
+        } else if (mSession != null) {
+            mKept = Math.min(mKept, start <= mSession.length()
+                    ? mSession.keystrokes(start) : 0);
+            mSession.update(s, start, before, count);
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        if (mSession != null) {
+            show();
+        } else if (mSettings != null && s.length() <= LIVE_LIMIT) {
+            restart(mSettings, s);
+        }
+    }
+
+    /**
+     * End the session, if any, clearing the output it showed.
+     */
+    private void stop() {
+        if (mSession != null) {
+            mSession = null;
+            mOutput.setText("");
+            mShown = 0;
+        }
+    }
+
+    /**
+     * Show the ciphertext of the session in groups of five, appending
+     * to the output if the letters shown are unchanged.
+     */
+    private void show() {
+        CharSequence cipher = mSession.ciphertext();
+        mGrouped.setLength(0);
+        if (mKept >= mShown && cipher.length() >= mShown) {
+            GroupFormatter.FIVES.formatTail(cipher, 0, mShown,
+                    cipher.length(), mGrouped);
+            mOutput.append(mGrouped);
+        } else {
+            GroupFormatter.FIVES.format(cipher, 0, cipher.length(), mGrouped);
+            mOutput.setText(mGrouped);
+        }
+        mShown = cipher.length();
+        mKept = Integer.MAX_VALUE;
+    }
+}
@@ -2,20 +2,29 @@ package com.android.xjay.enigma;
 
 import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.SpannableString;
+import android.text.TextWatcher;
 import android.text.method.LinkMovementMethod;
 import android.text.util.Linkify;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import enigma.EncryptionCache;
 import enigma.EnigmaException;
-import enigma.Simulator;
 
 /**
  * Main Activity for Enigma in Android.
@@ -68,6 +77,46 @@ public class MainActivity extends AppCompatActivity implements
      */
     private String[] rotors;
 
+    /**
+     * The encode button, which cancels while an encoding is running.
+     */
+    private Button btn_encode;
+
+    /**
+     * Encrypts the message frame as it is typed.
+     */
+    private LiveEncodeWatcher liveWatcher;
+
+    /**
+     * The running encoding, or null.
+     */
+    private EncodeTask encodeTask;
+
+    /**
+     * Recent encodings, kept across activities so that encoding the
+     * same settings and message again is immediate.
+     */
+    private static final EncryptionCache encryptions =
+            new EncryptionCache(4 << 20);
+
+    /**
+     * Executor that runs encodings off the main thread.
+     */
+    private final ExecutorService encoder =
+            Executors.newSingleThreadExecutor();
+
+    /**
+     * Executor that runs on the main thread.
+     */
+    private final Executor mainThread = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -83,6 +132,7 @@ public class MainActivity extends AppCompatActivity implements
         et_setting = findViewById(R.id.et_set);
         et_encoding = findViewById(R.id.et_encoding);
         tv_encoded = findViewById(R.id.tv_encoded);
+        btn_encode = findViewById(R.id.btn_encode);
 
         setAdapter(spA, setA, 0);
         setAdapter(spB, setB, 1);
@@ -92,6 +142,25 @@ public class MainActivity extends AppCompatActivity implements
 
         et_setting.addTextChangedListener(new JumpTextWatcher(
                 this, et_setting, et_encoding));
+        et_setting.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start,
+                                          int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start,
+                                      int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                restartLiveEncoding();
+            }
+        });
+
+        liveWatcher = new LiveEncodeWatcher(tv_encoded);
+        et_encoding.addTextChangedListener(liveWatcher);
 
         final SpannableString s = new SpannableString(getText(R.string.github));
         Linkify.addLinks(s, Linkify.WEB_URLS);
@@ -101,41 +170,57 @@ public class MainActivity extends AppCompatActivity implements
 
     }
 
+    @Override
+    protected void onDestroy() {
+        if (encodeTask != null) {
+            encodeTask.cancel();
+        }
+        encoder.shutdownNow();
+        super.onDestroy();
+    }
+
     @Override
     public void onClick(View v) {
         if (v.getId() == R.id.btn_encode) {
-            try {
-                StringBuffer sbSettings = new StringBuffer();
-                sbSettings.append("* ");
-                for (String s : rotors) {
-                    sbSettings.append(s);
-                    sbSettings.append(" ");
+            if (encodeTask != null) {
+                encodeTask.cancel();
+                encodeFinished();
+                return;
+            }
+            String encodes = et_encoding.getText().toString();
+            encodeTask = new EncodeTask(settingsLine() + "\n" + encodes,
+                    encoder, mainThread, new EncodeTask.Callback() {
+                @Override
+                public void onStarted() {
+                    liveWatcher.invalidate();
+                    tv_encoded.setText("");
+                    btn_encode.setText("CANCEL");
                 }
-                if (et_setting.getText().toString().matches("\\s*")) {
-                    sbSettings.append("AAAA AAAA");
-                } else {
-                    sbSettings.append(et_setting.getText().toString());
+
+                @Override
+                public void onProgress(int percent) {
+                    btn_encode.setText("CANCEL (" + percent + "%)");
                 }
 
-                String encodes = et_encoding.getText().toString().toUpperCase();
-                Simulator simulator = new Simulator(
-                        new String(sbSettings) + "\n" + encodes);
-                simulator.process();
-                tv_encoded.setText(simulator.getEncode());
-            } catch (EnigmaException exception) {
-                AlertDialog.Builder mBuilder = new AlertDialog.Builder(this);
-                mBuilder.setTitle("Error Found!");
-                mBuilder.setMessage(exception.getMessage());
-                mBuilder.setPositiveButton("Ok",
-                        new DialogInterface.OnClickListener() {
-                            @Override
-                            public void onClick(DialogInterface dialog,
-                                                int which) {
-                            }
-                        });
-                AlertDialog mAlert = mBuilder.create();
-                mAlert.show();
-            }
+                @Override
+                public void onOutput(CharSequence chunk) {
+                    tv_encoded.append(chunk);
+                }
+
+                @Override
+                public void onFinished() {
+                    encodeFinished();
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    encodeFinished();
+                    showError(error);
+                }
+            });
+            encodeTask.setLenientInput(true);
+            encodeTask.setCache(encryptions);
+            encodeTask.start();
         } else if (v.getId() == R.id.logo) {
             AlertDialog.Builder mBuilder = new AlertDialog.Builder(this);
             mBuilder.setTitle("Enigma Help");
@@ -164,6 +249,61 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
+    /**
+     * Return the settings line for the selected rotors and the typed
+     * positions, rings and plugboard.
+     */
+    private String settingsLine() {
+        StringBuffer sbSettings = new StringBuffer();
+        sbSettings.append("* ");
+        for (String s : rotors) {
+            sbSettings.append(s);
+            sbSettings.append(" ");
+        }
+        if (et_setting.getText().toString().matches("\\s*")) {
+            sbSettings.append("AAAA AAAA");
+        } else {
+            sbSettings.append(et_setting.getText().toString());
+        }
+        return new String(sbSettings);
+    }
+
+    /**
+     * Re-encrypt the message frame after the settings changed.
+     */
+    private void restartLiveEncoding() {
+        if (liveWatcher != null) {
+            liveWatcher.restart(settingsLine(), et_encoding.getText());
+        }
+    }
+
+    /**
+     * Restore the encode button after an encoding ends.
+     */
+    private void encodeFinished() {
+        encodeTask = null;
+        btn_encode.setText("ENCODE");
+    }
+
+    /**
+     * Show the message of EXCEPTION in a dialog.
+     */
+    private void showError(Throwable exception) {
+        AlertDialog.Builder mBuilder = new AlertDialog.Builder(this);
+        mBuilder.setTitle("Error Found!");
+        mBuilder.setMessage(exception instanceof EnigmaException
+                ? exception.getMessage() : exception.toString());
+        mBuilder.setPositiveButton("Ok",
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog,
+                                        int which) {
+                    }
+                });
+        AlertDialog mAlert = mBuilder.create();
+        mAlert.show();
+    }
+
     /**
      * Set ArrayAdapter for given Spinner sp.
      *
@@ -181,6 +321,7 @@ public class MainActivity extends AppCompatActivity implements
             public void onItemSelected(AdapterView<?> parent,
                                        View view, int position, long id) {
                 rotors[i] = array[position];
+                restartLiveEncoding();
             }
 
             @Override
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 /**
  * An alphabet of encodable characters.  Provides a mapping from characters
  * to and from indices into the alphabet.
@@ -13,20 +15,25 @@ public class Alphabet {
      * K (numbering from 0). No character may be duplicated.
      */
     Alphabet(String chars) {
-        StringBuffer buffer = new StringBuffer();
+        int max = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            max = Math.max(max, chars.charAt(i));
+        }
+        _indices = new char[chars.length() == 0 ? 0 : max + 1];
+        Arrays.fill(_indices, ABSENT);
         for (int i = 0; i < chars.length(); i++) {
             char c = chars.charAt(i);
-            if (buffer.indexOf(String.valueOf(c)) != -1) {
+            if (_indices[c] != ABSENT) {
                 throw EnigmaException.error(
                         "Duplicated character `%c` detected!", c);
             } else if (c == '*' || c == '(' || c == ')' || c == ' ') {
                 throw EnigmaException.error("Alphabet contains `%c` which "
                         + "is not allowed.", c);
             } else {
-                buffer.append(c);
+                _indices[c] = (char) i;
             }
         }
-        characters = new String(buffer);
+        characters = chars;
     }
 
     /**
@@ -47,7 +54,7 @@ public class Alphabet {
      * Returns true if preprocess(CH) is in this alphabet.
      */
     boolean contains(char ch) {
-        return characters.indexOf(ch) != -1;
+        return ch < _indices.length && _indices[ch] != ABSENT;
     }
 
     /**
@@ -63,11 +70,10 @@ public class Alphabet {
      * the alphabet. This is the inverse of toChar().
      */
     int toInt(char ch) {
-        int index = characters.indexOf(ch);
-        if (index == -1) {
+        if (!contains(ch)) {
             throw EnigmaException.error("`%c` is NOT in the alphabet!", ch);
         }
-        return characters.indexOf(ch);
+        return _indices[ch];
     }
 
     /**
@@ -75,6 +81,19 @@ public class Alphabet {
      */
     private String characters;
 
+    /**
+     * _indices[C] is the index of character C, or ABSENT if C is not in
+     * the alphabet.  Only characters up to the largest one in the
+     * alphabet have entries.
+     */
+    private char[] _indices;
+
+    /**
+     * Marks characters that are not in the alphabet.  It can never be a
+     * valid index, since the alphabet excludes some characters.
+     */
+    private static final char ABSENT = '\uffff';
+
     /**
      * Return the characters of the alphabet.
      */
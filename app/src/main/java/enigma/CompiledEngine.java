@@ -0,0 +1,153 @@
+package enigma;
+
+/**
+ * An Engine compiled from a snapshot of a configured Machine.  Every
+ * rotor is turned into a table indexed by (setting, input), so that a
+ * keystroke costs a few array loads and no modular arithmetic, and the
+ * rotors that never move are composed with the reflector into a single
+ * table.  The engine then advances on its own; store() copies its rotor
+ * positions back into a machine.
+ *
+ * @author Junyi Cao
+ */
+abstract class CompiledEngine implements Engine {
+
+    /**
+     * Return the fastest compiled engine for MACHINE: a generated
+     * straight-line class if one exists for its layout and it steps
+     * with pawls, and a TableMachine otherwise.
+     */
+    static CompiledEngine compile(Machine machine) {
+        if (machine.numRotors() == 5 && machine.numPawls() == 3
+                && !machine.stepping().geared()) {
+            return new Layout53Machine(machine);
+        }
+        return new TableMachine(machine);
+    }
+
+    /**
+     * Largest alphabet for which per-setting tables are built.
+     */
+    static final int MAX_SIZE = 1024;
+
+    /**
+     * An engine for MACHINE, which must have all its rotors inserted.
+     */
+    CompiledEngine(Machine machine) {
+        for (int i = 0; i < machine.numRotors(); i++) {
+            if (machine.rotor(i) == null) {
+                throw EnigmaException.error("setting error, rotors "
+                        + "have not been inserted.");
+            }
+        }
+        _size = machine.alphabet().size();
+        if (_size > MAX_SIZE) {
+            throw EnigmaException.error("cannot compile a machine whose "
+                    + "alphabet has more than %d characters.", MAX_SIZE);
+        }
+        _first = machine.numRotors() - machine.numPawls();
+    }
+
+    @Override
+    public void convert(int[] msg, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            msg[i] = convert(msg[i]);
+        }
+    }
+
+    /**
+     * Return my rotor settings, indexed by slot.  Entries for slots that
+     * do not move are 0.
+     */
+    abstract int[] settings();
+
+    /**
+     * Set the moving rotors of MACHINE, which must be the machine I was
+     * compiled from or one with the same rotors and rings, to my current
+     * positions.
+     */
+    void store(Machine machine) {
+        int[] settings = settings();
+        for (int i = _first; i < machine.numRotors(); i++) {
+            Rotor r = machine.rotor(i);
+            r.set(settings[i] + r.alphabetRing());
+        }
+    }
+
+    /**
+     * Return the plugboard of MACHINE as a table.
+     */
+    static int[] plugboardTable(Machine machine) {
+        Permutation plugboard = machine.plugboard();
+        int[] table = new int[plugboard.size()];
+        for (int c = 0; c < table.length; c++) {
+            table[c] = plugboard.permute(c);
+        }
+        return table;
+    }
+
+    /**
+     * Return the composition of the forward passes of MACHINE's
+     * non-moving rotors, its reflector and their backward passes, at
+     * their current settings.
+     */
+    static int[] middleTable(Machine machine) {
+        int first = machine.numRotors() - machine.numPawls();
+        int[] table = new int[machine.alphabet().size()];
+        for (int c = 0; c < table.length; c++) {
+            int e = c;
+            for (int i = first - 1; i >= 0; i--) {
+                e = machine.rotor(i).convertForward(e);
+            }
+            for (int i = 1; i < first; i++) {
+                e = machine.rotor(i).convertBackward(e);
+            }
+            table[c] = e;
+        }
+        return table;
+    }
+
+    /**
+     * Return the forward pass of ROTOR at every setting: entry
+     * S * size + C is the conversion of C at setting S.  The table is
+     * shared with every rotor of the same wiring and must not be
+     * modified.
+     */
+    static int[] forwardTable(Rotor rotor) {
+        return rotor.permutation().wiring().forwardBySetting();
+    }
+
+    /**
+     * Return the backward pass of ROTOR at every setting, laid out as
+     * for forwardTable.  The table is shared and must not be modified.
+     */
+    static int[] backwardTable(Rotor rotor) {
+        return rotor.permutation().wiring().backwardBySetting();
+    }
+
+    /**
+     * Return, for each setting of the rotor in slot K of MACHINE, whether
+     * it carries into the rotor to its left under MACHINE's stepping.
+     */
+    static boolean[] notchTable(Machine machine, int k) {
+        Rotor rotor = machine.rotor(k);
+        boolean[] table = new boolean[rotor.size()];
+        if (rotor instanceof MovingRotor) {
+            for (int s = 0; s < table.length; s++) {
+                table[s] = machine.stepping().carries((MovingRotor) rotor,
+                        s);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Size of the alphabet.
+     */
+    final int _size;
+
+    /**
+     * Slot of the leftmost moving rotor.
+     */
+    final int _first;
+}
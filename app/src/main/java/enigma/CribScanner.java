@@ -0,0 +1,233 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds where cribs, guessed words of the plaintext, may lie under a
+ * ciphertext.  A machine whose reflector is a derangement never
+ * encrypts a letter to itself, so a crib cannot lie at an offset where
+ * any of its letters meets the same letter of the ciphertext.
+ * <p>
+ * The ciphertext is cut into chunks of CHUNK offsets, scanned in
+ * parallel.  Each chunk is turned into one bitset per letter of the
+ * positions holding that letter; the offsets ruled out for a crib are
+ * then the OR, over the crib's letters, of that letter's bitset shifted
+ * down by the letter's place in the crib, 64 offsets a word.  The
+ * result for each crib is a bitset of the offsets left.
+ *
+ * @author Junyi Cao
+ */
+final class CribScanner {
+
+    /**
+     * A scanner for CRIBS, each a non-empty string of letters of
+     * ALPHABET.
+     */
+    CribScanner(Alphabet alphabet, List<String> cribs) {
+        _size = alphabet.size();
+        _cribs = new int[cribs.size()][];
+        InputFilter filter = InputFilter.strict(alphabet);
+        for (int c = 0; c < _cribs.length; c++) {
+            String crib = cribs.get(c);
+            int[] letters = new int[crib.length() * filter.maxExpansion()];
+            int n = filter.filter(crib, 0, crib.length(), letters, 0);
+            if (n == 0) {
+                throw EnigmaException.error("a crib may not be empty.");
+            }
+            _cribs[c] = Arrays.copyOf(letters, n);
+            _maxLength = Math.max(_maxLength, n);
+        }
+    }
+
+    /**
+     * Return the number of cribs.
+     */
+    int numCribs() {
+        return _cribs.length;
+    }
+
+    /**
+     * Return, for each crib, the offsets in CIPHERTEXT[0 .. LENGTH - 1]
+     * at which it may lie, scanning with THREADS threads: bit O % 64 of
+     * word O / 64 is set iff the crib fits at offset O and none of its
+     * letters meets the same letter of CIPHERTEXT.
+     */
+    long[][] scan(final int[] ciphertext, final int length, int threads) {
+        if (length < 0 || length > ciphertext.length) {
+            throw EnigmaException.error("bad ciphertext length: %d",
+                    length);
+        }
+        final long[][] offsets = new long[_cribs.length][
+                (length + 63) / 64];
+        int chunks = (length + CHUNK - 1) / CHUNK;
+        if (threads <= 1 || chunks <= 1) {
+            for (int k = 0; k < chunks; k++) {
+                scan(ciphertext, length, k * CHUNK, offsets);
+            }
+            return offsets;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> pending = new ArrayList<>(chunks);
+            for (int k = 0; k < chunks; k++) {
+                final int from = k * CHUNK;
+                pending.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        scan(ciphertext, length, from, offsets);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> chunk : pending) {
+                chunk.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw EnigmaException.error("crib scan interrupted.");
+        } catch (ExecutionException excp) {
+            throw EnigmaException.error("crib scan failed: %s",
+                    excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return offsets;
+    }
+
+    /**
+     * Return the number of offsets set in OFFSETS, a result of scan().
+     */
+    static long count(long[] offsets) {
+        long n = 0;
+        for (long word : offsets) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    /**
+     * Return the offsets set in OFFSETS, a result of scan(), in order.
+     */
+    static int[] offsets(long[] offsets) {
+        int[] result = new int[(int) count(offsets)];
+        int n = 0;
+        for (int w = 0; w < offsets.length; w++) {
+            for (long word = offsets[w]; word != 0; word &= word - 1) {
+                result[n++] = w * 64 + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Store into OFFSETS the offsets FROM .. FROM + CHUNK - 1 of every
+     * crib in CIPHERTEXT[0 .. LENGTH - 1].
+     */
+    private void scan(int[] ciphertext, int length, int from,
+                      long[][] offsets) {
+        int to = Math.min(length, from + CHUNK);
+        int words = (to - from + 63) / 64;
+        long[][] letters = letters();
+        long[] ruled = _ruled.get();
+        int end = (int) Math.min(length, (long) to + _maxLength - 1);
+        for (long[] bits : letters) {
+            Arrays.fill(bits, 0);
+        }
+        for (int p = from; p < end; p++) {
+            int i = p - from;
+            letters[ciphertext[p]][i >>> 6] |= 1L << i;
+        }
+        for (int c = 0; c < _cribs.length; c++) {
+            int[] crib = _cribs[c];
+            Arrays.fill(ruled, 0, words, 0);
+            for (int j = 0; j < crib.length; j++) {
+                long[] bits = letters[crib[j]];
+                int w0 = j >>> 6, shift = j & 63;
+                if (shift == 0) {
+                    for (int w = 0; w < words; w++) {
+                        ruled[w] |= bits[w + w0];
+                    }
+                } else {
+                    for (int w = 0; w < words; w++) {
+                        ruled[w] |= bits[w + w0] >>> shift
+                                | bits[w + w0 + 1] << (64 - shift);
+                    }
+                }
+            }
+            long[] result = offsets[c];
+            int last = length - crib.length;
+            int base = from >>> 6;
+            for (int w = 0; w < words; w++) {
+                long fits = -1L;
+                int first = from + w * 64;
+                if (first > last) {
+                    fits = 0;
+                } else if (last - first < 63) {
+                    fits = -1L >>> (63 - (last - first));
+                }
+                result[base + w] = ~ruled[w] & fits;
+            }
+        }
+    }
+
+    /**
+     * Return this thread's per-letter bitsets, with room for a chunk and
+     * the longest crib.
+     */
+    private long[][] letters() {
+        long[][] letters = _letters.get();
+        if (letters == null) {
+            letters = new long[_size][WORDS + (_maxLength + 63) / 64 + 1];
+            _letters.set(letters);
+        }
+        return letters;
+    }
+
+    /**
+     * Number of offsets scanned at a time, a multiple of 64.
+     */
+    static final int CHUNK = 1 << 16;
+
+    /**
+     * Words of offsets in a chunk.
+     */
+    private static final int WORDS = CHUNK / 64;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * The cribs, as letter indices.
+     */
+    private final int[][] _cribs;
+
+    /**
+     * Length of the longest crib.
+     */
+    private int _maxLength;
+
+    /**
+     * Each thread's bitsets of the positions of each letter in a chunk.
+     */
+    private final ThreadLocal<long[][]> _letters = new ThreadLocal<>();
+
+    /**
+     * Each thread's bitset of the offsets of a chunk ruled out for a
+     * crib.
+     */
+    private final ThreadLocal<long[]> _ruled = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[WORDS];
+        }
+    };
+}
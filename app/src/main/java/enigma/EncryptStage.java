@@ -0,0 +1,455 @@
+package enigma;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pipeline stage that encrypts each message it receives and passes the
+ * ciphertext on.  Whitespace in a message is dropped, as by Simulator;
+ * any other character outside the alphabet fails the stream.
+ * <p>
+ * The stage never holds more than CAPACITY messages: it requests that
+ * many from upstream at the start, and only asks for more as its
+ * subscriber's demand lets it pass messages on.  Work runs on an
+ * executor, a batch of up to BATCH messages at a time, which are
+ * encrypted with a single call to the engine.  The rotors either carry
+ * on from one message to the next, as if the messages were one text, or
+ * go back to their starting positions before each message.
+ *
+ * @author Junyi Cao
+ */
+public final class EncryptStage
+        implements Flow.Processor<CharSequence, CharSequence> {
+
+    /**
+     * A stage for the default rotor set set up by the settings line
+     * SETTINGS, holding up to CAPACITY messages and running on EXECUTOR.
+     * If CONTINUOUS, the rotors carry on from message to message;
+     * otherwise every message starts from the positions in SETTINGS.
+     */
+    public EncryptStage(String settings, boolean continuous, int capacity,
+                        Executor executor) {
+        this(Simulator.defaultMachine(settings), continuous, capacity,
+                executor);
+    }
+
+    /**
+     * A stage that encrypts with MACHINE, which belongs to the stage from
+     * now on, starting in its current state.  The other arguments are as
+     * for the public constructor.
+     */
+    EncryptStage(Machine machine, boolean continuous, int capacity,
+                 Executor executor) {
+        if (capacity <= 0) {
+            throw EnigmaException.error("capacity must be positive, but "
+                    + "found %d.", capacity);
+        }
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _continuous = continuous;
+        if (continuous && _alphabet.size() <= CompiledEngine.MAX_SIZE) {
+            _engine = CompiledEngine.compile(machine);
+        } else {
+            _engine = machine;
+        }
+        _start = new int[machine.numPawls()];
+        machine.savePositions(_start, 0);
+        _capacity = capacity;
+        _executor = executor;
+        _queue = new ArrayDeque<>(capacity);
+        _batch = new CharSequence[Math.min(BATCH, capacity)];
+        _ends = new int[_batch.length];
+        _letters = new int[INITIAL_LETTERS];
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (_upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+        }
+        subscription.request(_capacity);
+    }
+
+    @Override
+    public void onNext(CharSequence item) {
+        synchronized (this) {
+            if (_queue.size() == _capacity) {
+                _failure = EnigmaException.error("stream error, more "
+                        + "messages were sent than requested.");
+                _done = true;
+            } else {
+                _queue.add(item);
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            if (_failure == null) {
+                _failure = throwable;
+            }
+            _done = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            _done = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CharSequence> subscriber) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = _downstream == null;
+            if (accepted) {
+                _downstream = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(EnigmaException.error("stream error, an "
+                    + "EncryptStage takes only one subscriber."));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (EncryptStage.this) {
+                    if (n <= 0) {
+                        _failure = new IllegalArgumentException(
+                                "non-positive request: " + n);
+                        _done = true;
+                        _queue.clear();
+                    } else {
+                        _demand = _demand + n < 0 ? Long.MAX_VALUE
+                                : _demand + n;
+                    }
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                Flow.Subscription upstream;
+                synchronized (EncryptStage.this) {
+                    _cancelled = true;
+                    _queue.clear();
+                    upstream = _upstream;
+                }
+                if (upstream != null) {
+                    upstream.cancel();
+                }
+            }
+        });
+        drain();
+    }
+
+    /**
+     * Return the number of messages waiting to be encrypted.
+     */
+    public synchronized int queueDepth() {
+        return _queue.size();
+    }
+
+    /**
+     * Return the number of messages passed on so far.
+     */
+    public long messages() {
+        return _messages;
+    }
+
+    /**
+     * Return the number of characters encrypted so far.
+     */
+    public long characters() {
+        return _characters;
+    }
+
+    /**
+     * Return the number of characters encrypted per second while the
+     * stage was working, or 0 before any work.
+     */
+    public double throughput() {
+        long busy = _busyNanos;
+        return busy == 0 ? 0 : _characters * 1e9 / busy;
+    }
+
+    /**
+     * Arrange for queued messages to be encrypted and passed on as far
+     * as demand allows, on the executor.  At most one drain runs at a
+     * time; a call while one is running makes it go round again.
+     */
+    private void drain() {
+        if (_pending.getAndIncrement() == 0) {
+            _executor.execute(_drainer);
+        }
+    }
+
+    /**
+     * Pass on as many batches as demand allows, then end the stream if
+     * upstream has ended and nothing is left.
+     */
+    private void drainOnce() {
+        Flow.Subscriber<? super CharSequence> downstream;
+        while (true) {
+            int n = 0;
+            Flow.Subscription upstream;
+            synchronized (this) {
+                downstream = _downstream;
+                if (downstream == null || _cancelled || _terminated
+                        || (_failure != null && _done)) {
+                    break;
+                }
+                while (n < _batch.length && n < _demand
+                        && !_queue.isEmpty()) {
+                    _batch[n++] = _queue.poll();
+                }
+                _demand -= n;
+                upstream = _upstream;
+            }
+            if (n == 0) {
+                break;
+            }
+            CharSequence[] output;
+            try {
+                output = encrypt(n);
+            } catch (EnigmaException excp) {
+                synchronized (this) {
+                    _failure = excp;
+                    _done = true;
+                    _queue.clear();
+                }
+                break;
+            }
+            for (int k = 0; k < n; k++) {
+                downstream.onNext(output[k]);
+            }
+            _messages += n;
+            if (upstream != null) {
+                upstream.request(n);
+            }
+        }
+        Throwable failure;
+        Flow.Subscription upstream;
+        synchronized (this) {
+            if (downstream == null || _cancelled || _terminated || !_done
+                    || (_failure == null && !_queue.isEmpty())) {
+                return;
+            }
+            _terminated = true;
+            failure = _failure;
+            upstream = _upstream;
+        }
+        if (failure != null) {
+            if (upstream != null) {
+                upstream.cancel();
+            }
+            downstream.onError(failure);
+        } else {
+            downstream.onComplete();
+        }
+    }
+
+    /**
+     * Encrypt the first N messages of _batch, clearing them, and return
+     * their encryptions.
+     */
+    private CharSequence[] encrypt(int n) {
+        long start = System.nanoTime();
+        int total = 0;
+        for (int k = 0; k < n; k++) {
+            CharSequence item = _batch[k];
+            if (total + item.length() > _letters.length) {
+                int length = Math.max(2 * _letters.length,
+                        total + item.length());
+                int[] letters = new int[length];
+                System.arraycopy(_letters, 0, letters, 0, total);
+                _letters = letters;
+            }
+            for (int i = 0; i < item.length(); i++) {
+                char c = item.charAt(i);
+                if (_alphabet.contains(c)) {
+                    _letters[total++] = _alphabet.toInt(c);
+                } else if (!Character.isWhitespace(c)) {
+                    throw EnigmaException.error("`%c` is NOT in the "
+                            + "alphabet!", c);
+                }
+            }
+            _ends[k] = total;
+            _batch[k] = null;
+        }
+        if (_continuous) {
+            _engine.convert(_letters, 0, total);
+        } else {
+            for (int k = 0, from = 0; k < n; from = _ends[k++]) {
+                _machine.loadPositions(_start, 0);
+                _engine.convert(_letters, from, _ends[k] - from);
+            }
+        }
+        CharSequence[] output = new CharSequence[n];
+        for (int k = 0, from = 0; k < n; from = _ends[k++]) {
+            char[] text = new char[_ends[k] - from];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = _alphabet.toChar(_letters[from + i]);
+            }
+            output[k] = new String(text);
+        }
+        _characters += total;
+        _busyNanos += System.nanoTime() - start;
+        return output;
+    }
+
+    /**
+     * Most messages encrypted in one batch.
+     */
+    static final int BATCH = 64;
+
+    /**
+     * Initial room for the letters of a batch.
+     */
+    private static final int INITIAL_LETTERS = 4096;
+
+    /**
+     * The machine, also the engine unless continuous.
+     */
+    private final Machine _machine;
+
+    /**
+     * Its alphabet.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Whether the rotors carry on between messages.
+     */
+    private final boolean _continuous;
+
+    /**
+     * Encrypts the letters of a batch.
+     */
+    private final Engine _engine;
+
+    /**
+     * Starting positions of the moving rotors.
+     */
+    private final int[] _start;
+
+    /**
+     * Most messages held at once.
+     */
+    private final int _capacity;
+
+    /**
+     * Runs the drainer.
+     */
+    private final Executor _executor;
+
+    /**
+     * Messages waiting to be encrypted.
+     */
+    private final ArrayDeque<CharSequence> _queue;
+
+    /**
+     * The batch being encrypted.
+     */
+    private final CharSequence[] _batch;
+
+    /**
+     * End of each message of the batch in _letters.
+     */
+    private final int[] _ends;
+
+    /**
+     * Letters of the batch, as indices.
+     */
+    private int[] _letters;
+
+    /**
+     * Number of drains requested and not yet run.
+     */
+    private final AtomicInteger _pending = new AtomicInteger();
+
+    /**
+     * Encrypts and passes on messages; run only through drain().
+     */
+    private final Runnable _drainer = new Runnable() {
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drainOnce();
+                missed = _pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    };
+
+    /**
+     * Subscription to upstream, once subscribed.
+     */
+    private Flow.Subscription _upstream;
+
+    /**
+     * The subscriber, once subscribed.
+     */
+    private Flow.Subscriber<? super CharSequence> _downstream;
+
+    /**
+     * Messages the subscriber has requested and not yet received.
+     */
+    private long _demand;
+
+    /**
+     * Whether upstream has ended or the stream has failed.
+     */
+    private boolean _done;
+
+    /**
+     * Why the stream failed, or null.
+     */
+    private Throwable _failure;
+
+    /**
+     * Whether the subscriber has cancelled.
+     */
+    private boolean _cancelled;
+
+    /**
+     * Whether the subscriber has been sent onComplete or onError.
+     */
+    private boolean _terminated;
+
+    /**
+     * Messages passed on.
+     */
+    private volatile long _messages;
+
+    /**
+     * Characters encrypted.
+     */
+    private volatile long _characters;
+
+    /**
+     * Nanoseconds spent encrypting.
+     */
+    private volatile long _busyNanos;
+}
@@ -0,0 +1,325 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recent encryptions so that resubmitting the same settings
+ * line and messages costs a lookup.  Entries are keyed by the id of the
+ * rotor configuration compiled into DefaultRotors, the settings line,
+ * the messages (by hash, then compared in full) and, for a Simulator's
+ * output, the GroupFormatter laying it out, and are evicted least
+ * recently used first once their estimated size passes a budget in
+ * bytes.  The cache may be shared between threads; encryptions run
+ * outside its lock, so two threads missing the same key both compute
+ * it.
+ *
+ * @author Junyi Cao
+ */
+public final class EncryptionCache {
+
+    /**
+     * An empty cache holding at most BUDGET bytes of entries.
+     */
+    public EncryptionCache(long budget) {
+        if (budget < 0) {
+            throw EnigmaException.error("negative cache budget: %d",
+                    budget);
+        }
+        _budget = budget;
+    }
+
+    /**
+     * Return the output of a Simulator given INPUT, a settings line
+     * followed by messages, read leniently iff LENIENT, computing and
+     * remembering it if it is not cached.
+     */
+    public String process(String input, boolean lenient) {
+        return process(input, lenient, GroupFormatter.FIVES);
+    }
+
+    /**
+     * Return the output of a Simulator given INPUT, read leniently iff
+     * LENIENT and laid out by FORMATTER, computing and remembering it if
+     * it is not cached.
+     */
+    public String process(String input, boolean lenient,
+                          GroupFormatter formatter) {
+        String output = getEncode(input, lenient, formatter);
+        if (output == null) {
+            Simulator simulator = new Simulator(input);
+            simulator.setLenientInput(lenient);
+            simulator.setFormatter(formatter);
+            simulator.process();
+            output = simulator.getEncode();
+            putEncode(input, lenient, formatter, output);
+        }
+        return output;
+    }
+
+    /**
+     * Return the cached output of a Simulator given INPUT, read
+     * leniently iff LENIENT, in groups of five, or null if it is not
+     * cached.
+     */
+    public String getEncode(String input, boolean lenient) {
+        return getEncode(input, lenient, GroupFormatter.FIVES);
+    }
+
+    /**
+     * Return the cached output of a Simulator given INPUT, read
+     * leniently iff LENIENT and laid out by FORMATTER, or null if it is
+     * not cached.
+     */
+    public String getEncode(String input, boolean lenient,
+                            GroupFormatter formatter) {
+        return get(simulatorKey(input, lenient, formatter));
+    }
+
+    /**
+     * Remember OUTPUT as the output of a Simulator given INPUT, read
+     * leniently iff LENIENT, in groups of five.
+     */
+    public void putEncode(String input, boolean lenient, String output) {
+        putEncode(input, lenient, GroupFormatter.FIVES, output);
+    }
+
+    /**
+     * Remember OUTPUT as the output of a Simulator given INPUT, read
+     * leniently iff LENIENT and laid out by FORMATTER.
+     */
+    public void putEncode(String input, boolean lenient,
+                          GroupFormatter formatter, String output) {
+        put(simulatorKey(input, lenient, formatter), output);
+    }
+
+    /**
+     * Return the conversion of MESSAGE, letters of the default alphabet,
+     * by a default machine set up with the settings line SETTINGS,
+     * computing and remembering it if it is not cached.
+     */
+    String convert(String settings, String message) {
+        Key key = new Key(MACHINE, null, settings, message);
+        String output = get(key);
+        if (output == null) {
+            output = Simulator.defaultMachine(settings).convert(message);
+            put(key, output);
+        }
+        return output;
+    }
+
+    /**
+     * Return the number of lookups that found an entry.
+     */
+    public synchronized long hits() {
+        return _hits;
+    }
+
+    /**
+     * Return the number of lookups that found nothing.
+     */
+    public synchronized long misses() {
+        return _misses;
+    }
+
+    /**
+     * Return the number of entries evicted to stay within the budget.
+     */
+    public synchronized long evictions() {
+        return _evictions;
+    }
+
+    /**
+     * Return the number of entries.
+     */
+    public synchronized int entries() {
+        return _entries.size();
+    }
+
+    /**
+     * Return the estimated size of the entries in bytes.
+     */
+    public synchronized long bytes() {
+        return _bytes;
+    }
+
+    /**
+     * Remove every entry.  The counts of hits, misses and evictions are
+     * kept.
+     */
+    public synchronized void clear() {
+        _entries.clear();
+        _bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, %d bytes of %d, %d hits, "
+                + "%d misses, %d evictions", _entries.size(), _bytes,
+                _budget, _hits, _misses, _evictions);
+    }
+
+    /**
+     * Return the key of a Simulator's output for INPUT, read leniently
+     * iff LENIENT and laid out by FORMATTER.
+     */
+    private static Key simulatorKey(String input, boolean lenient,
+                                    GroupFormatter formatter) {
+        if (formatter == null) {
+            throw EnigmaException.error("a Simulator's output needs a "
+                    + "formatter.");
+        }
+        char kind = lenient ? LENIENT : STRICT;
+        int end = input.indexOf('\n');
+        if (end < 0) {
+            return new Key(kind, formatter, input, "");
+        }
+        return new Key(kind, formatter, input.substring(0, end),
+                input.substring(end + 1));
+    }
+
+    /**
+     * Return the output cached under KEY, or null.
+     */
+    private synchronized String get(Key key) {
+        String output = _entries.get(key);
+        if (output == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return output;
+    }
+
+    /**
+     * Cache OUTPUT under KEY, evicting the least recently used entries
+     * as needed.  An entry larger than the whole budget is not cached.
+     */
+    private synchronized void put(Key key, String output) {
+        long size = size(key, output);
+        if (size > _budget) {
+            return;
+        }
+        String old = _entries.put(key, output);
+        if (old != null) {
+            _bytes -= size(key, old);
+        }
+        _bytes += size;
+        Iterator<Map.Entry<Key, String>> eldest =
+                _entries.entrySet().iterator();
+        while (_bytes > _budget) {
+            Map.Entry<Key, String> entry = eldest.next();
+            _bytes -= size(entry.getKey(), entry.getValue());
+            eldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /**
+     * Return the estimated size in bytes of an entry for KEY and OUTPUT.
+     */
+    private static long size(Key key, String output) {
+        return ENTRY_OVERHEAD + 2L * (key._settings.length()
+                + key._message.length() + output.length());
+    }
+
+    /**
+     * Identifies what was encrypted: a configuration, a kind of
+     * encryption and its layout, a settings line and the messages.
+     */
+    private static final class Key {
+
+        /**
+         * The key for converting MESSAGE with the settings line SETTINGS
+         * in the way KIND, laid out by FORMATTER (null for a Machine), on
+         * the configuration in DefaultRotors.
+         */
+        Key(char kind, GroupFormatter formatter, String settings,
+            String message) {
+            _kind = kind;
+            _formatter = formatter;
+            _settings = settings;
+            _message = message;
+            int layout = formatter == null ? 0 : formatter.hashCode();
+            _hash = (((DefaultRotors.ID.hashCode() * 31 + kind) * 31
+                    + layout) * 31 + settings.hashCode()) * 31
+                    + message.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _hash == other._hash && _kind == other._kind
+                    && (_formatter == null ? other._formatter == null
+                        : _formatter.equals(other._formatter))
+                    && _settings.equals(other._settings)
+                    && _message.equals(other._message);
+        }
+
+        /**
+         * The kind of encryption.
+         */
+        private final char _kind;
+
+        /**
+         * How the output is laid out, or null.
+         */
+        private final GroupFormatter _formatter;
+
+        /**
+         * The settings line.
+         */
+        private final String _settings;
+
+        /**
+         * The messages.
+         */
+        private final String _message;
+
+        /**
+         * Hash of the configuration id and the fields above.
+         */
+        private final int _hash;
+    }
+
+    /**
+     * Kinds of encryption: a Simulator reading strictly or leniently, and
+     * a Machine.
+     */
+    private static final char STRICT = 'S', LENIENT = 'L', MACHINE = 'M';
+
+    /**
+     * Estimated bytes used by an entry besides its characters.
+     */
+    private static final long ENTRY_OVERHEAD = 160;
+
+    /**
+     * Most bytes of entries kept.
+     */
+    private final long _budget;
+
+    /**
+     * Entries in access order, least recently used first.
+     */
+    private final LinkedHashMap<Key, String> _entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Estimated size of the entries.
+     */
+    private long _bytes;
+
+    /**
+     * Counts of lookups that hit and missed, and of evictions.
+     */
+    private long _hits, _misses, _evictions;
+}
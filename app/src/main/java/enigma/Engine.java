@@ -0,0 +1,24 @@
+package enigma;
+
+/**
+ * Something that encrypts alphabet indices one keystroke at a time, as
+ * a configured Machine does.  Implementations other than Machine trade
+ * setup time for speed and must give exactly the same results.
+ *
+ * @author Junyi Cao
+ */
+interface Engine {
+
+    /**
+     * Returns the result of converting the input character C (as an
+     * index in the range 0..alphabet size - 1), after first advancing
+     * the rotors.
+     */
+    int convert(int c);
+
+    /**
+     * Convert MSG[OFFSET .. OFFSET + LENGTH - 1] in place, as by calling
+     * convert(int) on each index in turn.
+     */
+    void convert(int[] msg, int offset, int length);
+}
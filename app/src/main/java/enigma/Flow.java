@@ -0,0 +1,79 @@
+package enigma;
+
+/**
+ * The interfaces of a reactive stream, as in java.util.concurrent.Flow,
+ * which Android only provides from API level 30.  The rules are those of
+ * Flow: a subscriber receives onSubscribe first, then at most as many
+ * onNext calls as it has requested through its subscription, then at most
+ * one of onError and onComplete, and these calls never overlap.
+ *
+ * @author Junyi Cao
+ */
+public final class Flow {
+
+    /**
+     * Not instantiable.
+     */
+    private Flow() {
+    }
+
+    /**
+     * A source of items for one or more subscribers.
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Start sending items to SUBSCRIBER as it requests them.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items from a publisher.
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Called first, with the SUBSCRIPTION through which items are
+         * requested.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Receive the next ITEM.
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the stream fails with THROWABLE; nothing follows.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called when the stream ends; nothing follows.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and one of its subscribers.
+     */
+    public interface Subscription {
+
+        /**
+         * Allow N more items, where N > 0, to be sent.
+         */
+        void request(long n);
+
+        /**
+         * Stop sending items, eventually.
+         */
+        void cancel();
+    }
+
+    /**
+     * A stage that is both a subscriber and a publisher.
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
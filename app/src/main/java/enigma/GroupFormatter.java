@@ -0,0 +1,278 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lays out a message in groups of letters, in the style of a radio
+ * message: "QVPQS OKOIL PUBKJ".  Groups are separated by a group
+ * separator, and every lineWidth letters the line separator is written
+ * instead.  A formatter works a group at a time, copying whole groups,
+ * and never needs to look at a letter twice.  Formatters are immutable
+ * and may be shared between threads; two are equal iff they lay out
+ * every message alike.
+ *
+ * @author Junyi Cao
+ */
+public final class GroupFormatter {
+
+    /**
+     * Groups of five letters separated by single spaces, all on one line,
+     * as printed by Simulator.
+     */
+    public static final GroupFormatter FIVES =
+            new GroupFormatter(5, 0, " ", "\n");
+
+    /**
+     * A formatter for groups of GROUPSIZE letters separated by
+     * GROUPSEPARATOR, with LINESEPARATOR after every LINEWIDTH letters.
+     * A GROUPSIZE of 0 means no grouping and a LINEWIDTH of 0 means no
+     * line breaks; otherwise LINEWIDTH must be a multiple of GROUPSIZE.
+     */
+    public GroupFormatter(int groupSize, int lineWidth,
+                          String groupSeparator, String lineSeparator) {
+        if (groupSize < 0 || lineWidth < 0) {
+            throw EnigmaException.error("format error, the group size %d "
+                    + "and line width %d may not be negative.",
+                    groupSize, lineWidth);
+        }
+        if (groupSize > 0 && lineWidth % groupSize != 0) {
+            throw EnigmaException.error("format error, the line width %d "
+                    + "is not a multiple of the group size %d.",
+                    lineWidth, groupSize);
+        }
+        _groupSize = groupSize;
+        _lineWidth = lineWidth;
+        _step = groupSize > 0 ? groupSize
+                : lineWidth > 0 ? lineWidth : Integer.MAX_VALUE;
+        _groupSeparator = groupSeparator.toCharArray();
+        _lineSeparator = lineSeparator.toCharArray();
+    }
+
+    /**
+     * Return the length of a formatted message of COUNT letters.
+     */
+    public int length(int count) {
+        return length(0, count);
+    }
+
+    /**
+     * Write the formatted message SRC[OFF .. OFF + COUNT - 1] into DST
+     * from index DSTOFF, and return the index after it.  DST must have
+     * room for length(COUNT) characters.
+     */
+    public int format(char[] src, int off, int count, char[] dst,
+                      int dstOff) {
+        return put(src, off, 0, count, dst, dstOff);
+    }
+
+    /**
+     * Append the formatted message SRC[START .. END - 1] to OUT.
+     */
+    public void format(CharSequence src, int start, int end,
+                       StringBuilder out) {
+        formatTail(src, start, start, end, out);
+    }
+
+    /**
+     * Append to OUT what the formatted message SRC[START .. END - 1] has
+     * after the formatted SRC[START .. FROM - 1]: the letters FROM ..
+     * END - 1 and the separators before them.  A message laid out so
+     * far can thus be extended as letters are added.
+     */
+    public void formatTail(CharSequence src, int start, int from, int end,
+                           StringBuilder out) {
+        out.ensureCapacity(out.length() + length(from - start, end - start));
+        int i = from - start;
+        int count = end - start;
+        while (i < count) {
+            if (i > 0 && i % _step == 0) {
+                out.append(separator(i));
+            }
+            int n = Math.min(_step - i % _step, count - i);
+            out.append(src, start + i, start + i + n);
+            i += n;
+        }
+    }
+
+    /**
+     * Write the formatted message SRC[OFF .. OFF + COUNT - 1] to OUT,
+     * a buffer at a time.
+     */
+    public void format(char[] src, int off, int count, Writer out)
+            throws IOException {
+        int chunk = chunk(count);
+        char[] buffer = new char[length(0, chunk) + _lineSeparator.length
+                + _groupSeparator.length];
+        for (int i = 0; i < count; i += chunk) {
+            int to = Math.min(count, i + chunk);
+            out.write(buffer, 0, put(src, off + i, i, to, buffer, 0));
+        }
+    }
+
+    /**
+     * Write the formatted message SRC[OFF .. OFF + COUNT - 1] into OUT at
+     * its position, one byte per character, advancing the position.  The
+     * letters and separators must all be below 256.
+     */
+    public void format(char[] src, int off, int count, ByteBuffer out) {
+        int chunk = chunk(count);
+        char[] buffer = new char[length(0, chunk) + _lineSeparator.length
+                + _groupSeparator.length];
+        for (int i = 0; i < count; i += chunk) {
+            int to = Math.min(count, i + chunk);
+            int n = put(src, off + i, i, to, buffer, 0);
+            for (int k = 0; k < n; k++) {
+                char c = buffer[k];
+                if (c > 0xFF) {
+                    throw EnigmaException.error("`%c` cannot be written "
+                            + "as a byte.", c);
+                }
+                out.put((byte) c);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GroupFormatter)) {
+            return false;
+        }
+        GroupFormatter other = (GroupFormatter) obj;
+        return _groupSize == other._groupSize
+                && _lineWidth == other._lineWidth
+                && Arrays.equals(_groupSeparator, other._groupSeparator)
+                && Arrays.equals(_lineSeparator, other._lineSeparator);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((_groupSize * 31 + _lineWidth) * 31
+                + Arrays.hashCode(_groupSeparator)) * 31
+                + Arrays.hashCode(_lineSeparator);
+    }
+
+    /**
+     * Return the number of letters to format at a time for a message of
+     * COUNT letters, a whole number of lines or groups.
+     */
+    private int chunk(int count) {
+        int period = _lineWidth > 0 ? _lineWidth : Math.max(1, _groupSize);
+        int chunk = Math.max(1, CHUNK / period) * period;
+        return Math.max(1, Math.min(count, chunk));
+    }
+
+    /**
+     * Write letters number FROM .. TO - 1 of a message, which are
+     * SRC[OFF .. OFF + TO - FROM - 1], into DST from index P, with the
+     * separator before letter FROM if it needs one, and return the index
+     * after them.
+     */
+    private int put(char[] src, int off, int from, int to, char[] dst,
+                    int p) {
+        int line = _lineWidth > 0 ? _lineWidth : Integer.MAX_VALUE;
+        int column = from % line;
+        int inGroup = column % _step;
+        int s = off;
+        for (int i = from; i < to; ) {
+            if (inGroup == 0 && i > 0) {
+                char[] separator = column == 0
+                        ? _lineSeparator : _groupSeparator;
+                if (separator.length == 1) {
+                    dst[p++] = separator[0];
+                } else {
+                    for (char c : separator) {
+                        dst[p++] = c;
+                    }
+                }
+            }
+            int n = Math.min(_step - inGroup, to - i);
+            if (n <= SHORT_COPY) {
+                for (int k = 0; k < n; k++) {
+                    dst[p + k] = src[s + k];
+                }
+            } else {
+                System.arraycopy(src, s, dst, p, n);
+            }
+            p += n;
+            s += n;
+            i += n;
+            inGroup = inGroup + n == _step ? 0 : inGroup + n;
+            column = column + n == line ? 0 : column + n;
+        }
+        return p;
+    }
+
+    /**
+     * Return the separator written before letter I, a multiple of the
+     * group size.
+     */
+    private char[] separator(int i) {
+        return _lineWidth > 0 && i % _lineWidth == 0
+                ? _lineSeparator : _groupSeparator;
+    }
+
+    /**
+     * Return the number of characters written for letters FROM .. TO - 1
+     * of a message, including the separator before letter FROM.
+     */
+    private int length(int from, int to) {
+        if (to <= from) {
+            return 0;
+        }
+        long breaks = multiples(_step, Math.max(1, from), to - 1);
+        long lines = _lineWidth > 0
+                ? multiples(_lineWidth, Math.max(1, from), to - 1) : 0;
+        long length = (to - from) + (breaks - lines) * _groupSeparator.length
+                + lines * _lineSeparator.length;
+        if (length > Integer.MAX_VALUE) {
+            throw EnigmaException.error("format error, the formatted "
+                    + "message is too long.");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Return the number of multiples of M in A .. B, where A > 0.
+     */
+    private static long multiples(int m, int a, int b) {
+        return b < a ? 0 : b / m - (a - 1) / m;
+    }
+
+    /**
+     * Number of letters formatted at a time into a Writer or buffer.
+     */
+    private static final int CHUNK = 8192;
+
+    /**
+     * Groups up to this long are copied a character at a time.
+     */
+    private static final int SHORT_COPY = 16;
+
+    /**
+     * Letters per group, or 0.
+     */
+    private final int _groupSize;
+
+    /**
+     * Letters per line, or 0.
+     */
+    private final int _lineWidth;
+
+    /**
+     * Letters between separators.
+     */
+    private final int _step;
+
+    /**
+     * Written between groups.
+     */
+    private final char[] _groupSeparator;
+
+    /**
+     * Written between lines.
+     */
+    private final char[] _lineSeparator;
+}
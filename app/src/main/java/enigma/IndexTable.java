@@ -0,0 +1,108 @@
+package enigma;
+
+/**
+ * An immutable table of indices into an alphabet, stored as compactly as
+ * the alphabet allows: one byte per entry for alphabets of at most 256
+ * characters, and one char per entry for larger ones.
+ *
+ * @author Junyi Cao
+ */
+abstract class IndexTable {
+
+    /**
+     * Return a table holding VALUES, each of which is an index into an
+     * alphabet of SIZE characters.
+     */
+    static IndexTable of(int[] values, int size) {
+        if (size <= 256) {
+            return new Bytes(values);
+        } else if (size <= 65536) {
+            return new Chars(values);
+        }
+        throw EnigmaException.error("alphabets of more than 65536 "
+                + "characters are not supported, but found %d.", size);
+    }
+
+    /**
+     * Return entry K.
+     */
+    abstract int get(int k);
+
+    /**
+     * Return the number of entries.
+     */
+    abstract int length();
+
+    /**
+     * Return my entries as a new array.
+     */
+    int[] toArray() {
+        int[] result = new int[length()];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = get(k);
+        }
+        return result;
+    }
+
+    /**
+     * A table with one unsigned byte per entry.
+     */
+    private static final class Bytes extends IndexTable {
+
+        /**
+         * A table holding VALUES, each in 0 .. 255.
+         */
+        Bytes(int[] values) {
+            _entries = new byte[values.length];
+            for (int k = 0; k < values.length; k++) {
+                _entries[k] = (byte) values[k];
+            }
+        }
+
+        @Override
+        int get(int k) {
+            return _entries[k] & 0xFF;
+        }
+
+        @Override
+        int length() {
+            return _entries.length;
+        }
+
+        /**
+         * The entries.
+         */
+        private final byte[] _entries;
+    }
+
+    /**
+     * A table with one unsigned char per entry.
+     */
+    private static final class Chars extends IndexTable {
+
+        /**
+         * A table holding VALUES, each in 0 .. 65535.
+         */
+        Chars(int[] values) {
+            _entries = new char[values.length];
+            for (int k = 0; k < values.length; k++) {
+                _entries[k] = (char) values[k];
+            }
+        }
+
+        @Override
+        int get(int k) {
+            return _entries[k];
+        }
+
+        @Override
+        int length() {
+            return _entries.length;
+        }
+
+        /**
+         * The entries.
+         */
+        private final char[] _entries;
+    }
+}
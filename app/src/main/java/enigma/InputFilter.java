@@ -0,0 +1,290 @@
+package enigma;
+
+import java.text.Normalizer;
+
+/**
+ * Turns raw text into the letters of an alphabet in one pass, through a
+ * table built once per alphabet.  Each character of the table's range
+ * maps to one letter, to a short run of letters, to nothing, or is
+ * rejected; characters above the range are looked up in the alphabet
+ * directly.
+ * <p>
+ * A strict filter keeps the letters of the alphabet, drops whitespace
+ * and rejects everything else, as Simulator always has.  A lenient
+ * filter also folds case, writes umlauts and sharp s out in the German
+ * manner (AE, OE, UE, SS), strips accents, replaces digits with the
+ * letters above them on a German keyboard (1 = Q ... 0 = P), and drops
+ * whatever is left.
+ *
+ * @author Junyi Cao
+ */
+public final class InputFilter {
+
+    /**
+     * Return a strict filter for ALPHABET.
+     */
+    public static InputFilter strict(Alphabet alphabet) {
+        return new InputFilter(alphabet, false);
+    }
+
+    /**
+     * Return a lenient filter for ALPHABET.
+     */
+    public static InputFilter lenient(Alphabet alphabet) {
+        return new InputFilter(alphabet, true);
+    }
+
+    /**
+     * A filter for ALPHABET, lenient iff LENIENT.
+     */
+    private InputFilter(Alphabet alphabet, boolean lenient) {
+        _alphabet = alphabet;
+        _lenient = lenient;
+        _table = new int[TABLE_SIZE];
+        _expansions = new int[TABLE_SIZE + UMLAUTS.length()][];
+        int expansions = 0;
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            int[] letters = letters((char) c);
+            if (letters == null) {
+                _table[c] = lenient ? DROP : REJECT;
+            } else if (letters.length == 0) {
+                _table[c] = DROP;
+            } else if (letters.length == 1) {
+                _table[c] = letters[0];
+            } else {
+                _expansions[expansions] = letters;
+                _table[c] = EXPANSION - expansions;
+                expansions += 1;
+            }
+        }
+        StringBuilder wide = new StringBuilder();
+        _wideEntries = new int[UMLAUTS.length()];
+        for (int k = 0; k < UMLAUTS.length(); k++) {
+            char c = UMLAUTS.charAt(k);
+            int[] letters = c < TABLE_SIZE ? null : letters(c);
+            if (letters != null && letters.length > 1) {
+                _expansions[expansions] = letters;
+                _wideEntries[wide.length()] = EXPANSION - expansions;
+                wide.append(c);
+                expansions += 1;
+            }
+        }
+        _wide = wide.toString();
+    }
+
+    /**
+     * Return the most letters a single character can turn into.
+     */
+    public int maxExpansion() {
+        return _lenient ? 2 : 1;
+    }
+
+    /**
+     * Store the letters, as indices into the alphabet, that C turns into
+     * at OUT[OFF], and return how many there are.
+     */
+    public int filter(char c, int[] out, int off) {
+        int entry = c < TABLE_SIZE ? _table[c] : lookUp(c);
+        if (entry >= 0) {
+            out[off] = entry;
+            return 1;
+        } else if (entry == DROP) {
+            return 0;
+        } else if (entry == REJECT) {
+            throw EnigmaException.error("`%c` is NOT in the alphabet!", c);
+        }
+        int[] letters = _expansions[EXPANSION - entry];
+        System.arraycopy(letters, 0, out, off, letters.length);
+        return letters.length;
+    }
+
+    /**
+     * Store the letters that TEXT[START .. END - 1] turns into at
+     * OUT[OFF], and return how many there are.  OUT must have room for
+     * maxExpansion() letters per character.
+     */
+    public int filter(CharSequence text, int start, int end, int[] out,
+                      int off) {
+        int p = off;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int entry = c < TABLE_SIZE ? _table[c] : -1;
+            if (entry >= 0) {
+                out[p++] = entry;
+            } else {
+                p += filter(c, out, p);
+            }
+        }
+        return p - off;
+    }
+
+    /**
+     * Return the number of letters TEXT[START .. END - 1] turns into.
+     */
+    public int count(CharSequence text, int start, int end) {
+        int[] scratch = new int[2];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            n += filter(text.charAt(i), scratch, 0);
+        }
+        return n;
+    }
+
+    /**
+     * Return the table entry for C, which is above the table.
+     */
+    private int lookUp(char c) {
+        if (_alphabet.contains(c)) {
+            return _alphabet.toInt(c);
+        } else if (_lenient) {
+            int k = _wide.indexOf(c);
+            if (k >= 0) {
+                return _wideEntries[k];
+            }
+            int[] letters = letters(c);
+            return letters != null && letters.length == 1 ? letters[0]
+                    : DROP;
+        }
+        return REJECT;
+    }
+
+    /**
+     * Return the letters C turns into: none if it is dropped, and null
+     * if nothing is known about it.
+     */
+    private int[] letters(char c) {
+        if (_alphabet.contains(c)) {
+            return new int[] {_alphabet.toInt(c)};
+        } else if (isSpace(c)) {
+            return new int[0];
+        } else if (!_lenient) {
+            return null;
+        }
+        int folded = fold(c);
+        if (folded >= 0) {
+            return new int[] {folded};
+        }
+        String written = null;
+        if (c >= '0' && c <= '9') {
+            written = String.valueOf(DIGITS.charAt(c - '0'));
+        } else {
+            int k = UMLAUTS.indexOf(c);
+            if (k >= 0) {
+                written = WRITTEN_OUT[k];
+            } else {
+                String decomposed =
+                        Normalizer.normalize(String.valueOf(c),
+                                Normalizer.Form.NFD);
+                if (!decomposed.equals(String.valueOf(c))) {
+                    written = decomposed.substring(0, 1);
+                }
+            }
+        }
+        if (written == null) {
+            return null;
+        }
+        int[] letters = new int[written.length()];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = fold(written.charAt(i));
+            if (letters[i] < 0) {
+                return null;
+            }
+        }
+        return letters;
+    }
+
+    /**
+     * Return the index of C, or of C in the other case, in the alphabet,
+     * or -1 if neither is in it.
+     */
+    private int fold(char c) {
+        char upper = Character.toUpperCase(c);
+        char lower = Character.toLowerCase(c);
+        if (_alphabet.contains(c)) {
+            return _alphabet.toInt(c);
+        } else if (_alphabet.contains(upper)) {
+            return _alphabet.toInt(upper);
+        } else if (_alphabet.contains(lower)) {
+            return _alphabet.toInt(lower);
+        }
+        return -1;
+    }
+
+    /**
+     * Return true iff C is whitespace as matched by \s.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r'
+                || c == '\f' || c == '\u000B';
+    }
+
+    /**
+     * Characters below this have table entries.
+     */
+    private static final int TABLE_SIZE = 0x250;
+
+    /**
+     * Table entry of characters that turn into nothing.
+     */
+    private static final int DROP = -1;
+
+    /**
+     * Table entry of characters that are rejected.
+     */
+    private static final int REJECT = -2;
+
+    /**
+     * Table entry of characters that turn into _expansions[0]; the next
+     * expansion is one less, and so on.
+     */
+    private static final int EXPANSION = -3;
+
+    /**
+     * The letters written for the digits 0 .. 9.
+     */
+    private static final String DIGITS = "PQWERTZUIO";
+
+    /**
+     * Characters that are written out as two letters.
+     */
+    private static final String UMLAUTS =
+            "\u00C4\u00D6\u00DC\u00E4\u00F6\u00FC\u00DF\u1E9E";
+
+    /**
+     * How each of UMLAUTS is written out.
+     */
+    private static final String[] WRITTEN_OUT = {
+        "AE", "OE", "UE", "ae", "oe", "ue", "ss", "SS"
+    };
+
+    /**
+     * The alphabet.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Whether I am lenient.
+     */
+    private final boolean _lenient;
+
+    /**
+     * What each character below TABLE_SIZE turns into: an index into the
+     * alphabet, DROP, REJECT, or an expansion.
+     */
+    private final int[] _table;
+
+    /**
+     * Runs of letters, as indices.
+     */
+    private final int[][] _expansions;
+
+    /**
+     * Characters above the table that turn into more than one letter.
+     */
+    private final String _wide;
+
+    /**
+     * The entry of each character of _wide: an expansion.
+     */
+    private final int[] _wideEntries;
+}
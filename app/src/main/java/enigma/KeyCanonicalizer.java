@@ -0,0 +1,256 @@
+package enigma;
+
+import java.util.Random;
+
+/**
+ * Picks one representative from each set of keys that encrypt every
+ * message of a given length alike.  A rotor's wiring sees only its
+ * setting, its position less its ring, while its carries (under any
+ * SteppingStrategy here) depend on its position.  So keys that differ
+ * only in rings and positions, with the same settings, give the same
+ * output as long as every carry over the message's keystrokes happens
+ * at the same keystroke.  The rings of the fixed rotors and of the
+ * leftmost moving rotor never matter; the others matter only if they
+ * move a carry that happens within the message.
+ * <p>
+ * The canonical key of a set keeps the settings of every rotor and
+ * gives each rotor, leftmost first, the lowest ring that keeps the
+ * carries.  Whether a ring keeps them depends only on that rotor, so
+ * every key of a set has the same canonical key, and a search need only
+ * try keys for which isCanonical() is true.  Not safe for use by several
+ * threads at once.
+ *
+ * @author Junyi Cao
+ */
+final class KeyCanonicalizer {
+
+    /**
+     * Print the reduction factor of canonical keys over the default key
+     * space for messages of ARGS[0] letters, estimated from ARGS[1]
+     * (default 10000) keys drawn at random.
+     */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2) {
+            throw EnigmaException.error("Usage: java enigma.KeyCanonicalizer "
+                    + "LENGTH [SAMPLES]");
+        }
+        int length = Integer.parseInt(args[0]);
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        double factor = new KeyCanonicalizer(length).reduction(machine,
+                samples, new Random());
+        System.out.printf("%d-letter messages: %.1f keys per canonical key "
+                + "(%d samples)%n", length, factor, samples);
+    }
+
+    /**
+     * A canonicalizer for messages of LENGTH letters.
+     */
+    KeyCanonicalizer(int length) {
+        if (length < 0) {
+            throw EnigmaException.error("negative message length: %d",
+                    length);
+        }
+        _length = length;
+    }
+
+    /**
+     * Return the message length I was made for.
+     */
+    int length() {
+        return _length;
+    }
+
+    /**
+     * Return true iff the key MACHINE is set up with is canonical.
+     */
+    boolean isCanonical(Machine machine) {
+        int first = machine.numRotors() - machine.numPawls();
+        for (int k = 1; k <= first && k < machine.numRotors(); k++) {
+            if (machine.rotor(k).alphabetRing() != 0) {
+                return false;
+            }
+        }
+        boolean traced = false;
+        for (int k = first + 1; k < machine.numRotors(); k++) {
+            int ring = machine.rotor(k).alphabetRing();
+            if (ring == 0) {
+                continue;
+            }
+            if (!traced) {
+                trace(machine);
+                traced = true;
+            }
+            for (int r = 0; r < ring; r++) {
+                if (keepsCarries(k, r)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set MACHINE up with the canonical key of the key it is set up
+     * with.
+     */
+    void canonicalize(Machine machine) {
+        trace(machine);
+        for (int k = 1; k < machine.numRotors(); k++) {
+            int ring = 0;
+            while (!keepsCarries(k, ring)) {
+                ring += 1;
+            }
+            Rotor rotor = machine.rotor(k);
+            int setting = rotor.setting();
+            machine.setRing(k, ring);
+            rotor.set(setting + ring);
+        }
+    }
+
+    /**
+     * Return the number of keys that encrypt like the key MACHINE is set
+     * up with, counting only its rings and positions.
+     */
+    long classSize(Machine machine) {
+        trace(machine);
+        long size = 1;
+        for (int k = 1; k < machine.numRotors(); k++) {
+            int rings = 0;
+            for (int r = 0; r < _size; r++) {
+                if (keepsCarries(k, r)) {
+                    rings += 1;
+                }
+            }
+            size *= rings;
+        }
+        return size;
+    }
+
+    /**
+     * Return the number of keys of the key space of MACHINE (see
+     * KeySpace) per canonical key, estimated from SAMPLES keys drawn
+     * from RANDOM.  MACHINE is left set up with the last of them.
+     */
+    double reduction(Machine machine, int samples, Random random) {
+        KeySpace space = new KeySpace(machine);
+        double canonical = 0;
+        for (int i = 0; i < samples; i++) {
+            space.apply((random.nextLong() >>> 1) % space.size(), machine);
+            canonical += 1.0 / classSize(machine);
+        }
+        return samples / canonical;
+    }
+
+    /**
+     * Record the carries of MACHINE over _length keystrokes, and the
+     * carry table of each moving rotor by position.
+     */
+    private void trace(Machine machine) {
+        int n = machine.numRotors();
+        SteppingStrategy.Carries carries = machine.stepping().compile(machine);
+        _numRotors = n;
+        _first = n - machine.numPawls();
+        _size = machine.alphabet().size();
+        _rows = new int[n][];
+        _byPosition = new int[n][];
+        _requires = new int[n];
+        int[] s = new int[n];
+        for (int k = _first; k < n; k++) {
+            Rotor rotor = machine.rotor(k);
+            _rows[k] = carries.row(k);
+            _requires[k] = carries.requires(k);
+            _byPosition[k] = new int[_size];
+            for (int p = 0; p < _size; p++) {
+                _byPosition[k][p] = _rows[k][
+                        rotor.permutation().wrap(p - rotor.alphabetRing())];
+            }
+            s[k] = rotor.setting();
+        }
+        if (_trace == null || _trace.length < _length * n) {
+            _trace = new int[_length * n];
+            _masks = new int[_length];
+        }
+        for (int t = 0; t < _length; t++) {
+            System.arraycopy(s, 0, _trace, t * n, n);
+            int mask = carries.mask(s);
+            _masks[t] = mask;
+            for (int k = _first; k < n; k++) {
+                if ((mask & (1 << k)) != 0) {
+                    s[k] = s[k] + 1 == _size ? 0 : s[k] + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true iff, with the rotor in slot K at ring RING and its
+     * traced settings, every keystroke traced carries as before.
+     */
+    private boolean keepsCarries(int k, int ring) {
+        if (k <= _first) {
+            return true;
+        }
+        int fast = _numRotors - 1;
+        for (int t = 0; t < _length; t++) {
+            int at = t * _numRotors;
+            int mask = 1 << fast;
+            for (int i = fast; i > _first; i--) {
+                if ((mask & _requires[i]) == _requires[i]) {
+                    int s = _trace[at + i];
+                    mask |= i != k ? _rows[i][s]
+                            : _byPosition[k][(s + ring) % _size];
+                }
+            }
+            if (mask != _masks[t]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Length of the messages.
+     */
+    private final int _length;
+
+    /**
+     * Number of rotor slots of the machine traced.
+     */
+    private int _numRotors;
+
+    /**
+     * Slot of its leftmost moving rotor.
+     */
+    private int _first;
+
+    /**
+     * Size of its alphabet.
+     */
+    private int _size;
+
+    /**
+     * Carry masks of each moving slot by setting.
+     */
+    private int[][] _rows;
+
+    /**
+     * Carry masks of each moving slot by position.
+     */
+    private int[][] _byPosition;
+
+    /**
+     * Slots that must advance for each slot to carry.
+     */
+    private int[] _requires;
+
+    /**
+     * Settings of each slot before each keystroke traced.
+     */
+    private int[] _trace;
+
+    /**
+     * Slots advanced at each keystroke traced.
+     */
+    private int[] _masks;
+}
@@ -0,0 +1,275 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fixed-width binary form of the settings lines of one machine.  A
+ * record is laid out as
+ * <pre>
+ *     rotor ids                  numRotors bytes, reflector first
+ *     positions                  numRotors - 1 bytes
+ *     rings                      numRotors - 1 bytes
+ *     plugboard pair count       1 byte
+ *     plugboard pairs            2 bytes per pair, size / 2 pairs
+ * </pre>
+ * where rotor ids index the machine's available rotors and everything
+ * else indexes its alphabet.  Rings that are not given are stored as 0,
+ * so that every record sets up the machine completely, whatever record
+ * was applied before it.  Applying a record sets the machine up with
+ * a fixed amount of work: no text is split, matched or looked up.
+ * Records only describe plugboards made of pairs, as on a real key
+ * sheet, and need an alphabet and a rotor set of at most 256 each.
+ *
+ * @author Junyi Cao
+ */
+final class KeyRecord {
+
+    /**
+     * The record format for the settings lines of MACHINE.
+     */
+    KeyRecord(Machine machine) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        _numRotors = machine.numRotors();
+        _first = machine.numRotors() - machine.numPawls();
+        List<Rotor> rotors = machine.availableRotors();
+        if (_size > 256 || rotors.size() > 256) {
+            throw EnigmaException.error("key records need at most 256 "
+                    + "characters and 256 rotors.");
+        }
+        _rotors = rotors.toArray(new Rotor[rotors.size()]);
+        _ids = new HashMap<>();
+        int signature = _alphabet.toString().hashCode();
+        signature = 31 * signature + _numRotors;
+        signature = 31 * signature + machine.numPawls();
+        for (int id = _rotors.length - 1; id >= 0; id--) {
+            _ids.put(_rotors[id].name(), id);
+        }
+        for (Rotor r : _rotors) {
+            signature = 31 * signature + r.name().hashCode();
+            signature = 31 * signature + r.getClass().getName().hashCode();
+        }
+        _signature = signature;
+        _maxPairs = _size / 2;
+        _width = _numRotors + 2 * (_numRotors - 1) + 1 + 2 * _maxPairs;
+        _validator = new SettingsValidator(machine);
+        _slotIds = new int[_numRotors];
+        _plugboard = new int[_size];
+    }
+
+    /**
+     * Return the number of bytes in a record.
+     */
+    int width() {
+        return _width;
+    }
+
+    /**
+     * Return a number identifying the alphabet, layout and available
+     * rotors my records refer to.
+     */
+    int signature() {
+        return _signature;
+    }
+
+    /**
+     * Write the record for the settings line LINE to OUT at its
+     * position, advancing it by width().
+     */
+    void encode(String line, ByteBuffer out) {
+        String problem = _validator.check(line);
+        if (problem != null) {
+            throw EnigmaException.error("%s\nsetting: %s", problem, line);
+        }
+        String[] tokens = line.split("\\s+");
+        int index = 1;
+        boolean rings = tokens.length > _numRotors + 2
+                && !tokens[_numRotors + 2].matches("\\(.*?\\)");
+        for (int k = 0; k < _numRotors; k++) {
+            out.put((byte) (int) _ids.get(tokens[index++]));
+        }
+        String positions = tokens[index++];
+        for (int k = 1; k < _numRotors; k++) {
+            Rotor r = _rotors[_ids.get(tokens[k + 1])];
+            char c = positions.charAt(k - 1);
+            out.put((byte) (r.reflecting() ? 0 : _alphabet.toInt(c)));
+        }
+        for (int k = 1; k < _numRotors; k++) {
+            int ring = rings ? _alphabet.toInt(tokens[index].charAt(k - 1))
+                    : 0;
+            out.put((byte) ring);
+        }
+        if (rings) {
+            index += 1;
+        }
+        StringBuilder cycles = new StringBuilder();
+        while (index < tokens.length) {
+            cycles.append(tokens[index++]);
+        }
+        Permutation plugboard =
+                new Permutation(cycles.toString(), _alphabet);
+        int countAt = out.position();
+        out.put((byte) 0);
+        int pairs = 0;
+        for (int c = 0; c < _size; c++) {
+            int d = plugboard.permute(c);
+            if (d != c && plugboard.permute(d) != c) {
+                throw EnigmaException.error("key records only hold "
+                        + "plugboard pairs.\nsetting: %s", line);
+            } else if (c < d) {
+                out.put((byte) c);
+                out.put((byte) d);
+                pairs += 1;
+            }
+        }
+        out.put(countAt, (byte) pairs);
+        for (int k = pairs; k < _maxPairs; k++) {
+            out.put((byte) 0);
+            out.put((byte) 0);
+        }
+    }
+
+    /**
+     * Set up my machine according to the record at index OFFSET of IN,
+     * which is not modified.
+     */
+    void apply(ByteBuffer in, int offset) {
+        Machine machine = _machine;
+        int p = offset;
+        for (int k = 0; k < _numRotors; k++) {
+            int id = in.get(p++) & 0xFF;
+            if (id >= _rotors.length) {
+                throw EnigmaException.error("bad key record: no rotor %d.",
+                        id);
+            }
+            Rotor r = _rotors[id];
+            boolean moving = r instanceof MovingRotor;
+            if (k == 0 ? !(r instanceof Reflector)
+                    : (k < _first) == moving) {
+                throw EnigmaException.error("bad key record: %s cannot "
+                        + "go in slot %d.", r, k);
+            }
+            for (int j = 0; j < k; j++) {
+                if (_slotIds[j] == id) {
+                    throw EnigmaException.error("bad key record: "
+                            + "duplicate rotor %s.", r);
+                }
+            }
+            _slotIds[k] = id;
+            machine.setRotor(k, r);
+        }
+        for (int k = 1; k < _numRotors; k++) {
+            int position = index(in, p++);
+            Rotor r = _rotors[_slotIds[k]];
+            if (!r.reflecting()) {
+                r.set(position);
+            }
+        }
+        machine.setRing(0, 0);
+        for (int k = 1; k < _numRotors; k++) {
+            machine.setRing(k, index(in, p++));
+        }
+        int pairs = in.get(p++) & 0xFF;
+        if (pairs > _maxPairs) {
+            throw EnigmaException.error("bad key record: %d plugboard "
+                    + "pairs.", pairs);
+        }
+        int[] plugboard = _plugboard;
+        for (int c = 0; c < _size; c++) {
+            plugboard[c] = c;
+        }
+        for (int k = 0; k < pairs; k++) {
+            int c = index(in, p++);
+            int d = index(in, p++);
+            if (c == d || plugboard[c] != c || plugboard[d] != d) {
+                throw EnigmaException.error("bad key record: plugboard "
+                        + "pairs overlap.");
+            }
+            plugboard[c] = d;
+            plugboard[d] = c;
+        }
+        machine.setPlugboard(new Permutation(Wiring.of(plugboard),
+                _alphabet));
+    }
+
+    /**
+     * Return the alphabet index at index P of IN.
+     */
+    private int index(ByteBuffer in, int p) {
+        int c = in.get(p) & 0xFF;
+        if (c >= _size) {
+            throw EnigmaException.error("bad key record: %d is not in "
+                    + "the alphabet.", c);
+        }
+        return c;
+    }
+
+    /**
+     * The machine whose settings I describe.
+     */
+    private final Machine _machine;
+
+    /**
+     * Its alphabet.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * Slot of the leftmost moving rotor.
+     */
+    private final int _first;
+
+    /**
+     * The available rotors, by id.
+     */
+    private final Rotor[] _rotors;
+
+    /**
+     * The ids of the available rotors, by name.
+     */
+    private final Map<String, Integer> _ids;
+
+    /**
+     * Value of signature().
+     */
+    private final int _signature;
+
+    /**
+     * Number of plugboard pairs a record has room for.
+     */
+    private final int _maxPairs;
+
+    /**
+     * Number of bytes in a record.
+     */
+    private final int _width;
+
+    /**
+     * Checks lines before they are encoded.
+     */
+    private final SettingsValidator _validator;
+
+    /**
+     * Ids of the rotors in the record being applied, by slot.
+     */
+    private final int[] _slotIds;
+
+    /**
+     * Plugboard of the record being applied.
+     */
+    private final int[] _plugboard;
+}
@@ -0,0 +1,679 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a search of keys of the default rotor set (see KeySpace) across
+ * KeySearchWorker processes on one machine.  The keys to search are cut
+ * into leases of consecutive keys, handed out to workers over a line
+ * protocol on a loopback socket:
+ * <pre>
+ *     coordinator: JOB topK keys ciphertext table
+ *     worker:      LEASE
+ *     coordinator: LEASE id from to        (or DONE)
+ *     worker:      BEAT id keys            (every KeySearchWorker.BEAT keys)
+ *     worker:      RESULT id key score     (up to topK times)
+ *     worker:      FINISHED id
+ * </pre>
+ * A lease whose worker disconnects, or sends nothing for the lease
+ * timeout, goes back to the queue and is handed to the next worker that
+ * asks; results for it from the first worker are then ignored.  The
+ * coordinator keeps the topK best keys over all finished leases.  Keys
+ * is "all", or "canonical" if workers are to score only canonical keys
+ * (see KeyCanonicalizer).  Canonical keys are numbered in the key space
+ * with fixed rings, so the rings that never matter are not even
+ * enumerated, and workers skip keys whose other rings are not canonical.
+ * That loses nothing over the whole key space, but over a range the
+ * canonical key of a set may lie outside it.
+ *
+ * @author Junyi Cao
+ */
+final class KeySearchCoordinator implements Closeable {
+
+    /**
+     * One of the best keys found.
+     */
+    static final class Result {
+
+        /**
+         * Key number KEY, whose settings line is SETTINGS, and its
+         * SCORE.
+         */
+        Result(long key, String settings, float score) {
+            this.key = key;
+            this.settings = settings;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10.2f  %s", score, settings);
+        }
+
+        /**
+         * The key's number.
+         */
+        final long key;
+
+        /**
+         * Its settings line.
+         */
+        final String settings;
+
+        /**
+         * The score of its decryption.
+         */
+        final float score;
+    }
+
+    /**
+     * Start a coordinator, on a free loopback port, of the search of keys
+     * FROM .. TO - 1 for the decryption of CIPHERTEXT that scores best
+     * with the n-gram table TABLE.  Leases have LEASESIZE keys, the TOPK
+     * best keys are kept, and a lease is taken back from a worker that
+     * sends nothing for TIMEOUT milliseconds.
+     */
+    static KeySearchCoordinator start(String ciphertext, File table,
+                                      long from, long to, int leaseSize,
+                                      int topK, long timeout)
+            throws IOException {
+        return start(ciphertext, table, from, to, leaseSize, topK, timeout,
+                false);
+    }
+
+    /**
+     * Start a search as above, in which workers score only canonical
+     * keys iff CANONICAL.  FROM and TO then number keys of the key space
+     * with fixed rings (see KeySpace).
+     */
+    static KeySearchCoordinator start(String ciphertext, File table,
+                                      long from, long to, int leaseSize,
+                                      int topK, long timeout,
+                                      boolean canonical)
+            throws IOException {
+        final KeySearchCoordinator coordinator = new KeySearchCoordinator(
+                ciphertext, table, from, to, leaseSize, topK, timeout,
+                canonical);
+        daemon("enigma-coordinator", new Runnable() {
+            @Override
+            public void run() {
+                coordinator.accept();
+            }
+        });
+        daemon("enigma-reaper", new Runnable() {
+            @Override
+            public void run() {
+                coordinator.reap();
+            }
+        });
+        return coordinator;
+    }
+
+    /**
+     * A coordinator as described for start().
+     */
+    private KeySearchCoordinator(String ciphertext, File table, long from,
+                                 long to, int leaseSize, int topK,
+                                 long timeout, boolean canonical)
+            throws IOException {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        _alphabet = machine.alphabet();
+        _space = new KeySpace(machine, canonical);
+        if (from < 0 || to > _space.size() || from >= to) {
+            throw EnigmaException.error("key search error, no keys %d .. "
+                    + "%d in a key space of %d.", from, to - 1,
+                    _space.size());
+        }
+        if (leaseSize <= 0 || topK <= 0 || timeout <= 0) {
+            throw EnigmaException.error("key search error, the lease size, "
+                    + "number of results and timeout must be positive.");
+        }
+        NgramScorer.map(_alphabet, table).order();
+        InputFilter filter = InputFilter.lenient(_alphabet);
+        int[] letters = new int[ciphertext.length() * filter.maxExpansion()];
+        int n = filter.filter(ciphertext, 0, ciphertext.length(), letters,
+                0);
+        if (n == 0) {
+            throw EnigmaException.error("key search error, the ciphertext "
+                    + "has no letters.");
+        }
+        char[] text = new char[n];
+        for (int i = 0; i < n; i++) {
+            text[i] = _alphabet.toChar(letters[i]);
+        }
+        _job = "JOB " + topK + (canonical ? " canonical " : " all ")
+                + new String(text) + " " + table.getAbsolutePath() + "\n";
+        _from = from;
+        _to = to;
+        _next = from;
+        _leaseSize = leaseSize;
+        _topK = topK;
+        _timeout = timeout;
+        _socket = new ServerSocket(0, BACKLOG,
+                InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Return the port workers connect to.
+     */
+    int port() {
+        return _socket.getLocalPort();
+    }
+
+    /**
+     * Start N worker processes on the JVM and class path of this one, and
+     * return them.
+     */
+    List<Process> launchWorkers(int n) throws IOException {
+        String java = new File(new File(System.getProperty("java.home"),
+                "bin"), "java").getPath();
+        List<Process> workers = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            workers.add(new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"),
+                    KeySearchWorker.class.getName(),
+                    String.valueOf(port()))
+                    .redirectErrorStream(true).start());
+        }
+        return workers;
+    }
+
+    /**
+     * Wait up to MILLIS milliseconds for every key to be searched, and
+     * return true iff they have been.
+     */
+    synchronized boolean await(long millis) throws InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        while (!finished()) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Return the best keys found so far, best first.
+     */
+    synchronized List<Result> results() {
+        return new ArrayList<>(_results);
+    }
+
+    /**
+     * Return the number of keys searched in finished leases.
+     */
+    synchronized long keysSearched() {
+        return _searched;
+    }
+
+    /**
+     * Return the number of times a lease was taken back from a worker.
+     */
+    synchronized int reassigned() {
+        return _reassigned;
+    }
+
+    /**
+     * Stop accepting workers and serving connected ones.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            _closed = true;
+            notifyAll();
+        }
+        _socket.close();
+    }
+
+    /**
+     * Search keys ARGS[3] .. ARGS[4] - 1 for the decryption of the
+     * ciphertext ARGS[1] that scores best with the n-gram table file
+     * ARGS[0], with ARGS[2] worker processes, and print the best keys.
+     * Without ARGS[3], every canonical key is searched.
+     */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3 || args.length > 5) {
+            throw EnigmaException.error("Usage: java "
+                    + "enigma.KeySearchCoordinator TABLE CIPHERTEXT "
+                    + "WORKERS [FROM [TO]]");
+        }
+        boolean canonical = args.length == 3;
+        long size = new KeySpace(Simulator.defaultMachine(
+                "* B Beta I II III AAAA"), canonical).size();
+        long from = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        long to = args.length > 4 ? Long.parseLong(args[4]) : size;
+        KeySearchCoordinator coordinator = start(args[1],
+                new File(args[0]), from, to, LEASE_SIZE, TOP_K, TIMEOUT,
+                canonical);
+        List<Process> workers =
+                coordinator.launchWorkers(Integer.parseInt(args[2]));
+        long start = System.nanoTime();
+        try {
+            while (!coordinator.await(PROGRESS_INTERVAL)) {
+                System.out.printf("%d of %d keys searched%n",
+                        coordinator.keysSearched(), to - from);
+            }
+        } finally {
+            coordinator.close();
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d keys in %.1f s (%.0f keys/s), %d leases "
+                + "reassigned%n", to - from, seconds, (to - from) / seconds,
+                coordinator.reassigned());
+        for (Result result : coordinator.results()) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Accept workers until closed.  After a failed accept, wait a
+     * little before the next; after MAX_ACCEPT_FAILURES in a row, close.
+     */
+    private void accept() {
+        int failures = 0;
+        while (!_socket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = _socket.accept();
+                failures = 0;
+                connection.setTcpNoDelay(true);
+            } catch (IOException excp) {
+                failures += 1;
+                if (!_socket.isClosed() && !backOff(failures)) {
+                    try {
+                        close();
+                    } catch (IOException closing) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            daemon("enigma-coordinator-worker", new Runnable() {
+                @Override
+                public void run() {
+                    serve(connection);
+                }
+            });
+        }
+    }
+
+    /**
+     * Serve the worker on CONNECTION until it leaves or all keys have
+     * been searched, then take back any lease it still holds.
+     */
+    private void serve(Socket connection) {
+        Lease held = null;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    connection.getInputStream(), "UTF-8"));
+            Writer out = new OutputStreamWriter(connection.getOutputStream(),
+                    "UTF-8");
+            out.write(_job);
+            out.flush();
+            List<Long> keys = new ArrayList<>();
+            List<Float> scores = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields[0].equals("LEASE")) {
+                    held = take();
+                    if (held == null) {
+                        out.write("DONE\n");
+                        out.flush();
+                        return;
+                    }
+                    keys.clear();
+                    scores.clear();
+                    out.write("LEASE " + held.id + " " + held.from + " "
+                            + held.to + "\n");
+                    out.flush();
+                } else if (held == null
+                        || Long.parseLong(fields[1]) != held.id) {
+                    return;
+                } else if (fields[0].equals("BEAT")) {
+                    beat(held);
+                } else if (fields[0].equals("RESULT")) {
+                    keys.add(Long.parseLong(fields[2]));
+                    scores.add(Float.parseFloat(fields[3]));
+                } else if (fields[0].equals("FINISHED")) {
+                    finish(held, keys, scores);
+                    held = null;
+                } else {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException excp) {
+            return;
+        } finally {
+            if (held != null) {
+                giveBack(held);
+            }
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Return a lease for a worker, waiting while every remaining lease is
+     * out, or null if all keys have been searched.
+     */
+    private synchronized Lease take() throws IOException {
+        while (!_closed) {
+            Lease lease = _queue.poll();
+            if (lease == null && _next < _to) {
+                long id = (_next - _from) / _leaseSize;
+                lease = new Lease(id, _next, Math.min(_to,
+                        _next + _leaseSize));
+                _next = lease.to;
+            }
+            if (lease != null) {
+                lease.beat = System.currentTimeMillis();
+                _out.put(lease.id, lease);
+                return lease;
+            }
+            if (finished()) {
+                return null;
+            }
+            try {
+                wait(_timeout);
+            } catch (InterruptedException excp) {
+                throw new IOException("interrupted");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Note that the worker holding LEASE is alive.
+     */
+    private synchronized void beat(Lease lease) {
+        lease.beat = System.currentTimeMillis();
+    }
+
+    /**
+     * Record the best KEYS of LEASE, with their SCORES, unless it has
+     * been taken back.
+     */
+    private synchronized void finish(Lease lease, List<Long> keys,
+                                     List<Float> scores) {
+        if (_out.get(lease.id) != lease) {
+            return;
+        }
+        _out.remove(lease.id);
+        _searched += lease.to - lease.from;
+        for (int k = 0; k < keys.size(); k++) {
+            float score = scores.get(k);
+            int at = _results.size();
+            while (at > 0 && _results.get(at - 1).score < score) {
+                at -= 1;
+            }
+            if (at < _topK) {
+                long key = keys.get(k);
+                _results.add(at, new Result(key,
+                        _space.describe(key, _alphabet), score));
+                if (_results.size() > _topK) {
+                    _results.remove(_topK);
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Put LEASE back in the queue, unless it has been finished or taken
+     * back already.
+     */
+    private synchronized void giveBack(Lease lease) {
+        if (_out.get(lease.id) == lease) {
+            _out.remove(lease.id);
+            _queue.add(new Lease(lease.id, lease.from, lease.to));
+            _reassigned += 1;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Take back leases whose workers have been silent for the timeout,
+     * until closed.
+     */
+    private void reap() {
+        List<Lease> expired = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                if (_closed) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (Lease lease : _out.values()) {
+                    if (now - lease.beat > _timeout) {
+                        expired.add(lease);
+                    }
+                }
+            }
+            for (Lease lease : expired) {
+                giveBack(lease);
+            }
+            expired.clear();
+            try {
+                Thread.sleep(Math.max(1, _timeout / 4));
+            } catch (InterruptedException excp) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return true iff every key has been searched.
+     */
+    private boolean finished() {
+        return _next == _to && _queue.isEmpty() && _out.isEmpty();
+    }
+
+    /**
+     * Wait after the FAILURES-th failed accept in a row, twice as long
+     * as after the one before it, up to MAX_ACCEPT_DELAY, and return
+     * false if it is time to stop accepting instead.
+     */
+    private static boolean backOff(int failures) {
+        if (failures >= MAX_ACCEPT_FAILURES) {
+            return false;
+        }
+        try {
+            Thread.sleep(Math.min(MAX_ACCEPT_DELAY,
+                    ACCEPT_DELAY << Math.min(failures - 1, 16)));
+            return true;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Close CONNECTION, ignoring failures.
+     */
+    private static void closeQuietly(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Run TASK on a new daemon thread called NAME.
+     */
+    private static void daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Keys FROM .. TO - 1, with number ID, and when the worker holding
+     * them was last heard from.
+     */
+    private static final class Lease {
+
+        /**
+         * Lease ID of keys FROM .. TO - 1.
+         */
+        Lease(long id, long from, long to) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Its number.
+         */
+        final long id;
+
+        /**
+         * Its first key.
+         */
+        final long from;
+
+        /**
+         * The key after its last.
+         */
+        final long to;
+
+        /**
+         * When its worker was last heard from.
+         */
+        long beat;
+    }
+
+    /**
+     * Keys per lease for main.
+     */
+    static final int LEASE_SIZE = 1 << 18;
+
+    /**
+     * Best keys kept by main.
+     */
+    static final int TOP_K = 10;
+
+    /**
+     * Lease timeout for main, in milliseconds.
+     */
+    static final long TIMEOUT = 30000;
+
+    /**
+     * Milliseconds between progress reports of main.
+     */
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    /**
+     * Workers waiting to be accepted.
+     */
+    private static final int BACKLOG = 64;
+
+    /**
+     * Milliseconds to wait after a failed accept.
+     */
+    private static final long ACCEPT_DELAY = 10;
+
+    /**
+     * Longest wait after failed accepts, in milliseconds.
+     */
+    private static final long MAX_ACCEPT_DELAY = 1000;
+
+    /**
+     * Failed accepts in a row after which accepting stops.
+     */
+    private static final int MAX_ACCEPT_FAILURES = 50;
+
+    /**
+     * The first line sent to each worker.
+     */
+    private final String _job;
+
+    /**
+     * The alphabet of the default rotor set.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Its keys.
+     */
+    private final KeySpace _space;
+
+    /**
+     * The keys to search are _from .. _to - 1.
+     */
+    private final long _from, _to;
+
+    /**
+     * Keys per lease.
+     */
+    private final int _leaseSize;
+
+    /**
+     * Number of best keys kept.
+     */
+    private final int _topK;
+
+    /**
+     * Milliseconds of silence after which a lease is taken back.
+     */
+    private final long _timeout;
+
+    /**
+     * The listening socket.
+     */
+    private final ServerSocket _socket;
+
+    /**
+     * First key not yet in any lease.
+     */
+    private long _next;
+
+    /**
+     * Leases taken back, waiting for another worker.
+     */
+    private final ArrayDeque<Lease> _queue = new ArrayDeque<>();
+
+    /**
+     * Leases held by workers, by number.
+     */
+    private final Map<Long, Lease> _out = new HashMap<>();
+
+    /**
+     * The best keys found, best first.
+     */
+    private final List<Result> _results = new ArrayList<>();
+
+    /**
+     * Keys searched in finished leases.
+     */
+    private long _searched;
+
+    /**
+     * Number of leases taken back.
+     */
+    private int _reassigned;
+
+    /**
+     * Whether close() has been called.
+     */
+    private boolean _closed;
+}
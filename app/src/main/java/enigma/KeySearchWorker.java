@@ -0,0 +1,229 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * A worker of a KeySearchCoordinator, normally a process of its own:
+ * <pre>
+ *     java -cp ... enigma.KeySearchWorker PORT
+ * </pre>
+ * It connects to the coordinator on the loopback interface at PORT,
+ * receives the job, then asks for leases of keys of the default rotor
+ * set until there are none left.  Each key's decryption of the
+ * ciphertext is scored with an n-gram table, and the best keys of each
+ * lease are reported when the lease is finished.  Progress is reported
+ * every BEAT keys so that the coordinator can tell a slow worker from a
+ * dead one.
+ *
+ * @author Junyi Cao
+ */
+final class KeySearchWorker {
+
+    /**
+     * Work for the coordinator listening on the loopback port ARGS[0].
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length != 1) {
+            throw EnigmaException.error("Usage: java enigma.KeySearchWorker "
+                    + "PORT");
+        }
+        run(Integer.parseInt(args[0]));
+    }
+
+    /**
+     * Work for the coordinator listening on the loopback port PORT until
+     * it has no more leases or goes away.
+     */
+    static void run(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(),
+                    "UTF-8");
+            String[] job = split(in.readLine(), 5, "JOB");
+            new KeySearchWorker(Integer.parseInt(job[1]),
+                    job[2].equals("canonical"), job[3], new File(job[4]))
+                    .work(in, out);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * A worker that keeps the TOPK best keys of each lease for
+     * CIPHERTEXT, scored with the n-gram table in TABLE.  Iff CANONICAL,
+     * keys are numbered in the key space with fixed rings, and keys whose
+     * other rings are not canonical are skipped.
+     */
+    private KeySearchWorker(int topK, boolean canonical, String ciphertext,
+                            File table) {
+        _machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        _space = new KeySpace(_machine, canonical);
+        Alphabet alphabet = _machine.alphabet();
+        _scorer = NgramScorer.map(alphabet, table);
+        _ciphertext = new int[ciphertext.length()];
+        InputFilter.strict(alphabet).filter(ciphertext, 0,
+                ciphertext.length(), _ciphertext, 0);
+        _text = new int[_ciphertext.length];
+        _canonical = canonical ? new KeyCanonicalizer(_text.length) : null;
+        _keys = new long[topK];
+        _scores = new float[topK];
+    }
+
+    /**
+     * Take leases through IN and OUT until the coordinator is done.
+     */
+    private void work(BufferedReader in, Writer out) throws IOException {
+        while (true) {
+            out.write("LEASE\n");
+            out.flush();
+            String line = in.readLine();
+            if (line == null || line.equals("DONE")) {
+                return;
+            }
+            String[] lease = split(line, 4, "LEASE");
+            search(lease[1], Long.parseLong(lease[2]),
+                    Long.parseLong(lease[3]), out);
+        }
+    }
+
+    /**
+     * Search keys FROM .. TO - 1, lease ID, reporting through OUT.
+     */
+    private void search(String id, long from, long to, Writer out)
+            throws IOException {
+        int kept = 0;
+        for (long key = from; key < to; key++) {
+            if ((key - from) % BEAT == 0 && key > from) {
+                out.write("BEAT " + id + " " + (key - from) + "\n");
+                out.flush();
+            }
+            _space.apply(key, _machine);
+            if (_canonical != null && !_canonical.isCanonical(_machine)) {
+                continue;
+            }
+            float score = score(key);
+            if (kept < _keys.length) {
+                _keys[kept] = key;
+                _scores[kept] = score;
+                kept += 1;
+            } else {
+                int worst = 0;
+                for (int k = 1; k < kept; k++) {
+                    if (_scores[k] < _scores[worst]) {
+                        worst = k;
+                    }
+                }
+                if (score > _scores[worst]) {
+                    _keys[worst] = key;
+                    _scores[worst] = score;
+                }
+            }
+        }
+        StringBuilder report = new StringBuilder();
+        for (int k = 0; k < kept; k++) {
+            report.append("RESULT ").append(id).append(' ')
+                    .append(_keys[k]).append(' ').append(_scores[k])
+                    .append('\n');
+        }
+        report.append("FINISHED ").append(id).append('\n');
+        out.write(report.toString());
+        out.flush();
+    }
+
+    /**
+     * Return the score of the decryption of the ciphertext with KEY,
+     * which _machine is set up with.  The engine is built once per run
+     * of keys that differ only in their moving rotors' positions (see
+     * KeySpace.run), and loaded with those positions for each key.
+     */
+    private float score(long key) {
+        long run = key / _space.run();
+        if (_engine == null || run != _run) {
+            _engine = new TableMachine(_machine);
+            _run = run;
+        } else {
+            _engine.load(_machine);
+        }
+        System.arraycopy(_ciphertext, 0, _text, 0, _text.length);
+        _engine.convert(_text, 0, _text.length);
+        return _scorer.score(_text, 0, _text.length);
+    }
+
+    /**
+     * Return LINE split into at most N fields, the first of which must be
+     * the message type TYPE.
+     */
+    static String[] split(String line, int n, String type) {
+        String[] fields = line == null ? new String[0] : line.split(" ", n);
+        if (fields.length != n || !fields[0].equals(type)) {
+            throw EnigmaException.error("key search error, expected %s "
+                    + "but got: %s", type, line);
+        }
+        return fields;
+    }
+
+    /**
+     * Number of keys between progress reports.
+     */
+    static final int BEAT = 4096;
+
+    /**
+     * Set up with each key in turn.
+     */
+    private final Machine _machine;
+
+    /**
+     * The keys of the default rotor set.
+     */
+    private final KeySpace _space;
+
+    /**
+     * Tells canonical keys, or null if every key is scored.
+     */
+    private final KeyCanonicalizer _canonical;
+
+    /**
+     * Decrypts with the keys of run _run, or null before the first key.
+     */
+    private TableMachine _engine;
+
+    /**
+     * The run of keys (see KeySpace.run) _engine was built for.
+     */
+    private long _run;
+
+    /**
+     * Scores decryptions.
+     */
+    private final NgramScorer _scorer;
+
+    /**
+     * The ciphertext, as indices.
+     */
+    private final int[] _ciphertext;
+
+    /**
+     * Its decryption with the current key.
+     */
+    private final int[] _text;
+
+    /**
+     * The best keys of the current lease.
+     */
+    private final long[] _keys;
+
+    /**
+     * Scores of _keys.
+     */
+    private final float[] _scores;
+}
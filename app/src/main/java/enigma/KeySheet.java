@@ -0,0 +1,236 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A key sheet: a file of KeyRecords, one per settings line, after a
+ * 16 byte header of a magic number, the records' signature, their width
+ * and 0.  write() converts a text key sheet once; open() then maps the
+ * file in windows of whole records, and load(K) sets the machine up from
+ * record K in constant time, wherever it is in the file.
+ *
+ * @author Junyi Cao
+ */
+final class KeySheet implements Closeable {
+
+    /**
+     * Convert the settings lines in TEXT, skipping blank lines, into a
+     * key sheet SHEET for MACHINE, and return the number of records.
+     */
+    static long write(Machine machine, File text, File sheet) {
+        KeyRecord format = new KeyRecord(machine);
+        int width = format.width();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                Math.max(HEADER, (BUFFER_SIZE / width) * width));
+        long count = 0;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(text), "UTF-8"), 1 << 16);
+            RandomAccessFile out = new RandomAccessFile(sheet, "rw");
+            try {
+                FileChannel channel = out.getChannel();
+                channel.truncate(0);
+                buffer.putInt(MAGIC).putInt(format.signature())
+                        .putInt(width).putInt(0);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    if (buffer.remaining() < width) {
+                        flush(channel, buffer);
+                    }
+                    format.encode(line, buffer);
+                    count += 1;
+                }
+                flush(channel, buffer);
+                channel.force(true);
+            } finally {
+                in.close();
+                out.close();
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot write key sheet %s: %s",
+                    sheet, excp.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * Open the key sheet FILE, written for MACHINE or for a machine with
+     * the same alphabet, layout and available rotors.
+     */
+    static KeySheet open(Machine machine, File file) {
+        return new KeySheet(machine, file, WINDOW_SIZE);
+    }
+
+    /**
+     * Open the key sheet FILE for MACHINE as for open(MACHINE, FILE),
+     * mapping windows of about WINDOWSIZE bytes.
+     */
+    static KeySheet open(Machine machine, File file, int windowSize) {
+        return new KeySheet(machine, file, windowSize);
+    }
+
+    /**
+     * A reader of FILE that sets up MACHINE, mapping windows of about
+     * WINDOWSIZE bytes.
+     */
+    private KeySheet(Machine machine, File file, int windowSize) {
+        _format = new KeyRecord(machine);
+        _width = _format.width();
+        try {
+            _file = new RandomAccessFile(file, "r");
+            _channel = _file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining()
+                    && _channel.read(header, header.position()) > 0) {
+                continue;
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+                _file.close();
+                throw EnigmaException.error("%s is not a key sheet.", file);
+            }
+            if (header.getInt() != _format.signature()
+                    || header.getInt() != _width) {
+                _file.close();
+                throw EnigmaException.error("key sheet %s was written "
+                        + "for a different machine.", file);
+            }
+            _size = (_channel.size() - HEADER) / _width;
+            _perWindow = Math.max(1, windowSize / _width);
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read key sheet %s: %s",
+                    file, excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the number of records.
+     */
+    long size() {
+        return _size;
+    }
+
+    /**
+     * Set up the machine according to record K.
+     */
+    void load(long k) {
+        if (k < 0 || k >= _size) {
+            throw EnigmaException.error("no key record %d in a sheet of "
+                    + "%d.", k, _size);
+        }
+        if (_window == null || k < _windowStart
+                || k >= _windowStart + _perWindow) {
+            map(k - k % _perWindow);
+        }
+        _format.apply(_window, (int) (k - _windowStart) * _width);
+    }
+
+    @Override
+    public void close() {
+        try {
+            _file.close();
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot close key sheet: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Map the window of records starting at record FIRST.
+     */
+    private void map(long first) {
+        long count = Math.min(_perWindow, _size - first);
+        try {
+            _window = _channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER + first * _width, count * _width);
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read key sheet: %s",
+                    excp.getMessage());
+        }
+        _windowStart = first;
+    }
+
+    /**
+     * Write the contents of BUFFER to CHANNEL and clear it.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Identifies key sheet files ("KEYS").
+     */
+    private static final int MAGIC = 0x4B455953;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * Size of the buffer records are written through.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Approximate size of a mapped window of records.
+     */
+    private static final int WINDOW_SIZE = 1 << 24;
+
+    /**
+     * Reads and applies records.
+     */
+    private final KeyRecord _format;
+
+    /**
+     * Number of bytes in a record.
+     */
+    private final int _width;
+
+    /**
+     * The key sheet file.
+     */
+    private final RandomAccessFile _file;
+
+    /**
+     * Its channel.
+     */
+    private final FileChannel _channel;
+
+    /**
+     * Number of records in the file.
+     */
+    private final long _size;
+
+    /**
+     * Number of records in a full window.
+     */
+    private final int _perWindow;
+
+    /**
+     * The records currently mapped, or null if none are.
+     */
+    private MappedByteBuffer _window;
+
+    /**
+     * Index of the first record in _window.
+     */
+    private long _windowStart;
+}
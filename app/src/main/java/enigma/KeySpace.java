@@ -0,0 +1,299 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The keys of a machine's rotor set, numbered from 0 to size() - 1: every
+ * choice of reflector, of rotor order, of ring settings and of start
+ * positions, with an empty plugboard.  The reflector slot takes a
+ * reflector, the other non-moving slots take fixed rotors and the moving
+ * slots take moving rotors, each rotor at most once.
+ * <p>
+ * Start positions vary fastest, then rings, then the rotor order, so a
+ * run of consecutive keys shares its rotors and apply() only moves them
+ * between keys.  A key space with fixed rings leaves out the rings of
+ * the fixed rotors and of the leftmost moving rotor, which never change
+ * the output (see KeyCanonicalizer), keeping them at 0.
+ *
+ * @author Junyi Cao
+ */
+final class KeySpace {
+
+    /**
+     * The keys of the rotors available to MACHINE, in its layout.
+     */
+    KeySpace(Machine machine) {
+        this(machine, false);
+    }
+
+    /**
+     * The keys of the rotors available to MACHINE, in its layout, with
+     * the rings that never matter kept at 0 iff FIXEDRINGS.
+     */
+    KeySpace(Machine machine, boolean fixedRings) {
+        _fixedRings = fixedRings;
+        _numRotors = machine.numRotors();
+        _first = machine.numRotors() - machine.numPawls();
+        _size = machine.alphabet().size();
+        List<Rotor> reflectors = new ArrayList<>();
+        List<Rotor> fixed = new ArrayList<>();
+        List<Rotor> moving = new ArrayList<>();
+        for (Rotor r : machine.availableRotors()) {
+            if (r instanceof Reflector) {
+                reflectors.add(r);
+            } else if (r instanceof MovingRotor) {
+                moving.add(r);
+            } else {
+                fixed.add(r);
+            }
+        }
+        _reflectors = reflectors.toArray(new Rotor[reflectors.size()]);
+        _fixed = fixed.toArray(new Rotor[fixed.size()]);
+        _moving = moving.toArray(new Rotor[moving.size()]);
+        long orders = _reflectors.length
+                * arrangements(_fixed.length, _first - 1)
+                * arrangements(_moving.length, _numRotors - _first);
+        long settings = 1;
+        for (int k = 1; k < _numRotors; k++) {
+            settings = times(settings, _size);
+        }
+        _settings = settings;
+        long run = 1;
+        for (int k = _first; k < _numRotors; k++) {
+            run = times(run, _size);
+        }
+        _run = run;
+        long rings = 1;
+        for (int k = fixedRings ? _first + 1 : 1; k < _numRotors; k++) {
+            rings = times(rings, _size);
+        }
+        _rings = rings;
+        _keys = times(orders, times(settings, rings));
+        if (_keys == 0) {
+            throw EnigmaException.error("the available rotors cannot fill "
+                    + "the %d slots of this machine.", _numRotors);
+        }
+        _order = new Rotor[_numRotors];
+        _digits = new int[_numRotors];
+        _ringDigits = new int[_numRotors];
+    }
+
+    /**
+     * Return true iff the rings that never matter are kept at 0.
+     */
+    boolean fixedRings() {
+        return _fixedRings;
+    }
+
+    /**
+     * Return the number of keys.
+     */
+    long size() {
+        return _keys;
+    }
+
+    /**
+     * Return the length of the runs of keys, each starting at a multiple
+     * of it, that differ only in the positions of the moving rotors, so
+     * that a CompiledEngine built for one key of a run serves all of
+     * them once loaded with their positions.
+     */
+    long run() {
+        return _run;
+    }
+
+    /**
+     * Set up MACHINE, which must have the rotor set and layout I was made
+     * from, with key KEY.
+     */
+    void apply(long key, Machine machine) {
+        long order = decode(key);
+        if (order != _lastOrder || machine != _lastMachine) {
+            arrange(order);
+            for (int k = 0; k < _numRotors; k++) {
+                machine.setRotor(k, _order[k]);
+            }
+            machine.setPlugboard(new Permutation("", machine.alphabet()));
+            _lastOrder = order;
+            _lastMachine = machine;
+        }
+        machine.setRing(0, 0);
+        for (int k = 1; k < _numRotors; k++) {
+            machine.setRing(k, _ringDigits[k]);
+        }
+        for (int k = 1; k < _numRotors; k++) {
+            machine.rotor(k).set(_digits[k]);
+        }
+    }
+
+    /**
+     * Return the settings line of key KEY in ALPHABET, such as
+     * "* B Beta I II III AAAA AAAA".
+     */
+    String describe(long key, Alphabet alphabet) {
+        arrange(decode(key));
+        _lastOrder = -1;
+        StringBuilder line = new StringBuilder("*");
+        for (Rotor r : _order) {
+            line.append(' ').append(r.name());
+        }
+        line.append(' ');
+        for (int k = 1; k < _numRotors; k++) {
+            line.append(alphabet.toChar(_digits[k]));
+        }
+        line.append(' ');
+        for (int k = 1; k < _numRotors; k++) {
+            line.append(alphabet.toChar(_ringDigits[k]));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Store the start positions of KEY in _digits and its rings in
+     * _ringDigits, and return the number of its rotor order.
+     */
+    private long decode(long key) {
+        if (key < 0 || key >= _keys) {
+            throw EnigmaException.error("no key %d in a key space of %d.",
+                    key, _keys);
+        }
+        long positions = key % _settings;
+        for (int k = _numRotors - 1; k >= 1; k--) {
+            _digits[k] = (int) (positions % _size);
+            positions /= _size;
+        }
+        long rings = key / _settings % _rings;
+        int fixed = _fixedRings ? _first : 0;
+        for (int k = _numRotors - 1; k > fixed; k--) {
+            _ringDigits[k] = (int) (rings % _size);
+            rings /= _size;
+        }
+        return key / _settings / _rings;
+    }
+
+    /**
+     * Fill _order with rotor order number ORDER.
+     */
+    private void arrange(long order) {
+        int moving = _numRotors - _first;
+        long movingOrders = arrangements(_moving.length, moving);
+        long fixedOrders = arrangements(_fixed.length, _first - 1);
+        pick(_moving, order % movingOrders, _first, moving);
+        order /= movingOrders;
+        pick(_fixed, order % fixedOrders, 1, _first - 1);
+        _order[0] = _reflectors[(int) (order / fixedOrders)];
+    }
+
+    /**
+     * Put arrangement number INDEX of COUNT of ROTORS into _order from
+     * slot FROM.
+     */
+    private void pick(Rotor[] rotors, long index, int from, int count) {
+        boolean[] used = new boolean[rotors.length];
+        for (int k = 0; k < count; k++) {
+            long rest = arrangements(rotors.length - k - 1, count - k - 1);
+            int choice = (int) (index / rest);
+            index %= rest;
+            for (int i = 0; ; i++) {
+                if (!used[i] && choice-- == 0) {
+                    used[i] = true;
+                    _order[from + k] = rotors[i];
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return A * B, where both are at least 0, unless it overflows.
+     */
+    private static long times(long a, long b) {
+        if (b != 0 && a > Long.MAX_VALUE / b) {
+            throw EnigmaException.error("the key space of this machine "
+                    + "has more than %d keys.", Long.MAX_VALUE);
+        }
+        return a * b;
+    }
+
+    /**
+     * Return the number of ordered choices of K of N things.
+     */
+    private static long arrangements(int n, int k) {
+        long result = 1;
+        for (int i = 0; i < k; i++) {
+            result *= n - i;
+        }
+        return result;
+    }
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * Slot of the leftmost moving rotor.
+     */
+    private final int _first;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * The available reflectors, fixed rotors and moving rotors.
+     */
+    private final Rotor[] _reflectors, _fixed, _moving;
+
+    /**
+     * True iff the rings that never matter are kept at 0.
+     */
+    private final boolean _fixedRings;
+
+    /**
+     * Number of choices of start positions.
+     */
+    private final long _settings;
+
+    /**
+     * Number of choices of positions of the moving rotors.
+     */
+    private final long _run;
+
+    /**
+     * Number of choices of rings.
+     */
+    private final long _rings;
+
+    /**
+     * Number of keys.
+     */
+    private final long _keys;
+
+    /**
+     * Rotors of the order being applied or described, by slot.
+     */
+    private final Rotor[] _order;
+
+    /**
+     * Start positions of the key being applied, by slot.
+     */
+    private final int[] _digits;
+
+    /**
+     * Rings of the key being applied, by slot.
+     */
+    private final int[] _ringDigits;
+
+    /**
+     * The rotor order last set up by apply(), or -1.
+     */
+    private long _lastOrder = -1;
+
+    /**
+     * The machine last set up by apply().
+     */
+    private Machine _lastMachine;
+}
@@ -0,0 +1,135 @@
+package enigma;
+
+/**
+ * A CompiledEngine for machines with 5 rotor slots and 3 pawls.
+ * Generated by LayoutGenerator; do not edit.
+ *
+ * @author Junyi Cao
+ */
+final class Layout53Machine extends CompiledEngine {
+
+    /**
+     * An engine compiled from MACHINE in its current state.
+     */
+    Layout53Machine(Machine machine) {
+        super(machine);
+        if (machine.numRotors() != 5 || machine.numPawls() != 3) {
+            throw EnigmaException.error("layout error, "
+                    + "Layout53Machine needs 5 rotors and 3 pawls.");
+        }
+        if (machine.stepping().geared()) {
+            throw EnigmaException.error("layout error, "
+                    + "Layout53Machine cannot step geared rotors.");
+        }
+        _plugboard = plugboardTable(machine);
+        _middle = middleTable(machine);
+        _f2 = forwardTable(machine.rotor(2));
+        _b2 = backwardTable(machine.rotor(2));
+        _s2 = machine.rotor(2).setting();
+        _f3 = forwardTable(machine.rotor(3));
+        _b3 = backwardTable(machine.rotor(3));
+        _n3 = notchTable(machine, 3);
+        _s3 = machine.rotor(3).setting();
+        _f4 = forwardTable(machine.rotor(4));
+        _b4 = backwardTable(machine.rotor(4));
+        _n4 = notchTable(machine, 4);
+        _s4 = machine.rotor(4).setting();
+    }
+
+    @Override
+    public int convert(int c) {
+        final int size = _size;
+        final boolean carry3 = _n3[_s3];
+        final boolean carry4 = _n4[_s4];
+        if (carry3) {
+            _s2 = _s2 + 1 == size ? 0 : _s2 + 1;
+        }
+        if (carry3 || carry4) {
+            _s3 = _s3 + 1 == size ? 0 : _s3 + 1;
+        }
+        _s4 = _s4 + 1 == size ? 0 : _s4 + 1;
+        c = _plugboard[c];
+        c = _f4[_s4 * size + c];
+        c = _f3[_s3 * size + c];
+        c = _f2[_s2 * size + c];
+        c = _middle[c];
+        c = _b2[_s2 * size + c];
+        c = _b3[_s3 * size + c];
+        c = _b4[_s4 * size + c];
+        return _plugboard[c];
+    }
+
+    @Override
+    int[] settings() {
+        int[] settings = new int[5];
+        settings[2] = _s2;
+        settings[3] = _s3;
+        settings[4] = _s4;
+        return settings;
+    }
+
+    /**
+     * The plugboard.
+     */
+    private final int[] _plugboard;
+
+    /**
+     * The non-moving rotors and the reflector, composed.
+     */
+    private final int[] _middle;
+
+    /**
+     * Forward table of the rotor in slot 2.
+     */
+    private final int[] _f2;
+
+    /**
+     * Backward table of the rotor in slot 2.
+     */
+    private final int[] _b2;
+
+    /**
+     * Current setting of the rotor in slot 2.
+     */
+    private int _s2;
+
+    /**
+     * Forward table of the rotor in slot 3.
+     */
+    private final int[] _f3;
+
+    /**
+     * Backward table of the rotor in slot 3.
+     */
+    private final int[] _b3;
+
+    /**
+     * Notch table of the rotor in slot 3.
+     */
+    private final boolean[] _n3;
+
+    /**
+     * Current setting of the rotor in slot 3.
+     */
+    private int _s3;
+
+    /**
+     * Forward table of the rotor in slot 4.
+     */
+    private final int[] _f4;
+
+    /**
+     * Backward table of the rotor in slot 4.
+     */
+    private final int[] _b4;
+
+    /**
+     * Notch table of the rotor in slot 4.
+     */
+    private final boolean[] _n4;
+
+    /**
+     * Current setting of the rotor in slot 4.
+     */
+    private int _s4;
+}
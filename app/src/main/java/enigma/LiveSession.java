@@ -0,0 +1,243 @@
+package enigma;
+
+import java.util.Arrays;
+
+/**
+ * A machine that encrypts text as it is typed.  Each character appended
+ * to the text advances the machine by one keystroke, and the rotor
+ * positions before every keystroke are kept, so that an edit restores
+ * the machine to the state at the edited offset instead of encrypting
+ * the whole text again.
+ * <p>
+ * Text is read leniently (see InputFilter): case is folded, an umlaut
+ * takes two keystrokes (AE, OE, UE), and characters that stand for no
+ * letter are skipped and do not advance the machine.
+ *
+ * @author Junyi Cao
+ */
+public class LiveSession {
+
+    /**
+     * A session for the default rotor set, set up by the settings line
+     * SETTINGS (e.g. "* B Beta III IV I AXLE (HQ) (EX)").
+     */
+    public LiveSession(String settings) {
+        this(Simulator.defaultMachine(settings));
+    }
+
+    /**
+     * A session for the default rotor set and settings line SETTINGS,
+     * resumed after TEXT, whose encryption is CIPHER, left the moving
+     * rotors at POSITIONS.  Nothing is encrypted again: states before
+     * the resumed text are recomputed from the stepping schedule when
+     * an edit reaches back into it.
+     */
+    LiveSession(String settings, CharSequence text, CharSequence cipher,
+                int[] positions) {
+        this(Simulator.defaultMachine(settings));
+        _settings = settings;
+        ensureCapacity(text.length());
+        int k = 0;
+        for (int i = 0; i < text.length(); i++) {
+            k += _filter.filter(text.charAt(i), _letters, 0);
+            _keystrokes[i + 1] = k;
+        }
+        if (k != cipher.length() || positions.length != _stride) {
+            throw EnigmaException.error("session error, the saved "
+                    + "ciphertext does not match the saved text.");
+        }
+        _length = text.length();
+        _cipher.append(cipher);
+        _machine.loadPositions(positions, 0);
+        _machine.savePositions(_states, k * _stride);
+        _known = k;
+    }
+
+    /**
+     * A session that encrypts with MACHINE, starting in its current
+     * state.
+     */
+    LiveSession(Machine machine) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _filter = InputFilter.lenient(_alphabet);
+        _letters = new int[_filter.maxExpansion()];
+        _stride = machine.numPawls();
+        _keystrokes = new int[INITIAL_CAPACITY + 1];
+        _states = new int[(INITIAL_CAPACITY * _letters.length + 1)
+                * _stride];
+        _machine.savePositions(_states, 0);
+        _cipher = new StringBuilder();
+        _length = 0;
+    }
+
+    /**
+     * Bring the session up to date after COUNT characters of TEXT
+     * starting at START replaced BEFORE characters, with the meaning of
+     * TextWatcher.onTextChanged.  Appending costs O(COUNT); any other
+     * edit restores the state at START and encrypts the rest of TEXT.
+     */
+    public void update(CharSequence text, int start, int before,
+                       int count) {
+        if (start > _length || start + before > _length) {
+            start = 0;
+        }
+        truncate(start);
+        append(text, start, text.length());
+    }
+
+    /**
+     * Restart the session with TEXT as the whole text.
+     */
+    public void reset(CharSequence text) {
+        update(text, 0, _length, text.length());
+    }
+
+    /**
+     * Return the number of characters of text I have seen.
+     */
+    public int length() {
+        return _length;
+    }
+
+    /**
+     * Return the encryption of the text so far, without grouping.  The
+     * result is only valid until the next update.
+     */
+    public CharSequence ciphertext() {
+        return _cipher;
+    }
+
+    /**
+     * Forget the text from offset LENGTH on, returning the machine to its
+     * state before that offset.
+     */
+    void truncate(int length) {
+        int k = _keystrokes[length];
+        if (k < _known) {
+            SteppingSchedule.of(Simulator.defaultMachine(_settings))
+                    .seek(_machine, k);
+            _machine.savePositions(_states, k * _stride);
+            _known = k;
+        }
+        _machine.loadPositions(_states, k * _stride);
+        _cipher.setLength(k);
+        _length = length;
+    }
+
+    /**
+     * Return the number of characters encrypted in the first OFFSET
+     * characters of text, where OFFSET is at most length().  An update
+     * at OFFSET keeps that much of the ciphertext.
+     */
+    public int keystrokes(int offset) {
+        return _keystrokes[offset];
+    }
+
+    /**
+     * Store the current positions of the moving rotors into POSITIONS.
+     */
+    void positions(int[] positions) {
+        _machine.savePositions(positions, 0);
+    }
+
+    /**
+     * Return the number of moving rotors.
+     */
+    int numPawls() {
+        return _stride;
+    }
+
+    /**
+     * Encrypt TEXT[FROM .. TO - 1] after the current text.
+     */
+    void append(CharSequence text, int from, int to) {
+        ensureCapacity(_length + (to - from));
+        int k = _keystrokes[_length];
+        for (int i = from; i < to; i++) {
+            int n = _filter.filter(text.charAt(i), _letters, 0);
+            for (int j = 0; j < n; j++) {
+                _cipher.append(_alphabet.toChar(
+                        _machine.convert(_letters[j])));
+                k += 1;
+                _machine.savePositions(_states, k * _stride);
+            }
+            _length += 1;
+            _keystrokes[_length] = k;
+        }
+    }
+
+    /**
+     * Make room for text of LENGTH characters.
+     */
+    private void ensureCapacity(int length) {
+        if (length + 1 > _keystrokes.length) {
+            int capacity = Math.max(length + 1, 2 * _keystrokes.length);
+            _keystrokes = Arrays.copyOf(_keystrokes, capacity);
+            _states = Arrays.copyOf(_states,
+                    (capacity * _letters.length + 1) * _stride);
+        }
+    }
+
+    /**
+     * Text length for which room is made initially.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The machine, in the state after the current text.
+     */
+    private final Machine _machine;
+
+    /**
+     * Alphabet of my machine.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Turns characters of text into letters.
+     */
+    private final InputFilter _filter;
+
+    /**
+     * The letters of one character of text, as indices.
+     */
+    private final int[] _letters;
+
+    /**
+     * Number of entries of _states per keystroke.
+     */
+    private final int _stride;
+
+    /**
+     * _keystrokes[I] is the number of characters encrypted in the first I
+     * characters of text.
+     */
+    private int[] _keystrokes;
+
+    /**
+     * Positions of the moving rotors before each keystroke, _stride
+     * entries per keystroke.
+     */
+    private int[] _states;
+
+    /**
+     * Encryption of the text so far.
+     */
+    private final StringBuilder _cipher;
+
+    /**
+     * Number of characters of text seen.
+     */
+    private int _length;
+
+    /**
+     * The settings line of a resumed session, or null.
+     */
+    private String _settings;
+
+    /**
+     * Number of keystrokes of resumed text whose states were not saved.
+     */
+    private int _known;
+}
@@ -0,0 +1,161 @@
+package enigma;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs, such as packed machine states, kept in one array by
+ * open addressing with linear probing, so that nothing is boxed: each
+ * element costs one 8 byte entry, and the table is kept between 3/8 and
+ * 3/4 full, or from 11 to 22 bytes an element, where a HashSet of Long
+ * takes some 60.  Not safe for use by several threads at once.
+ *
+ * @author Junyi Cao
+ */
+final class LongHashSet {
+
+    /**
+     * An empty set.
+     */
+    LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * An empty set with room for EXPECTED elements before it grows.
+     */
+    LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity * LOAD < expected) {
+            capacity *= 2;
+        }
+        _table = new long[capacity];
+        Arrays.fill(_table, EMPTY);
+    }
+
+    /**
+     * Add VALUE and return true iff it was not already present.
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            boolean added = !_hasEmpty;
+            _hasEmpty = true;
+            return added;
+        }
+        long[] table = _table;
+        int mask = table.length - 1;
+        for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+            long v = table[i];
+            if (v == value) {
+                return false;
+            }
+            if (v == EMPTY) {
+                table[i] = value;
+                _count += 1;
+                if (_count > table.length * LOAD) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return true iff VALUE is present.
+     */
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return _hasEmpty;
+        }
+        long[] table = _table;
+        int mask = table.length - 1;
+        for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+            long v = table[i];
+            if (v == value) {
+                return true;
+            }
+            if (v == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Return the number of elements.
+     */
+    int size() {
+        return _count + (_hasEmpty ? 1 : 0);
+    }
+
+    /**
+     * Remove every element, keeping the table.
+     */
+    void clear() {
+        Arrays.fill(_table, EMPTY);
+        _count = 0;
+        _hasEmpty = false;
+    }
+
+    /**
+     * Double the table and rehash.
+     */
+    private void grow() {
+        long[] old = _table;
+        if (old.length == MAX_CAPACITY) {
+            throw EnigmaException.error("a set of longs cannot hold more "
+                    + "than %d elements.", (int) (MAX_CAPACITY * LOAD));
+        }
+        long[] table = new long[2 * old.length];
+        Arrays.fill(table, EMPTY);
+        int mask = table.length - 1;
+        for (long v : old) {
+            if (v != EMPTY) {
+                int i = slot(v, mask);
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = v;
+            }
+        }
+        _table = table;
+    }
+
+    /**
+     * Return the home slot of VALUE in a table of MASK + 1 entries.
+     * Packed states differ mostly in their low digits, so the bits are
+     * mixed first.
+     */
+    private static int slot(long value, int mask) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Marks an empty entry.  The value itself is recorded in _hasEmpty.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * Largest fraction of the table in use.
+     */
+    private static final double LOAD = 0.75;
+
+    /**
+     * Largest table.
+     */
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * The elements, and EMPTY entries.
+     */
+    private long[] _table;
+
+    /**
+     * Number of elements in _table.
+     */
+    private int _count;
+
+    /**
+     * Whether EMPTY is an element.
+     */
+    private boolean _hasEmpty;
+}
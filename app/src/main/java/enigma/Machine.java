@@ -2,7 +2,9 @@ package enigma;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -10,7 +12,7 @@ import java.util.Set;
  *
  * @author Junyi Cao
  */
-class Machine {
+class Machine implements Engine {
 
     /**
      * A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
@@ -36,6 +38,7 @@ class Machine {
         }
         _allRotors = allRotors;
         _rotorSlots = new Rotor[numRotors];
+        _toAdvance = new boolean[numRotors];
         _plugboard = new Permutation("", alpha);
     }
 
@@ -53,6 +56,27 @@ class Machine {
         return _numPawls;
     }
 
+    /**
+     * Return my alphabet.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /**
+     * Return all the rotors available to me by configuration.
+     */
+    List<Rotor> availableRotors() {
+        return Collections.unmodifiableList(_allRotors);
+    }
+
+    /**
+     * Return the rotor in slot K, where slot 0 holds the reflector.
+     */
+    Rotor rotor(int k) {
+        return _rotorSlots[k];
+    }
+
     /**
      * Set my rotor slots to the rotors named ROTORS from my set of
      * available rotors (ROTORS[0] names the reflector).
@@ -69,6 +93,7 @@ class Machine {
         Set<String> rotorNames = new HashSet<>();
         for (int i = 0; i < numRotors(); i++) {
             String name = rotors[i];
+            _rotorSlots[i] = null;
             for (Rotor r : _allRotors) {
                 if (r.name().equals(name)) {
                     if (i == 0 && !(r instanceof Reflector)) {
@@ -98,6 +123,15 @@ class Machine {
         checkRotors();
     }
 
+    /**
+     * Put ROTOR, one of my available rotors, in slot K.  Unlike
+     * insertRotors, nothing is looked up or checked, so the caller must
+     * make sure the slots end up properly configured.
+     */
+    void setRotor(int k, Rotor rotor) {
+        _rotorSlots[k] = rotor;
+    }
+
     /**
      * Check whether the rotors in rotor Slots are properly configured.
      */
@@ -142,6 +176,62 @@ class Machine {
         }
     }
 
+    /**
+     * Store the positions of my moving rotors, leftmost first, into
+     * STATE[START .. START + numPawls() - 1].
+     */
+    void savePositions(int[] state, int start) {
+        for (int i = numRotors() - numPawls(); i < numRotors(); i++) {
+            Rotor r = _rotorSlots[i];
+            state[start++] = r.permutation().wrap(
+                    r.setting() + r.alphabetRing());
+        }
+    }
+
+    /**
+     * Restore the positions of my moving rotors from
+     * STATE[START .. START + numPawls() - 1], as stored by savePositions.
+     */
+    void loadPositions(int[] state, int start) {
+        for (int i = numRotors() - numPawls(); i < numRotors(); i++) {
+            _rotorSlots[i].set(state[start++]);
+        }
+    }
+
+    /**
+     * Return my whole state as a long: the rotor in each slot and the
+     * ring and position of each rotor but the reflector (see
+     * StateCodec).
+     */
+    long packState() {
+        return codec().pack(this);
+    }
+
+    /**
+     * Restore the state STATE returned by packState().  Like setRotor,
+     * this does not check the rotor order.
+     */
+    void loadState(long state) {
+        codec().load(state, this);
+    }
+
+    /**
+     * Return the codec of my states, made on first use.
+     */
+    private StateCodec codec() {
+        if (_codec == null) {
+            _codec = new StateCodec(this);
+        }
+        return _codec;
+    }
+
+    /**
+     * Return my plugboard.
+     */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /**
      * Set the plugboard to PLUGBOARD.
      */
@@ -149,6 +239,21 @@ class Machine {
         _plugboard = plugboard;
     }
 
+    /**
+     * Return how my moving rotors advance.
+     */
+    SteppingStrategy stepping() {
+        return _stepping;
+    }
+
+    /**
+     * Advance my moving rotors according to STEPPING from now on.  The
+     * default is SteppingStrategy.DOUBLE_STEP.
+     */
+    void setStepping(SteppingStrategy stepping) {
+        _stepping = stepping;
+    }
+
     /**
      * Set the alphabet rings by RINGS.
      */
@@ -162,11 +267,20 @@ class Machine {
             );
         }
         for (int i = 1; i < numRotors(); i++) {
-            int ring = _rotorSlots[i].alphabet().toInt(rings.charAt(i - 1));
-            _rotorSlots[i].setAlphabetRing(ring);
-            if (_rotorSlots[i].rotates()) {
-                ((MovingRotor) _rotorSlots[i]).setNotches();
-            }
+            Alphabet alphabet = _rotorSlots[i].alphabet();
+            setRing(i, alphabet.toInt(rings.charAt(i - 1)));
+        }
+    }
+
+    /**
+     * Set the alphabet ring of the rotor in slot K to RING, an index
+     * into my alphabet.
+     */
+    void setRing(int k, int ring) {
+        Rotor r = _rotorSlots[k];
+        r.setAlphabetRing(ring);
+        if (r.rotates()) {
+            ((MovingRotor) r).setNotches();
         }
     }
 
@@ -176,7 +290,8 @@ class Machine {
      * <p>
      * the machine.
      */
-    int convert(int c) {
+    @Override
+    public int convert(int c) {
         rotatesRotors(false);
         c = _plugboard.permute(c);
         for (int i = _rotorSlots.length - 1; i >= 0; i--) {
@@ -189,6 +304,13 @@ class Machine {
         return c;
     }
 
+    @Override
+    public void convert(int[] msg, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            msg[i] = convert(msg[i]);
+        }
+    }
+
     /**
      * Returns the encoding/decoding of MSG, updating the state of
      * the rotors accordingly.
@@ -203,6 +325,22 @@ class Machine {
         return new String(convertedMsg);
     }
 
+    /**
+     * Encode/decode the LENGTH bytes of DATA starting at OFFSET in place,
+     * treating each unsigned byte as an index into my alphabet, which
+     * must have exactly 256 characters.  This lets arbitrary binary data
+     * pass through the machine.
+     */
+    void convert(byte[] data, int offset, int length) {
+        if (_alphabet.size() != 256) {
+            throw EnigmaException.error("binary data needs an alphabet of "
+                    + "256 characters, but found %d.", _alphabet.size());
+        }
+        for (int i = offset; i < offset + length; i++) {
+            data[i] = (byte) convert(data[i] & 0xFF);
+        }
+    }
+
     /**
      * Rotate the moving rotors in the rotorSlots after
      * each character comes in.
@@ -210,15 +348,32 @@ class Machine {
      * @param verbose whether to print the settings during encoding/decoding.
      */
     private void rotatesRotors(boolean verbose) {
-        boolean[] toAdvance = new boolean[_rotorSlots.length];
+        boolean[] toAdvance = _toAdvance;
         Arrays.fill(toAdvance, false);
-        for (int i = 1; i < _rotorSlots.length; i++) {
-            if (_rotorSlots[i - 1].rotates() && _rotorSlots[i].atNotch()) {
-                toAdvance[i - 1] = toAdvance[i] = true;
+        int fast = _rotorSlots.length - 1;
+        toAdvance[fast] = true;
+        if (_stepping == SteppingStrategy.DOUBLE_STEP) {
+            for (int i = 1; i < _rotorSlots.length; i++) {
+                if (_rotorSlots[i - 1].rotates()
+                        && _rotorSlots[i].atNotch()) {
+                    toAdvance[i - 1] = toAdvance[i] = true;
+                }
+            }
+        } else {
+            boolean geared = _stepping.geared();
+            for (int i = fast; i >= 1; i--) {
+                Rotor r = _rotorSlots[i];
+                if (_rotorSlots[i - 1].rotates()
+                        && (toAdvance[i] || !geared)
+                        && _stepping.carries((MovingRotor) r,
+                                r.setting())) {
+                    toAdvance[i - 1] = true;
+                    toAdvance[i] = true;
+                }
             }
         }
         for (int i = 1; i < _rotorSlots.length; i++) {
-            if (toAdvance[i] || i == _rotorSlots.length - 1) {
+            if (toAdvance[i]) {
                 _rotorSlots[i].advance();
             }
         }
@@ -261,4 +416,19 @@ class Machine {
      * The plugboard.
      */
     private Permutation _plugboard;
+
+    /**
+     * How my moving rotors advance.
+     */
+    private SteppingStrategy _stepping = SteppingStrategy.DOUBLE_STEP;
+
+    /**
+     * Packs and unpacks my states, once used.
+     */
+    private StateCodec _codec;
+
+    /**
+     * Scratch space for rotatesRotors: which slots advance.
+     */
+    private final boolean[] _toAdvance;
 }
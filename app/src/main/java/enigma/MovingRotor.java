@@ -24,8 +24,16 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
+        return notchAt(setting());
+    }
+
+    /**
+     * Return true iff SETTING is one of my notches, taking the alphabet
+     * ring into account.
+     */
+    boolean notchAt(int setting) {
         for (int notch : _notches) {
-            if (setting() == notch) {
+            if (setting == notch) {
                 return true;
             }
         }
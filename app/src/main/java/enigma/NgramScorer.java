@@ -0,0 +1,366 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Scores candidate plaintexts by their n-grams: the score of a text is
+ * the sum of the log10 probabilities of its n-grams, so higher is more
+ * like the language the table was built from.  The table holds one
+ * float per n-gram of the alphabet, indexed by the n-gram's letters as
+ * the digits of a number in base size(), so scoring a text of alphabet
+ * indices costs one multiply-add and one load per letter and allocates
+ * nothing.
+ * <p>
+ * A table can be counted from text, read from a file of "NGRAM COUNT"
+ * lines, or loaded or memory-mapped from the binary form written by
+ * write(): a 16 byte header of a magic number, the alphabet size, the
+ * order n and 0, then the floats, all little-endian.
+ *
+ * @author Junyi Cao
+ */
+final class NgramScorer {
+
+    /**
+     * Return a scorer of order N for ALPHABET, counted from the N-grams
+     * of LETTERS[OFF .. OFF + LEN - 1], which are alphabet indices.
+     */
+    static NgramScorer train(Alphabet alphabet, int n, int[] letters,
+                             int off, int len) {
+        long[] counts = new long[entries(alphabet.size(), n)];
+        int size = alphabet.size();
+        int high = (int) Math.pow(size, n - 1);
+        int index = 0;
+        for (int i = 0; i < len; i++) {
+            if (i >= n) {
+                index -= letters[off + i - n] * high;
+            }
+            index = index * size + letters[off + i];
+            if (i >= n - 1) {
+                counts[index] += 1;
+            }
+        }
+        return new NgramScorer(size, n, probabilities(counts));
+    }
+
+    /**
+     * Return a scorer for ALPHABET read from the text file COUNTS, whose
+     * lines each hold an n-gram and its count, separated by whitespace.
+     * Letters are folded as by a lenient InputFilter, and n-grams with
+     * other characters are skipped.
+     */
+    static NgramScorer read(Alphabet alphabet, File counts) {
+        InputFilter filter = InputFilter.lenient(alphabet);
+        int size = alphabet.size();
+        long[] table = null;
+        int n = 0;
+        int[] letters = new int[0];
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(counts), "UTF-8"), 1 << 16);
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length != 2) {
+                        continue;
+                    }
+                    if (table == null) {
+                        n = fields[0].length();
+                        table = new long[entries(size, n)];
+                        letters = new int[n * filter.maxExpansion()];
+                    }
+                    if (fields[0].length() != n) {
+                        throw EnigmaException.error("n-gram counts %s "
+                                + "mix n-grams of different lengths.",
+                                counts);
+                    }
+                    int k = filter.filter(fields[0], 0, n, letters, 0);
+                    if (k == n) {
+                        table[index(letters, 0, n, size)] +=
+                                Long.parseLong(fields[1]);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | NumberFormatException excp) {
+            throw EnigmaException.error("cannot read n-gram counts %s: %s",
+                    counts, excp.getMessage());
+        }
+        if (table == null) {
+            throw EnigmaException.error("%s holds no n-gram counts.",
+                    counts);
+        }
+        return new NgramScorer(size, n, probabilities(table));
+    }
+
+    /**
+     * Return a scorer for ALPHABET whose table is copied into memory from
+     * FILE, as written by write().
+     */
+    static NgramScorer load(Alphabet alphabet, File file) {
+        NgramScorer mapped = map(alphabet, file);
+        float[] table = new float[mapped._mapped.capacity()];
+        mapped._mapped.get(table);
+        return new NgramScorer(mapped._size, mapped._order, table);
+    }
+
+    /**
+     * Return a scorer for ALPHABET whose table stays in FILE, as written
+     * by write(), and is mapped into memory.
+     */
+    static NgramScorer map(Alphabet alphabet, File file) {
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer header = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(HEADER, channel.size()))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (header.remaining() < HEADER
+                        || header.getInt() != MAGIC) {
+                    throw EnigmaException.error("%s is not an n-gram "
+                            + "table.", file);
+                }
+                int size = header.getInt();
+                int n = header.getInt();
+                if (size != alphabet.size()) {
+                    throw EnigmaException.error("n-gram table %s is for an "
+                            + "alphabet of %d characters, not %d.", file,
+                            size, alphabet.size());
+                }
+                long length = 4L * entries(size, n);
+                if (channel.size() != HEADER + length) {
+                    throw EnigmaException.error("n-gram table %s is "
+                            + "truncated.", file);
+                }
+                FloatBuffer table = channel.map(
+                        FileChannel.MapMode.READ_ONLY, HEADER, length)
+                        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                return new NgramScorer(size, n, table);
+            } finally {
+                in.close();
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read n-gram table %s: %s",
+                    file, excp.getMessage());
+        }
+    }
+
+    /**
+     * A scorer of order N for an alphabet of SIZE characters, with
+     * TABLE in memory.
+     */
+    private NgramScorer(int size, int n, float[] table) {
+        _size = size;
+        _order = n;
+        _high = (int) Math.pow(size, n - 1);
+        _table = table;
+        _mapped = null;
+    }
+
+    /**
+     * A scorer of order N for an alphabet of SIZE characters, with
+     * TABLE mapped from a file.
+     */
+    private NgramScorer(int size, int n, FloatBuffer table) {
+        _size = size;
+        _order = n;
+        _high = (int) Math.pow(size, n - 1);
+        _table = null;
+        _mapped = table;
+    }
+
+    /**
+     * Return n, the length of my n-grams.
+     */
+    int order() {
+        return _order;
+    }
+
+    /**
+     * Return the log10 probability of the n-gram whose letters are
+     * LETTERS[OFF .. OFF + order() - 1].
+     */
+    float logProbability(int[] letters, int off) {
+        int index = index(letters, off, _order, _size);
+        return _table != null ? _table[index] : _mapped.get(index);
+    }
+
+    /**
+     * Return the score of LETTERS[OFF .. OFF + LEN - 1], alphabet
+     * indices: the sum of the log10 probabilities of its n-grams, or 0
+     * if it is shorter than one n-gram.
+     */
+    float score(int[] letters, int off, int len) {
+        if (len < _order) {
+            return 0;
+        }
+        int size = _size;
+        int n = _order;
+        int high = _high;
+        int index = index(letters, off, n - 1, size);
+        float score = 0;
+        if (_table != null) {
+            float[] table = _table;
+            for (int i = off + n - 1, end = off + len; i < end; i++) {
+                index = index * size + letters[i];
+                score += table[index];
+                index -= letters[i - n + 1] * high;
+            }
+        } else {
+            FloatBuffer table = _mapped;
+            for (int i = off + n - 1, end = off + len; i < end; i++) {
+                index = index * size + letters[i];
+                score += table.get(index);
+                index -= letters[i - n + 1] * high;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Write my table to FILE, in the form read by load() and map().
+     */
+    void write(File file) {
+        int entries = entries(_size, _order);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(_size).putInt(_order).putInt(0);
+        try {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = out.getChannel();
+                channel.truncate(0);
+                for (int i = 0; i < entries; i++) {
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putFloat(_table != null ? _table[i]
+                            : _mapped.get(i));
+                }
+                flush(channel, buffer);
+            } finally {
+                out.close();
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot write n-gram table %s: %s",
+                    file, excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the number of N-grams of an alphabet of SIZE characters.
+     */
+    private static int entries(int size, int n) {
+        if (n < 1 || Math.pow(size, n) > MAX_ENTRIES) {
+            throw EnigmaException.error("cannot score %d-grams of an "
+                    + "alphabet of %d characters.", n, size);
+        }
+        return (int) Math.pow(size, n);
+    }
+
+    /**
+     * Return LETTERS[OFF .. OFF + N - 1] as a number in base SIZE.
+     */
+    private static int index(int[] letters, int off, int n, int size) {
+        int index = 0;
+        for (int i = off; i < off + n; i++) {
+            index = index * size + letters[i];
+        }
+        return index;
+    }
+
+    /**
+     * Return the log10 probabilities of COUNTS, with n-grams never seen
+     * given a hundredth of a count.
+     */
+    private static float[] probabilities(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        float[] table = new float[counts.length];
+        double floor = Math.log10(FLOOR / Math.max(1, total));
+        Arrays.fill(table, (float) floor);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                table[i] = (float) Math.log10(counts[i] / (double) total);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Write the contents of BUFFER to CHANNEL and clear it.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Identifies n-gram table files ("NGRM").
+     */
+    private static final int MAGIC = 0x4E47524D;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * Size of the buffer tables are written through.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Most entries in a table.
+     */
+    private static final int MAX_ENTRIES = 1 << 26;
+
+    /**
+     * The count given to n-grams never seen.
+     */
+    private static final double FLOOR = 0.01;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * n.
+     */
+    private final int _order;
+
+    /**
+     * The weight of the first letter of an n-gram in its index.
+     */
+    private final int _high;
+
+    /**
+     * The table, if in memory.
+     */
+    private final float[] _table;
+
+    /**
+     * The table, if mapped.
+     */
+    private final FloatBuffer _mapped;
+}
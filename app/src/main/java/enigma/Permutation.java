@@ -1,9 +1,5 @@
 package enigma;
 
-import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Represents a permutation of a range of integers starting at 0 corresponding
  * to the characters of an alphabet.
@@ -20,68 +16,33 @@ class Permutation {
      * Whitespace is ignored.
      */
     Permutation(String cycles, Alphabet alphabet) {
-        _alphabet = alphabet;
-        _derangement = true;
-        permutations = new Character[_alphabet.size()][2];
-        permTrace = new boolean[_alphabet.size()];
-        Arrays.fill(permTrace, false);
-        Matcher m = Pattern.compile("\\(.*?\\)").matcher(cycles);
-        while (m.find()) {
-            String cycle = m.group();
-            if (cycle.charAt(0) == '('
-                    && cycle.charAt(cycle.length() - 1) == ')') {
-                addCycle(cycle.substring(1, cycle.length() - 1));
-            } else {
-                throw EnigmaException.error(
-                        "parentheses of a cycle in the permutation "
-                                + "is missing.\ncycle: %s", cycle);
-            }
-        }
-        for (int i = 0; i < permTrace.length; i++) {
-            if (!permTrace[i]) {
-                permutations[i][0] = permutations[i][1] = _alphabet.toChar(i);
-                _derangement = false;
-            }
-        }
+        this(Wiring.of(cycles, alphabet), alphabet);
     }
 
     /**
-     * Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     * c0c1...cm.
+     * A permutation of the indices of ALPHABET given by WIRING, which
+     * must have the same size.
      */
-    private void addCycle(String cycle) {
-        for (int i = 0; i < cycle.length(); i++) {
-            if (cycle.length() == 1) {
-                _derangement = false;
-            }
-            int index = alphabet().toInt(cycle.charAt(i));
-            if (permutations[index][0] != null
-                    && permutations[index][1] != null) {
-                throw EnigmaException.error("config error, duplicate "
-                                + "character `%c` in permutation.",
-                        cycle.charAt(i));
-            }
-            if (i == cycle.length() - 1) {
-                permutations[index][0] = cycle.charAt(0);
-            } else {
-                permutations[index][0] = cycle.charAt(i + 1);
-            }
-            if (i == 0) {
-                permutations[index][1] = cycle.charAt(cycle.length() - 1);
-            } else {
-                permutations[index][1] = cycle.charAt(i - 1);
-            }
-            permTrace[index] = true;
+    Permutation(Wiring wiring, Alphabet alphabet) {
+        if (wiring.size() != alphabet.size()) {
+            throw EnigmaException.error("config error, the wiring does "
+                    + "not fit the alphabet (%s).", alphabet);
         }
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _wiring = wiring;
     }
 
     /**
      * Return the value of P modulo the size of this permutation.
      */
     final int wrap(int p) {
-        int r = p % size();
+        if (p >= 0 && p < _size) {
+            return p;
+        }
+        int r = p % _size;
         if (r < 0) {
-            r += size();
+            r += _size;
         }
         return r;
     }
@@ -90,7 +51,7 @@ class Permutation {
      * Returns the size of the alphabet I permute.
      */
     int size() {
-        return alphabet().size();
+        return _size;
     }
 
     /**
@@ -98,8 +59,7 @@ class Permutation {
      * alphabet size.
      */
     int permute(int p) {
-        p = wrap(p);
-        return alphabet().toInt(permutations[p][0]);
+        return _wiring.forward(wrap(p));
     }
 
     /**
@@ -107,8 +67,7 @@ class Permutation {
      * to  C modulo the alphabet size.
      */
     int invert(int c) {
-        c = wrap(c);
-        return alphabet().toInt(permutations[c][1]);
+        return _wiring.inverse(wrap(c));
     }
 
     /**
@@ -116,16 +75,14 @@ class Permutation {
      * in ALPHABET, and converting the result to a character of ALPHABET.
      */
     char permute(char p) {
-        int index = alphabet().toInt(p);
-        return permutations[index][0];
+        return alphabet().toChar(_wiring.forward(alphabet().toInt(p)));
     }
 
     /**
      * Return the result of applying the inverse of this permutation to C.
      */
     char invert(char c) {
-        int index = alphabet().toInt(c);
-        return permutations[index][1];
+        return alphabet().toChar(_wiring.inverse(alphabet().toInt(c)));
     }
 
     /**
@@ -140,28 +97,28 @@ class Permutation {
      * permutation for which no value maps to itself).
      */
     boolean derangement() {
-        return _derangement;
+        return _wiring.derangement();
     }
 
     /**
-     * Alphabet of this permutation.
+     * Return my wiring, which may be shared with other permutations.
      */
-    private Alphabet _alphabet;
+    Wiring wiring() {
+        return _wiring;
+    }
 
     /**
-     * Record the chars of permutations, the second array [0] stands for
-     * permute, while [1] stands for inverse.
+     * Alphabet of this permutation.
      */
-    private Character[][] permutations;
+    private final Alphabet _alphabet;
 
     /**
-     * Record whether the corresponding character has appeared in any cycle.
+     * Size of my alphabet.
      */
-    private boolean[] permTrace;
+    private final int _size;
 
     /**
-     * True iff this permutation is a derangement (i.e., a permutation
-     * for which no value maps to itself).
+     * My wiring.
      */
-    private boolean _derangement;
+    private final Wiring _wiring;
 }
@@ -0,0 +1,440 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The sequence of permutations a configured machine applies, one per
+ * keystroke, produced lazily.  Each is an involution without fixed
+ * points, so it is stored as its size / 2 swap pairs: going through the
+ * letters in order, the partner of each letter not yet paired.  For 26
+ * letters that is 13 bytes a keystroke.
+ * <p>
+ * A stream opened with cached() keeps the pairs in a file named after
+ * the machine's key, in a 16 byte header of a magic number, the width of
+ * a keystroke's pairs and two 0s, followed by the keystrokes in order.
+ * Keystrokes already in the file are read back; later ones are computed
+ * and appended, so the next stream for the same key can read them.
+ *
+ * @author Junyi Cao
+ */
+final class PermutationStream implements Closeable {
+
+    /**
+     * A stream of the permutations of MACHINE from its current state on.
+     * MACHINE itself is not changed.
+     */
+    PermutationStream(Machine machine) {
+        this(machine, null);
+    }
+
+    /**
+     * Return a stream of the permutations of MACHINE from its current
+     * state on, cached in a file in DIRECTORY.
+     */
+    static PermutationStream cached(Machine machine, File directory) {
+        return new PermutationStream(machine,
+                new File(directory, String.format("%016x.perm",
+                        key(machine))));
+    }
+
+    /**
+     * A stream of the permutations of MACHINE, cached in FILE if it is
+     * not null.
+     */
+    private PermutationStream(Machine machine, File file) {
+        _size = machine.alphabet().size();
+        if (_size % 2 != 0 || _size > MAX_SIZE) {
+            throw EnigmaException.error("a permutation stream needs an "
+                    + "alphabet of an even size up to %d, but found %d.",
+                    MAX_SIZE, _size);
+        }
+        _width = _size / 2;
+        _machine = machine;
+        _start = new int[machine.numPawls()];
+        machine.savePositions(_start, 0);
+        _permutation = new int[_size];
+        _pairs = new byte[_width];
+        if (file == null) {
+            _file = null;
+            _channel = null;
+            _buffer = null;
+            return;
+        }
+        try {
+            _file = new RandomAccessFile(file, "rw");
+            _channel = _file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (_channel.size() < HEADER) {
+                header.putInt(MAGIC).putInt(_width).putInt(0).putInt(0);
+                header.flip();
+                _channel.truncate(0);
+                write(header, 0);
+            } else {
+                while (header.hasRemaining()
+                        && _channel.read(header, header.position()) > 0) {
+                    continue;
+                }
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != _width) {
+                    _file.close();
+                    throw EnigmaException.error("%s is not a permutation "
+                            + "stream of this machine.", file);
+                }
+            }
+            _cached = (_channel.size() - HEADER) / _width;
+            _channel.truncate(HEADER + _cached * _width);
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot open permutation stream "
+                    + "%s: %s", file, excp.getMessage());
+        }
+        _buffer = ByteBuffer.allocate((BUFFER_SIZE / _width) * _width);
+        _buffer.limit(0);
+    }
+
+    /**
+     * Return the size of the alphabet.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the number of bytes of pairs per keystroke.
+     */
+    int width() {
+        return _width;
+    }
+
+    /**
+     * Return the number of keystrokes produced so far.
+     */
+    long position() {
+        return _position;
+    }
+
+    /**
+     * Return the number of keystrokes in the cache file, or 0 if there
+     * is none.
+     */
+    long cached() {
+        return _cached;
+    }
+
+    /**
+     * Store the pairs of the next keystroke's permutation into
+     * PAIRS[OFF .. OFF + width() - 1].
+     */
+    void next(byte[] pairs, int off) {
+        if (_position < _cached) {
+            if (!_buffer.hasRemaining()) {
+                fill();
+            }
+            _buffer.get(pairs, off, _width);
+        } else {
+            compute(pairs, off);
+            if (_channel != null) {
+                append(pairs, off);
+            }
+        }
+        _position += 1;
+    }
+
+    /**
+     * Store the next keystroke's permutation into PERMUTATION.
+     */
+    void next(int[] permutation) {
+        if (_channel != null) {
+            next(_pairs, 0);
+            expand(_pairs, 0, permutation);
+        } else {
+            if (_engine == null) {
+                _engine = engineAt(_position);
+            }
+            _engine.step(permutation);
+            check(permutation);
+            _position += 1;
+        }
+    }
+
+    /**
+     * Store the permutation whose pairs are PAIRS[OFF ..], as stored by
+     * next, into PERMUTATION, whose length is the size of the alphabet.
+     */
+    static void expand(byte[] pairs, int off, int[] permutation) {
+        Arrays.fill(permutation, -1);
+        int p = off;
+        for (int c = 0; c < permutation.length; c++) {
+            if (permutation[c] < 0) {
+                int e = pairs[p++] & 0xFF;
+                permutation[c] = e;
+                permutation[e] = c;
+            }
+        }
+    }
+
+    /**
+     * Write out any computed keystrokes not yet in the cache file, and
+     * close it.
+     */
+    @Override
+    public void close() {
+        if (_channel == null) {
+            return;
+        }
+        try {
+            flush();
+            _file.close();
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot close permutation stream: "
+                    + "%s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Compute the next keystroke's pairs into PAIRS[OFF ..].
+     */
+    private void compute(byte[] pairs, int off) {
+        if (_engine == null) {
+            _engine = engineAt(_position);
+        }
+        int[] permutation = _permutation;
+        _engine.step(permutation);
+        check(permutation);
+        int p = off;
+        for (int c = 0; c < _size; c++) {
+            if (permutation[c] > c) {
+                pairs[p++] = (byte) permutation[c];
+            }
+        }
+    }
+
+    /**
+     * Check that PERMUTATION is an involution without fixed points.
+     */
+    private void check(int[] permutation) {
+        for (int c = 0; c < _size; c++) {
+            int e = permutation[c];
+            if (e == c || permutation[e] != c) {
+                throw EnigmaException.error("a permutation stream needs a "
+                        + "reflector made of pairs only.");
+            }
+        }
+    }
+
+    /**
+     * Return an engine in the state of the machine after OFFSET
+     * keystrokes from the start, leaving the machine as it was.
+     */
+    private TableMachine engineAt(long offset) {
+        if (offset == 0) {
+            return new TableMachine(_machine);
+        }
+        int[] positions = new int[_start.length];
+        _machine.savePositions(positions, 0);
+        _machine.loadPositions(_start, 0);
+        try {
+            SteppingSchedule.of(_machine).seek(_machine, offset);
+            return new TableMachine(_machine);
+        } finally {
+            _machine.loadPositions(positions, 0);
+        }
+    }
+
+    /**
+     * Read the next cached keystrokes into the buffer.
+     */
+    private void fill() {
+        long count = Math.min(_cached - _position,
+                _buffer.capacity() / _width);
+        _buffer.clear();
+        _buffer.limit((int) count * _width);
+        try {
+            long at = HEADER + _position * _width;
+            while (_buffer.hasRemaining()) {
+                int n = _channel.read(_buffer, at + _buffer.position());
+                if (n < 0) {
+                    throw EnigmaException.error("permutation stream "
+                            + "ended early.");
+                }
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read permutation stream: "
+                    + "%s", excp.getMessage());
+        }
+        _buffer.flip();
+    }
+
+    /**
+     * Add PAIRS[OFF ..], the pairs of the keystroke after those in the
+     * cache file and the buffer, to the buffer.
+     */
+    private void append(byte[] pairs, int off) {
+        if (!_writing) {
+            _buffer.clear();
+            _writing = true;
+        }
+        if (_buffer.remaining() < _width) {
+            try {
+                flush();
+            } catch (IOException excp) {
+                throw EnigmaException.error("cannot write permutation "
+                        + "stream: %s", excp.getMessage());
+            }
+        }
+        _buffer.put(pairs, off, _width);
+    }
+
+    /**
+     * Write the keystrokes in the buffer to the end of the cache file.
+     */
+    private void flush() throws IOException {
+        if (!_writing || _buffer.position() == 0) {
+            return;
+        }
+        _buffer.flip();
+        int count = _buffer.remaining() / _width;
+        write(_buffer, HEADER + _cached * _width);
+        _cached += count;
+        _buffer.clear();
+    }
+
+    /**
+     * Write the contents of BUFFER to the cache file at AT.
+     */
+    private void write(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += _channel.write(buffer, at);
+        }
+    }
+
+    /**
+     * Return a hash of everything that determines the permutations of
+     * MACHINE from its current state on.
+     */
+    private static long key(Machine machine) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, CompiledEngine.plugboardTable(machine));
+        hash = hash(hash, CompiledEngine.middleTable(machine));
+        SteppingStrategy.Carries carries =
+                machine.stepping().compile(machine);
+        for (int i = machine.numRotors() - machine.numPawls();
+             i < machine.numRotors(); i++) {
+            Rotor r = machine.rotor(i);
+            hash = hash(hash, CompiledEngine.forwardTable(r));
+            hash = hash(hash, carries.row(i));
+            hash = (hash ^ carries.requires(i)) * FNV_PRIME;
+            hash = (hash ^ r.setting()) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Return HASH extended by VALUES.
+     */
+    private static long hash(long hash, int[] values) {
+        hash = (hash ^ values.length) * FNV_PRIME;
+        for (int v : values) {
+            hash = (hash ^ v) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Largest alphabet whose letters fit in a byte.
+     */
+    static final int MAX_SIZE = 256;
+
+    /**
+     * Identifies permutation stream files ("PERM").
+     */
+    private static final int MAGIC = 0x5045524D;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * Approximate size of the buffer keystrokes are read and written
+     * through.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Parameters of the 64 bit FNV-1a hash.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L,
+            FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The machine, which is only borrowed to build engines.
+     */
+    private final Machine _machine;
+
+    /**
+     * Positions of its moving rotors at the start of the stream.
+     */
+    private final int[] _start;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * Bytes of pairs per keystroke.
+     */
+    private final int _width;
+
+    /**
+     * The permutation of the keystroke being computed.
+     */
+    private final int[] _permutation;
+
+    /**
+     * The pairs of one keystroke.
+     */
+    private final byte[] _pairs;
+
+    /**
+     * The cache file, or null.
+     */
+    private final RandomAccessFile _file;
+
+    /**
+     * Its channel, or null.
+     */
+    private final FileChannel _channel;
+
+    /**
+     * Keystrokes being read from or written to the cache file.
+     */
+    private final ByteBuffer _buffer;
+
+    /**
+     * Whether _buffer holds keystrokes to be written; once it does, every
+     * later keystroke is computed.
+     */
+    private boolean _writing;
+
+    /**
+     * Computes keystrokes not in the cache, once needed.
+     */
+    private TableMachine _engine;
+
+    /**
+     * Number of keystrokes in the cache file.
+     */
+    private long _cached;
+
+    /**
+     * Number of keystrokes produced.
+     */
+    private long _position;
+}
@@ -0,0 +1,827 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A catalog of the characteristics of keys of the default rotor set, in
+ * the manner of Rejewski's card catalog.  Operators enciphered each
+ * message key twice from the day's start positions, so the permutations
+ * A .. F that the machine applies at the first six keystrokes link the
+ * first and fourth, second and fifth, and third and sixth letters of
+ * each indicator.  The products AD, BE and CF are made of pairs of
+ * cycles of equal length, and the lengths of one cycle of each pair,
+ * the characteristic, can be read off a day's indicators.  They depend
+ * on the rotor order and start positions but not on the plugboard.
+ * <p>
+ * A characteristic is numbered by the ranks of its three partitions of
+ * half the alphabet's size.  The catalog file holds a 24 byte header of
+ * a magic number, the number of such partitions, the bits given to a
+ * key, the number of rotor orders and the number of entries; then the id
+ * of the rotor configuration and the rotor orders; then one long per key,
+ * its characteristic above its key number, in ascending order; then the
+ * first entry of every BLOCK as an index.  A lookup searches the index
+ * held in memory and reads only the blocks holding the characteristic.
+ * <p>
+ * Keys are numbered by rotor order, then start positions, leftmost slot
+ * most significant, with every ring at the first letter.  Other rings
+ * give the characteristic of the key with the same rotor settings unless
+ * they move a carry within the six keystrokes.
+ *
+ * @author Junyi Cao
+ */
+final class RejewskiCatalog implements Closeable {
+
+    /**
+     * Either build the catalog ARGS[1] with ARGS[2] threads for the
+     * rotor orders ARGS[3 ..], such as "B Beta I II III" (default: every
+     * order of the default rotor set), when ARGS[0] is "build", or print
+     * the keys in catalog ARGS[1] with the characteristic whose AD, BE
+     * and CF cycle lengths are ARGS[2 .. 4], such as "10 3", when
+     * ARGS[0] is "lookup".
+     */
+    public static void main(String... args) {
+        if (args.length >= 3 && args[0].equals("build")) {
+            List<String> orders = args.length > 3
+                    ? Arrays.asList(args).subList(3, args.length)
+                    : allOrders();
+            long start = System.nanoTime();
+            long entries = build(orders, new File(args[1]),
+                    Integer.parseInt(args[2]));
+            System.out.printf("%d orders, %d keys: %.1f s%n", orders.size(),
+                    entries, (System.nanoTime() - start) / 1e9);
+        } else if (args.length == 5 && args[0].equals("lookup")) {
+            long characteristic = characteristic(args[2], args[3], args[4]);
+            RejewskiCatalog catalog = open(new File(args[1]));
+            try {
+                long start = System.nanoTime();
+                long[] keys = catalog.lookup(characteristic);
+                long time = System.nanoTime() - start;
+                for (long key : keys) {
+                    System.out.println(catalog.describe(key));
+                }
+                System.out.printf("%d keys: %.1f us%n", keys.length,
+                        time / 1e3);
+            } finally {
+                catalog.close();
+            }
+        } else {
+            throw EnigmaException.error("Usage: java enigma.RejewskiCatalog "
+                    + "build FILE THREADS [ORDER...] | lookup FILE AD BE CF");
+        }
+    }
+
+    /**
+     * Return every rotor order of the default rotor set, such as
+     * "B Beta I II III".
+     */
+    static List<String> allOrders() {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        KeySpace space = new KeySpace(machine);
+        long settings = 1;
+        for (int k = 1; k < machine.numRotors(); k++) {
+            settings *= machine.alphabet().size();
+        }
+        long step = settings * settings;
+        List<String> orders = new ArrayList<>();
+        for (long key = 0; key < space.size(); key += step) {
+            String line = space.describe(key, machine.alphabet());
+            orders.add(line.substring(2, line.lastIndexOf(' ',
+                    line.lastIndexOf(' ') - 1)));
+        }
+        return orders;
+    }
+
+    /**
+     * Write the catalog of the keys of the rotor ORDERS to FILE, using
+     * THREADS threads, one rotor order at a time each, and return the
+     * number of keys.  The sorted entries of each order are written to a
+     * temporary file next to FILE, of 8 bytes a key, as they are made,
+     * so that only those of about 2 * THREADS orders are held in memory,
+     * and are then merged from there.
+     */
+    static long build(List<String> orders, File file, int threads) {
+        final Layout layout = new Layout(orders.size());
+        File runs;
+        try {
+            runs = File.createTempFile("catalog", ".runs",
+                    file.getAbsoluteFile().getParentFile());
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot write catalog %s: %s",
+                    file, excp.getMessage());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            RandomAccessFile runFile = new RandomAccessFile(runs, "rw");
+            try {
+                FileChannel channel = runFile.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(
+                        (int) layout._positions * 8);
+                Deque<Future<long[]>> pending = new ArrayDeque<>();
+                int written = 0;
+                for (int i = 0; i < orders.size(); i++) {
+                    final String order = orders.get(i);
+                    final int number = i;
+                    pending.add(pool.submit(new Callable<long[]>() {
+                        @Override
+                        public long[] call() {
+                            return entries(layout, order, number);
+                        }
+                    }));
+                    while (pending.size() > 2 * threads) {
+                        writeRun(channel, buffer, written++,
+                                pending.poll().get());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    writeRun(channel, buffer, written++,
+                            pending.poll().get());
+                }
+                write(layout, orders, channel, file);
+            } finally {
+                runFile.close();
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot write catalog %s: %s",
+                    file, excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw EnigmaException.error("catalog build interrupted.");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw EnigmaException.error("catalog build failed: %s",
+                    excp.getCause());
+        } finally {
+            pool.shutdownNow();
+            runs.delete();
+        }
+        return layout._keys;
+    }
+
+    /**
+     * Open the catalog FILE.
+     */
+    static RejewskiCatalog open(File file) {
+        return new RejewskiCatalog(file);
+    }
+
+    /**
+     * A reader of the catalog FILE.
+     */
+    private RejewskiCatalog(File file) {
+        try {
+            _file = new RandomAccessFile(file, "r");
+            _channel = _file.getChannel();
+            if (_channel.size() < HEADER || _file.readInt() != MAGIC) {
+                _file.close();
+                throw EnigmaException.error("%s is not a catalog.", file);
+            }
+            int partitions = _file.readInt();
+            _keyBits = _file.readInt();
+            _orders = new String[_file.readInt()];
+            _size = _file.readLong();
+            String id = _file.readUTF();
+            _layout = new Layout(_orders.length);
+            if (!id.equals(DefaultRotors.ID)
+                    || partitions != _layout._partitions
+                    || _keyBits != _layout._keyBits) {
+                _file.close();
+                throw EnigmaException.error("catalog %s was built for a "
+                        + "different rotor set.", file);
+            }
+            for (int i = 0; i < _orders.length; i++) {
+                _orders[i] = _file.readUTF();
+            }
+            _entries = _file.getFilePointer();
+            _index = new long[(int) ((_size + BLOCK - 1) / BLOCK)];
+            ByteBuffer index = ByteBuffer.allocate(_index.length * 8);
+            read(index, _entries + _size * 8);
+            index.asLongBuffer().get(_index);
+            _block = ByteBuffer.allocate(BLOCK * 8);
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read catalog %s: %s",
+                    file, excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the number of keys.
+     */
+    long size() {
+        return _size;
+    }
+
+    /**
+     * Return the numbers of the keys with characteristic CHARACTERISTIC,
+     * in ascending order.  Not safe for use by several threads at once.
+     */
+    long[] lookup(long characteristic) {
+        if (characteristic < 0 || characteristic >= _layout._signatures) {
+            return new long[0];
+        }
+        long low = characteristic << _keyBits;
+        long high = (characteristic + 1) << _keyBits;
+        int b = Arrays.binarySearch(_index, low);
+        b = Math.max(0, b >= 0 ? b : -b - 2);
+        long[] keys = new long[16];
+        int n = 0;
+        try {
+            for (; b < _index.length && _index[b] < high; b++) {
+                long first = (long) b * BLOCK;
+                int count = (int) Math.min(BLOCK, _size - first);
+                _block.clear();
+                _block.limit(count * 8);
+                read(_block, _entries + first * 8);
+                for (int i = 0; i < count; i++) {
+                    long entry = _block.getLong(i * 8);
+                    if (entry >= low && entry < high) {
+                        if (n == keys.length) {
+                            keys = Arrays.copyOf(keys, 2 * n);
+                        }
+                        keys[n++] = entry & ((1L << _keyBits) - 1);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read catalog: %s",
+                    excp.getMessage());
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * Return the settings line of key KEY, such as
+     * "* B Beta I II III AXLE".
+     */
+    String describe(long key) {
+        if (key < 0 || key >= _size) {
+            throw EnigmaException.error("no key %d in a catalog of %d.",
+                    key, _size);
+        }
+        Alphabet alphabet = _layout._alphabet;
+        char[] positions = new char[_layout._numRotors - 1];
+        long position = key % _layout._positions;
+        for (int k = positions.length - 1; k >= 0; k--) {
+            positions[k] = alphabet.toChar((int) (position
+                    % alphabet.size()));
+            position /= alphabet.size();
+        }
+        return "* " + _orders[(int) (key / _layout._positions)] + " "
+                + new String(positions);
+    }
+
+    @Override
+    public void close() {
+        try {
+            _file.close();
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot close catalog: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the characteristic of the key MACHINE is set up with, which
+     * must have the default rotor set.  MACHINE is not changed.
+     */
+    static long characteristic(Machine machine) {
+        TableMachine engine = new TableMachine(machine);
+        int size = machine.alphabet().size();
+        int[][] permutations = new int[6][size];
+        for (int[] permutation : permutations) {
+            engine.step(permutation);
+        }
+        return new Cycles(size).characteristic(permutations);
+    }
+
+    /**
+     * Return the characteristic whose products AD, BE and CF have pairs
+     * of cycles of the lengths listed in CYCLES, such as "10 3", one
+     * length per pair.
+     */
+    static long characteristic(String... cycles) {
+        if (cycles.length != 3) {
+            throw EnigmaException.error("a characteristic has 3 products, "
+                    + "not %d.", cycles.length);
+        }
+        Cycles ranks = new Cycles(DefaultRotors.ALPHABET.length());
+        long characteristic = 0;
+        for (String lengths : cycles) {
+            int[] parts = new int[ranks._half + 1];
+            int total = 0;
+            for (String part : lengths.trim().split("[\\s,]+")) {
+                int length = Integer.parseInt(part);
+                if (length < 1 || length > ranks._half) {
+                    throw EnigmaException.error("no cycle of length %d.",
+                            length);
+                }
+                parts[length] += 1;
+                total += length;
+            }
+            if (total != ranks._half) {
+                throw EnigmaException.error("the cycle lengths %s do not "
+                        + "add up to %d.", lengths, ranks._half);
+            }
+            characteristic = characteristic * ranks.partitions()
+                    + ranks.rank(parts);
+        }
+        return characteristic;
+    }
+
+    /**
+     * Return the sorted entries of LAYOUT for the rotor order ORDER,
+     * which is order NUMBER.
+     */
+    private static long[] entries(Layout layout, String order, int number) {
+        Alphabet alphabet = layout._alphabet;
+        int size = alphabet.size();
+        char[] start = new char[layout._numRotors - 1];
+        Arrays.fill(start, alphabet.toChar(0));
+        Machine machine = Simulator.defaultMachine("* " + order + " "
+                + new String(start));
+        int moving = 1;
+        for (int k = machine.numRotors() - machine.numPawls();
+             k < machine.numRotors(); k++) {
+            moving *= size;
+        }
+        Cycles cycles = new Cycles(size);
+        int[][] permutations = new int[6][size];
+        long[] entries = new long[(int) layout._positions];
+        long base = (long) number * layout._positions;
+        TableMachine engine = null;
+        for (int p = 0; p < entries.length; p++) {
+            for (int k = layout._numRotors - 1, rest = p; k >= 1; k--) {
+                machine.rotor(k).set(rest % size);
+                rest /= size;
+            }
+            if (p % moving == 0) {
+                engine = new TableMachine(machine);
+            } else {
+                engine.load(machine);
+            }
+            for (int[] permutation : permutations) {
+                engine.step(permutation);
+            }
+            entries[p] = cycles.characteristic(permutations)
+                    << layout._keyBits | (base + p);
+        }
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    /**
+     * Write the sorted ENTRIES of rotor order NUMBER to CHANNEL, each
+     * order's run at a place of its own, through BUFFER.
+     */
+    private static void writeRun(FileChannel channel, ByteBuffer buffer,
+                                 int number, long[] entries)
+            throws IOException {
+        buffer.clear();
+        buffer.asLongBuffer().put(entries);
+        long at = (long) number * buffer.capacity();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, at + buffer.position());
+        }
+    }
+
+    /**
+     * Write the catalog of LAYOUT for ORDERS, whose sorted entries are
+     * the runs in RUNS, to FILE, merging the runs.
+     */
+    private static void write(Layout layout, List<String> orders,
+                              FileChannel runs, File file)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(layout._partitions);
+            out.writeInt(layout._keyBits);
+            out.writeInt(orders.size());
+            out.writeLong(layout._keys);
+            out.writeUTF(DefaultRotors.ID);
+            for (String order : orders) {
+                out.writeUTF(order);
+            }
+            long[] index = new long[(int) ((layout._keys + BLOCK - 1)
+                    / BLOCK)];
+            Run[] heap = new Run[orders.size()];
+            int n = 0;
+            for (int i = 0; i < heap.length; i++) {
+                heap[n] = new Run(runs, i * layout._positions * 8,
+                        layout._positions);
+                siftUp(heap, n++);
+            }
+            for (long written = 0; n > 0; written++) {
+                Run run = heap[0];
+                long entry = run._head;
+                if (written % BLOCK == 0) {
+                    index[(int) (written / BLOCK)] = entry;
+                }
+                out.writeLong(entry);
+                if (!run.advance()) {
+                    heap[0] = heap[--n];
+                }
+                siftDown(heap, n);
+            }
+            for (long first : index) {
+                out.writeLong(first);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Move HEAP[K] up the heap of the runs not yet all written, ordered
+     * by their heads.
+     */
+    private static void siftUp(Run[] heap, int k) {
+        Run run = heap[k];
+        while (k > 0) {
+            int parent = (k - 1) / 2;
+            if (heap[parent]._head <= run._head) {
+                break;
+            }
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = run;
+    }
+
+    /**
+     * Move HEAP[0] down the heap of its first N elements, as for
+     * siftUp.
+     */
+    private static void siftDown(Run[] heap, int n) {
+        if (n == 0) {
+            return;
+        }
+        Run run = heap[0];
+        int k = 0;
+        while (2 * k + 1 < n) {
+            int child = 2 * k + 1;
+            if (child + 1 < n && heap[child + 1]._head < heap[child]._head) {
+                child += 1;
+            }
+            if (run._head <= heap[child]._head) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = run;
+    }
+
+    /**
+     * Fill BUFFER from my file at byte AT.
+     */
+    private void read(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (_channel.read(buffer, at + buffer.position()) < 0) {
+                throw EnigmaException.error("catalog ended early.");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * A sorted run of entries in a file, read a buffer at a time.
+     */
+    private static final class Run {
+
+        /**
+         * The run of COUNT entries, at least one, at byte AT of
+         * CHANNEL.
+         */
+        Run(FileChannel channel, long at, long count) throws IOException {
+            _channel = channel;
+            _at = at;
+            _left = count;
+            _buffer = ByteBuffer.allocate(RUN_BUFFER * 8);
+            _buffer.flip();
+            advance();
+        }
+
+        /**
+         * Move to the next entry, returning false if there is none.
+         */
+        boolean advance() throws IOException {
+            if (_left == 0) {
+                return false;
+            }
+            if (!_buffer.hasRemaining()) {
+                _buffer.clear();
+                _buffer.limit((int) Math.min(_buffer.capacity(),
+                        _left * 8));
+                while (_buffer.hasRemaining()) {
+                    int n = _channel.read(_buffer, _at);
+                    if (n < 0) {
+                        throw EnigmaException.error("catalog run ended "
+                                + "early.");
+                    }
+                    _at += n;
+                }
+                _buffer.flip();
+            }
+            _head = _buffer.getLong();
+            _left -= 1;
+            return true;
+        }
+
+        /**
+         * The file holding the run.
+         */
+        private final FileChannel _channel;
+
+        /**
+         * Offset of the next bytes to read.
+         */
+        private long _at;
+
+        /**
+         * Entries not yet read from the file.
+         */
+        private long _left;
+
+        /**
+         * Entries read but not yet taken.
+         */
+        private final ByteBuffer _buffer;
+
+        /**
+         * The current entry.
+         */
+        private long _head;
+    }
+
+    /**
+     * The sizes of a catalog of the default rotor set.
+     */
+    private static final class Layout {
+
+        /**
+         * The sizes of a catalog of ORDERS rotor orders.
+         */
+        Layout(int orders) {
+            _alphabet = new Alphabet(DefaultRotors.ALPHABET);
+            _numRotors = DefaultRotors.NUM_ROTORS;
+            _partitions = new Cycles(_alphabet.size()).partitions();
+            _signatures = (long) _partitions * _partitions * _partitions;
+            long positions = 1;
+            for (int k = 1; k < _numRotors; k++) {
+                positions *= _alphabet.size();
+            }
+            _positions = positions;
+            _keys = orders * positions;
+            if (orders <= 0 || positions > Integer.MAX_VALUE) {
+                throw EnigmaException.error("cannot catalog %d rotor "
+                        + "orders of %d keys each.", orders, positions);
+            }
+            _keyBits = Long.SIZE - Long.numberOfLeadingZeros(_keys - 1);
+            if (_keyBits + Long.SIZE
+                    - Long.numberOfLeadingZeros(_signatures - 1)
+                    >= Long.SIZE) {
+                throw EnigmaException.error("the entries of this catalog "
+                        + "do not fit in %d bits.", Long.SIZE - 1);
+            }
+        }
+
+        /**
+         * The default alphabet.
+         */
+        private final Alphabet _alphabet;
+
+        /**
+         * Number of rotor slots.
+         */
+        private final int _numRotors;
+
+        /**
+         * Number of partitions of half the alphabet's size.
+         */
+        private final int _partitions;
+
+        /**
+         * Number of characteristics.
+         */
+        private final long _signatures;
+
+        /**
+         * Number of start positions of a rotor order.
+         */
+        private final long _positions;
+
+        /**
+         * Number of keys.
+         */
+        private final long _keys;
+
+        /**
+         * Bits of an entry holding its key number.
+         */
+        private final int _keyBits;
+    }
+
+    /**
+     * Finds the cycles of products of pairings and ranks their lengths.
+     * Partitions of half the alphabet's size are ranked by their largest
+     * part, then the rest in the same way.
+     */
+    private static final class Cycles {
+
+        /**
+         * A ranker for an alphabet of SIZE letters.
+         */
+        Cycles(int size) {
+            if (size % 2 != 0) {
+                throw EnigmaException.error("a catalog needs an alphabet "
+                        + "of an even size, but found %d.", size);
+            }
+            _half = size / 2;
+            _counts = new long[_half + 1][_half + 1];
+            Arrays.fill(_counts[0], 1);
+            for (int n = 1; n <= _half; n++) {
+                for (int m = 1; m <= _half; m++) {
+                    _counts[n][m] = _counts[n][m - 1]
+                            + (m <= n ? _counts[n - m][m] : 0);
+                }
+            }
+            _lengths = new int[size + 1];
+            _parts = new int[_half + 1];
+            _seen = new boolean[size];
+        }
+
+        /**
+         * Return the number of partitions of half the alphabet's size.
+         */
+        int partitions() {
+            return (int) _counts[_half][_half];
+        }
+
+        /**
+         * Return the characteristic of the six PERMUTATIONS of the
+         * keystrokes A .. F.
+         */
+        long characteristic(int[][] permutations) {
+            long p = partitions();
+            return (type(permutations[0], permutations[3]) * p
+                    + type(permutations[1], permutations[4])) * p
+                    + type(permutations[2], permutations[5]);
+        }
+
+        /**
+         * Return the rank of the cycle lengths of X followed by Y.
+         */
+        int type(int[] x, int[] y) {
+            int[] lengths = _lengths;
+            boolean[] seen = _seen;
+            Arrays.fill(lengths, 0);
+            Arrays.fill(seen, false);
+            for (int c = 0; c < seen.length; c++) {
+                if (!seen[c]) {
+                    int length = 0;
+                    int e = c;
+                    do {
+                        seen[e] = true;
+                        e = y[x[e]];
+                        length += 1;
+                    } while (e != c);
+                    lengths[length] += 1;
+                }
+            }
+            for (int length = 1; length <= _half; length++) {
+                if (lengths[length] % 2 != 0) {
+                    throw EnigmaException.error("the machine's "
+                            + "permutations are not pairings.");
+                }
+                _parts[length] = lengths[length] / 2;
+            }
+            return rank(_parts);
+        }
+
+        /**
+         * Return the rank of the partition of half the alphabet's size
+         * with PARTS[L] parts of length L.
+         */
+        int rank(int[] parts) {
+            long rank = 0;
+            int n = _half;
+            for (int length = _half; length >= 1; length--) {
+                for (int i = 0; i < parts[length]; i++) {
+                    for (int a = 1; a < length; a++) {
+                        rank += _counts[n - a][a];
+                    }
+                    n -= length;
+                }
+            }
+            return (int) rank;
+        }
+
+        /**
+         * Half the alphabet's size.
+         */
+        private final int _half;
+
+        /**
+         * Entry [N][M] is the number of partitions of N into parts of at
+         * most M.
+         */
+        private final long[][] _counts;
+
+        /**
+         * Scratch space: the number of cycles of each length, and of
+         * pairs of cycles of each length.
+         */
+        private final int[] _lengths, _parts;
+
+        /**
+         * Scratch space: the letters already in a cycle.
+         */
+        private final boolean[] _seen;
+    }
+
+    /**
+     * Identifies a catalog file.
+     */
+    private static final int MAGIC = 0x52454A57;
+
+    /**
+     * Bytes in the header.
+     */
+    private static final int HEADER = 24;
+
+    /**
+     * Entries per index entry.
+     */
+    private static final int BLOCK = 512;
+
+    /**
+     * Entries read at a time from each run while merging.
+     */
+    private static final int RUN_BUFFER = 1024;
+
+    /**
+     * The sizes of this catalog.
+     */
+    private final Layout _layout;
+
+    /**
+     * The catalog file.
+     */
+    private final RandomAccessFile _file;
+
+    /**
+     * The channel of _file.
+     */
+    private final FileChannel _channel;
+
+    /**
+     * The rotor orders, by number.
+     */
+    private final String[] _orders;
+
+    /**
+     * Bits of an entry holding its key number.
+     */
+    private final int _keyBits;
+
+    /**
+     * Number of keys.
+     */
+    private final long _size;
+
+    /**
+     * Offset of the first entry in the file.
+     */
+    private final long _entries;
+
+    /**
+     * The first entry of every BLOCK.
+     */
+    private final long[] _index;
+
+    /**
+     * Buffer for a block of entries.
+     */
+    private final ByteBuffer _block;
+}
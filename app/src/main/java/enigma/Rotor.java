@@ -96,9 +96,9 @@ class Rotor {
      * according to my permutation.
      */
     int convertForward(int p) {
-        int increaseP = permutation().wrap(p + setting());
-        int converted = permutation().permute(increaseP);
-        return permutation().wrap(converted - setting());
+        int setting = setting();
+        int converted = _permutation.permute(p + setting);
+        return _permutation.wrap(converted - setting);
     }
 
     /**
@@ -106,9 +106,9 @@ class Rotor {
      * according to the inverse of my permutation.
      */
     int convertBackward(int e) {
-        int increaseE = permutation().wrap(e + setting());
-        int converted = permutation().invert(increaseE);
-        return permutation().wrap(converted - setting());
+        int setting = setting();
+        int converted = _permutation.invert(e + setting);
+        return _permutation.wrap(converted - setting);
     }
 
     /**
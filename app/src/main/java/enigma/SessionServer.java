@@ -0,0 +1,362 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A server for the default rotor set that speaks a line protocol on the
+ * loopback interface.  A client sends a settings line, such as
+ * <pre>
+ *     * B Beta III IV I AXLE (HQ) (EX)
+ * </pre>
+ * and gets back "OK", or "ERR" and the problem.  Every following line is
+ * a message, answered by a line holding its encryption, with whitespace
+ * dropped; the rotors carry on from one message to the next until the
+ * next settings line.  Plugboards must be made of pairs.
+ * <p>
+ * Each connection runs on a virtual thread when the JVM has them, and on
+ * a pooled platform thread otherwise.  One machine, shared under a lock,
+ * is set up from each settings line and compiled; a connection keeps only
+ * its compiled engine, whose rotor tables are shared by all of them, and
+ * its buffers.
+ *
+ * @author Junyi Cao
+ */
+public final class SessionServer implements Closeable {
+
+    /**
+     * Start a server on the loopback interface at PORT, or at any free
+     * port if PORT is 0.
+     */
+    public static SessionServer start(int port) throws IOException {
+        ServerSocket socket = new ServerSocket(port, BACKLOG,
+                InetAddress.getLoopbackAddress());
+        final SessionServer server = new SessionServer(socket);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.accept();
+            }
+        }, "enigma-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    /**
+     * A server accepting connections on SOCKET.
+     */
+    private SessionServer(ServerSocket socket) {
+        _socket = socket;
+        _machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        _alphabet = _machine.alphabet();
+        _format = new KeyRecord(_machine);
+        _record = ByteBuffer.allocate(_format.width());
+        _executor = newExecutor();
+    }
+
+    /**
+     * Return the port I listen on.
+     */
+    public int port() {
+        return _socket.getLocalPort();
+    }
+
+    /**
+     * Return true iff connections run on virtual threads.
+     */
+    public boolean virtual() {
+        return _virtual;
+    }
+
+    /**
+     * Stop accepting connections and stop serving open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        _socket.close();
+        _executor.shutdownNow();
+    }
+
+    /**
+     * Serve on the port given by ARGS[0] (default 7337) until killed.
+     */
+    public static void main(String... args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+        SessionServer server = start(port);
+        System.out.printf("serving on 127.0.0.1:%d (%s threads)%n",
+                server.port(), server.virtual() ? "virtual" : "platform");
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Accept connections until the socket is closed.  After a failed
+     * accept, wait a little before the next; after MAX_ACCEPT_FAILURES
+     * in a row, stop listening.
+     */
+    private void accept() {
+        int failures = 0;
+        while (!_socket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = _socket.accept();
+                failures = 0;
+                connection.setTcpNoDelay(true);
+            } catch (IOException excp) {
+                failures += 1;
+                if (!_socket.isClosed() && !backOff(failures)) {
+                    try {
+                        _socket.close();
+                    } catch (IOException closing) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            try {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(connection);
+                    }
+                });
+            } catch (RuntimeException excp) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    /**
+     * Answer the lines sent on CONNECTION until it is closed.
+     */
+    private void serve(Socket connection) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    connection.getInputStream(), "UTF-8"), BUFFER_SIZE);
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    connection.getOutputStream(), "UTF-8"), BUFFER_SIZE);
+            Engine engine = null;
+            int[] letters = new int[BUFFER_SIZE];
+            char[] text = new char[BUFFER_SIZE];
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("*")) {
+                    try {
+                        engine = compile(line);
+                        out.write("OK\n");
+                    } catch (EnigmaException excp) {
+                        engine = null;
+                        reject(out, excp.getMessage());
+                    }
+                } else if (engine == null) {
+                    reject(out, "no settings line has been sent.");
+                } else {
+                    if (line.length() > letters.length) {
+                        letters = new int[line.length()];
+                        text = new char[line.length()];
+                    }
+                    int n = letters(line, letters);
+                    if (n < 0) {
+                        reject(out, String.format("`%c` is NOT in the "
+                                + "alphabet!", line.charAt(-n - 1)));
+                    } else {
+                        engine.convert(letters, 0, n);
+                        for (int i = 0; i < n; i++) {
+                            text[i] = _alphabet.toChar(letters[i]);
+                        }
+                        out.write(text, 0, n);
+                        out.write('\n');
+                    }
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Return an engine set up by the settings line SETTINGS.
+     */
+    private Engine compile(String settings) {
+        synchronized (_machine) {
+            _record.clear();
+            _format.encode(settings, _record);
+            _format.apply(_record, 0);
+            return CompiledEngine.compile(_machine);
+        }
+    }
+
+    /**
+     * Store the alphabet indices of the letters of LINE, without
+     * whitespace, into LETTERS, and return how many there are.  If a
+     * character at index K is neither, return -K - 1 instead.
+     */
+    private int letters(String line, int[] letters) {
+        int n = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (_alphabet.contains(c)) {
+                letters[n++] = _alphabet.toInt(c);
+            } else if (!Character.isWhitespace(c)) {
+                return -i - 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Send the error MESSAGE, on one line, to OUT.
+     */
+    private static void reject(Writer out, String message)
+            throws IOException {
+        out.write("ERR ");
+        out.write(message.replace('\n', ' '));
+        out.write('\n');
+    }
+
+    /**
+     * Wait after the FAILURES-th failed accept in a row, twice as long
+     * as after the one before it, up to MAX_ACCEPT_DELAY, and return
+     * false if it is time to stop accepting instead.
+     */
+    private static boolean backOff(int failures) {
+        if (failures >= MAX_ACCEPT_FAILURES) {
+            return false;
+        }
+        try {
+            Thread.sleep(Math.min(MAX_ACCEPT_DELAY,
+                    ACCEPT_DELAY << Math.min(failures - 1, 16)));
+            return true;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Close CONNECTION, ignoring failures.
+     */
+    private static void closeQuietly(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Return an executor that runs each task on a new virtual thread if
+     * the JVM has them (JDK 21 on), and on a cached pool of daemon
+     * threads otherwise.
+     */
+    private ExecutorService newExecutor() {
+        try {
+            Object executor = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            _virtual = true;
+            return (ExecutorService) executor;
+        } catch (NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException excp) {
+            _virtual = false;
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(null, task, "enigma-session",
+                            STACK_SIZE);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Default port.
+     */
+    static final int PORT = 7337;
+
+    /**
+     * Connections waiting to be accepted.
+     */
+    private static final int BACKLOG = 4096;
+
+    /**
+     * Milliseconds to wait after a failed accept.
+     */
+    private static final long ACCEPT_DELAY = 10;
+
+    /**
+     * Longest wait after failed accepts, in milliseconds.
+     */
+    private static final long MAX_ACCEPT_DELAY = 1000;
+
+    /**
+     * Failed accepts in a row after which accepting stops.
+     */
+    private static final int MAX_ACCEPT_FAILURES = 50;
+
+    /**
+     * Size of a connection's buffers.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Stack size of platform session threads, which need little.
+     */
+    private static final long STACK_SIZE = 256 * 1024;
+
+    /**
+     * The listening socket.
+     */
+    private final ServerSocket _socket;
+
+    /**
+     * Set up and compiled for each settings line, under its own lock.
+     */
+    private final Machine _machine;
+
+    /**
+     * Applies settings lines to _machine.
+     */
+    private final KeyRecord _format;
+
+    /**
+     * Holds the settings line being applied.
+     */
+    private final ByteBuffer _record;
+
+    /**
+     * The alphabet.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Runs connections.
+     */
+    private final ExecutorService _executor;
+
+    /**
+     * Whether connections run on virtual threads.
+     */
+    private boolean _virtual;
+}
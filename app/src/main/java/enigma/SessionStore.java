@@ -0,0 +1,402 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A LiveSession saved in an append-only log file, so that typing can be
+ * resumed at the exact keystroke after a restart.
+ * <p>
+ * Every edit appends one record holding the new tail of the text, the
+ * new tail of the ciphertext and the rotor positions after it.  Every
+ * SNAPSHOT_INTERVAL edits the log is compacted into a single snapshot
+ * record, written to a temporary file and renamed over the log.  Each
+ * record carries a CRC32; when the log is opened, it is read through a
+ * memory map and cut off at the first torn or corrupt record, so a crash
+ * loses at most the edit that was being written.  Resuming replays the
+ * records without encrypting anything.
+ *
+ * @author Junyi Cao
+ */
+public final class SessionStore implements Closeable {
+
+    /**
+     * Open the log FILE, creating it if necessary, and recover the
+     * session saved in it.  If SYNC, every record is forced to the
+     * device before update() returns.
+     */
+    public static SessionStore open(File file, boolean sync) {
+        SessionStore store = new SessionStore(file, sync);
+        store.recover();
+        return store;
+    }
+
+    /**
+     * A store for FILE that forces records to disk iff SYNC.
+     */
+    private SessionStore(File file, boolean sync) {
+        _file = file;
+        _sync = sync;
+        _text = new StringBuilder();
+    }
+
+    /**
+     * Return the saved session, or null if the log holds none.
+     */
+    public LiveSession session() {
+        return _session;
+    }
+
+    /**
+     * Return the text of the saved session.
+     */
+    public CharSequence text() {
+        return _text;
+    }
+
+    /**
+     * Start a new session set up by the settings line SETTINGS,
+     * replacing any saved one, and return it.
+     */
+    public LiveSession start(String settings) {
+        _session = new LiveSession(settings);
+        _settings = settings;
+        _text.setLength(0);
+        compact();
+        return _session;
+    }
+
+    /**
+     * Apply the edit described as for LiveSession.update to the session
+     * and append it to the log.
+     */
+    public void update(CharSequence text, int start, int before,
+                       int count) {
+        if (_session == null) {
+            throw EnigmaException.error("session error, no session has "
+                    + "been started.");
+        }
+        if (start > _text.length() || start + before > _text.length()) {
+            start = 0;
+        }
+        _session.update(text, start, before, count);
+        _text.setLength(start);
+        _text.append(text, start, text.length());
+        int k = _session.keystrokes(start);
+        CharSequence cipher = _session.ciphertext();
+        ByteBuffer record = record(EDIT, 20 + 2 * (text.length() - start)
+                + 2 * (cipher.length() - k) + 4 * _session.numPawls());
+        record.putInt(start);
+        record.putInt(k);
+        putChars(record, text, start, text.length());
+        putChars(record, cipher, k, cipher.length());
+        putPositions(record);
+        append(record);
+        _edits += 1;
+        if (_edits >= SNAPSHOT_INTERVAL) {
+            compact();
+        }
+    }
+
+    /**
+     * Replace the log by a single snapshot of the current session.
+     */
+    public void compact() {
+        File temp = new File(_file.getPath() + ".tmp");
+        try {
+            close();
+            if (_session != null) {
+                CharSequence cipher = _session.ciphertext();
+                ByteBuffer record = record(SNAPSHOT,
+                        16 + 2 * _settings.length() + 2 * _text.length()
+                                + 2 * cipher.length()
+                                + 4 * _session.numPawls());
+                putChars(record, _settings, 0, _settings.length());
+                putChars(record, _text, 0, _text.length());
+                putChars(record, cipher, 0, cipher.length());
+                putPositions(record);
+                RandomAccessFile out = new RandomAccessFile(temp, "rw");
+                try {
+                    out.setLength(0);
+                    write(out.getChannel(), seal(record));
+                    out.getChannel().force(true);
+                } finally {
+                    out.close();
+                }
+            } else {
+                new RandomAccessFile(temp, "rw").close();
+            }
+            if (!temp.renameTo(_file)) {
+                throw EnigmaException.error("session error, cannot "
+                        + "replace %s.", _file);
+            }
+            _edits = 0;
+            openChannel();
+        } catch (IOException excp) {
+            throw EnigmaException.error("session error, cannot compact "
+                    + "%s: %s", _file, excp.getMessage());
+        }
+    }
+
+    /**
+     * Force all records to the device and close the log.
+     */
+    @Override
+    public void close() {
+        if (_channel == null) {
+            return;
+        }
+        try {
+            _channel.force(true);
+            _channel.close();
+        } catch (IOException excp) {
+            throw EnigmaException.error("session error, cannot close "
+                    + "%s: %s", _file, excp.getMessage());
+        } finally {
+            _channel = null;
+        }
+    }
+
+    /**
+     * Read the log through a memory map, replay its records, and cut it
+     * off after the last valid one.
+     */
+    private void recover() {
+        try {
+            openChannel();
+            long size = _channel.size();
+            long good = 0;
+            String settings = null;
+            StringBuilder cipher = new StringBuilder();
+            int[] positions = null;
+            if (size > 0) {
+                MappedByteBuffer log = _channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, size);
+                CRC32 crc = new CRC32();
+                while (log.remaining() >= 9) {
+                    int length = log.getInt();
+                    if (length < 1 || length + 4 > log.remaining()) {
+                        break;
+                    }
+                    byte[] body = new byte[length];
+                    log.get(body);
+                    crc.reset();
+                    crc.update(body, 0, length);
+                    if ((int) crc.getValue() != log.getInt()) {
+                        break;
+                    }
+                    ByteBuffer record = ByteBuffer.wrap(body);
+                    byte type = record.get();
+                    if (type == SNAPSHOT) {
+                        settings = getChars(record).toString();
+                        _text.setLength(0);
+                        _text.append(getChars(record));
+                        cipher.setLength(0);
+                        cipher.append(getChars(record));
+                        positions = getPositions(record);
+                    } else if (type == EDIT && settings != null) {
+                        int from = record.getInt();
+                        int k = record.getInt();
+                        if (from > _text.length() || k > cipher.length()) {
+                            break;
+                        }
+                        _text.setLength(from);
+                        _text.append(getChars(record));
+                        cipher.setLength(k);
+                        cipher.append(getChars(record));
+                        positions = getPositions(record);
+                    } else {
+                        break;
+                    }
+                    good = log.position();
+                }
+            }
+            if (good < size) {
+                _channel.truncate(good);
+                _channel.force(true);
+            }
+            _channel.position(good);
+            if (settings != null) {
+                _settings = settings;
+                _session = new LiveSession(settings, _text, cipher,
+                        positions);
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("session error, cannot read %s: "
+                    + "%s", _file, excp.getMessage());
+        } catch (RuntimeException excp) {
+            if (excp instanceof EnigmaException) {
+                throw excp;
+            }
+            throw EnigmaException.error("session error, %s is damaged.",
+                    _file);
+        }
+    }
+
+    /**
+     * Open the log for appending.
+     */
+    private void openChannel() throws IOException {
+        _channel = new RandomAccessFile(_file, "rw").getChannel();
+        _channel.position(_channel.size());
+    }
+
+    /**
+     * Append the finished record RECORD to the log.
+     */
+    private void append(ByteBuffer record) {
+        if (_channel == null) {
+            throw EnigmaException.error("session error, %s is closed.",
+                    _file);
+        }
+        try {
+            write(_channel, seal(record));
+            if (_sync) {
+                _channel.force(false);
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("session error, cannot write %s: "
+                    + "%s", _file, excp.getMessage());
+        }
+    }
+
+    /**
+     * Write all of BUFFER to CHANNEL.
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Return a buffer for a record of TYPE whose payload is at most
+     * PAYLOAD bytes, positioned after the type.
+     */
+    private static ByteBuffer record(byte type, int payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(payload + 9);
+        buffer.position(4);
+        buffer.put(type);
+        return buffer;
+    }
+
+    /**
+     * Fill in the length and checksum of RECORD and return it ready to
+     * be written.
+     */
+    private static ByteBuffer seal(ByteBuffer record) {
+        int end = record.position();
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, end - 4);
+        record.putInt(0, end - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Put the length and characters of CHARS[FROM .. TO - 1] into
+     * BUFFER.
+     */
+    private static void putChars(ByteBuffer buffer, CharSequence chars,
+                                 int from, int to) {
+        buffer.putInt(to - from);
+        for (int i = from; i < to; i++) {
+            buffer.putChar(chars.charAt(i));
+        }
+    }
+
+    /**
+     * Return the characters put by putChars at the position of BUFFER.
+     */
+    private static CharSequence getChars(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || 2 * length > buffer.remaining()) {
+            throw EnigmaException.error("session error, bad record.");
+        }
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + 2 * length);
+        return new String(chars);
+    }
+
+    /**
+     * Put the number of moving rotors and their positions into BUFFER.
+     */
+    private void putPositions(ByteBuffer buffer) {
+        int[] positions = new int[_session.numPawls()];
+        _session.positions(positions);
+        buffer.putInt(positions.length);
+        for (int p : positions) {
+            buffer.putInt(p);
+        }
+    }
+
+    /**
+     * Return the positions put by putPositions at the position of BUFFER.
+     */
+    private static int[] getPositions(ByteBuffer buffer) {
+        int[] positions = new int[buffer.getInt()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = buffer.getInt();
+        }
+        return positions;
+    }
+
+    /**
+     * Number of edits after which the log is compacted.
+     */
+    static final int SNAPSHOT_INTERVAL = 1024;
+
+    /**
+     * Record type of a full snapshot of the session.
+     */
+    private static final byte SNAPSHOT = 1;
+
+    /**
+     * Record type of an edit.
+     */
+    private static final byte EDIT = 2;
+
+    /**
+     * The log file.
+     */
+    private final File _file;
+
+    /**
+     * True iff every record is forced to the device.
+     */
+    private final boolean _sync;
+
+    /**
+     * The log, open for appending, or null once closed.
+     */
+    private FileChannel _channel;
+
+    /**
+     * The saved session, or null.
+     */
+    private LiveSession _session;
+
+    /**
+     * Settings line of the saved session.
+     */
+    private String _settings;
+
+    /**
+     * Text of the saved session.
+     */
+    private final StringBuilder _text;
+
+    /**
+     * Number of edits appended since the last snapshot.
+     */
+    private int _edits;
+}
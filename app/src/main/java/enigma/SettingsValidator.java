@@ -0,0 +1,462 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks settings lines ("* B Beta III IV I AXLE (HQ) (EX)") against the
+ * rotors available to a machine without building any rotors, machines
+ * or permutations.  A line passes iff Simulator would accept it, except
+ * that a reflector that is not a derangement is also rejected.
+ * <p>
+ * Duplicate rotors and plugboard letters are found with bitsets, and a
+ * valid line is checked without allocating.  validate(File, int) checks
+ * a whole key sheet in parallel.
+ *
+ * @author Junyi Cao
+ */
+class SettingsValidator {
+
+    /**
+     * A validator for the rotors available to MACHINE.
+     */
+    SettingsValidator(Machine machine) {
+        _alphabet = machine.alphabet();
+        _numRotors = machine.numRotors();
+        _first = machine.numRotors() - machine.numPawls();
+        List<Rotor> rotors = machine.availableRotors();
+        _names = new String[rotors.size()];
+        _kinds = new byte[rotors.size()];
+        for (int i = 0; i < _names.length; i++) {
+            Rotor r = rotors.get(i);
+            _names[i] = r.name();
+            if (r instanceof Reflector) {
+                _kinds[i] = r.permutation().derangement()
+                        ? REFLECTOR : BAD_REFLECTOR;
+            } else {
+                _kinds[i] = r instanceof MovingRotor ? MOVING : FIXED;
+            }
+        }
+        _slotKinds = new byte[_numRotors];
+        _usedRotors = new long[(_names.length + 63) / 64];
+        _usedLetters = new long[(_alphabet.size() + 63) / 64];
+    }
+
+    /**
+     * Return null if LINE is a valid settings line, and otherwise a
+     * message describing the first problem found.  Not thread-safe; use
+     * one validator per thread.
+     */
+    String check(CharSequence line) {
+        int n = line.length();
+        int p = skipSpace(line, 0);
+        if (p != 0 || n == 0 || line.charAt(0) != '*'
+                || (n > 1 && !isSpace(line.charAt(1)))) {
+            return "input error, the setting format of rotors is "
+                    + "incorrect.";
+        }
+        p = skipSpace(line, 1);
+        clear(_usedRotors);
+        for (int slot = 0; slot < _numRotors; slot++) {
+            int end = tokenEnd(line, p);
+            if (end == p) {
+                return "input error, setting of rotors is wrong.";
+            }
+            int id = rotorId(line, p, end);
+            if (id == -1) {
+                return String.format("setting error, %s not found in the "
+                        + "available rotors by configuration.",
+                        line.subSequence(p, end));
+            }
+            String problem = checkSlot(slot, id);
+            if (problem != null) {
+                return problem;
+            }
+            if (test(_usedRotors, id)) {
+                return String.format("setting error, duplicate rotor "
+                        + "loaded in the rotor Slots: %s", _names[id]);
+            }
+            set(_usedRotors, id);
+            _slotKinds[slot] = _kinds[id];
+            p = skipSpace(line, end);
+        }
+        int end = tokenEnd(line, p);
+        if (end == p) {
+            return "input error, setting of rotors is wrong.";
+        }
+        String problem = checkLetters(line, p, end, "setting chars", true);
+        if (problem != null) {
+            return problem;
+        }
+        p = skipSpace(line, end);
+        end = tokenEnd(line, p);
+        if (end > p && !(end - p >= 2 && line.charAt(p) == '('
+                && line.charAt(end - 1) == ')')) {
+            problem = checkLetters(line, p, end, "alphabet rings",
+                    false);
+            if (problem != null) {
+                return problem;
+            }
+            p = skipSpace(line, end);
+        }
+        return checkPlugboard(line, p);
+    }
+
+    /**
+     * Return true iff LINE is a valid settings line.
+     */
+    boolean isValid(CharSequence line) {
+        return check(line) == null;
+    }
+
+    /**
+     * Check every line of FILE that is not blank, using THREADS threads,
+     * and return the problem found on each bad line, keyed by line
+     * number (numbering from 1).  MACHINE supplies the rotors.
+     */
+    static SortedMap<Long, String> validate(final Machine machine,
+                                            File file, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        SortedMap<Long, String> problems = new TreeMap<>();
+        Deque<Future<Map<Long, String>>> pending = new ArrayDeque<>();
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"), 1 << 16);
+            try {
+                long number = 1;
+                while (true) {
+                    final List<String> batch = new ArrayList<>(BATCH);
+                    String line;
+                    while (batch.size() < BATCH
+                            && (line = in.readLine()) != null) {
+                        batch.add(line);
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    final long firstNumber = number;
+                    number += batch.size();
+                    pending.add(pool.submit(
+                            new Callable<Map<Long, String>>() {
+                                @Override
+                                public Map<Long, String> call() {
+                                    return check(machine, batch,
+                                            firstNumber);
+                                }
+                            }));
+                    while (pending.size() > 2 * threads) {
+                        problems.putAll(pending.poll().get());
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            while (!pending.isEmpty()) {
+                problems.putAll(pending.poll().get());
+            }
+        } catch (IOException excp) {
+            throw EnigmaException.error("cannot read %s: %s", file,
+                    excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw EnigmaException.error("validation interrupted.");
+        } catch (ExecutionException excp) {
+            throw EnigmaException.error("validation failed: %s",
+                    excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return problems;
+    }
+
+    /**
+     * Check the non-blank LINES, the first of which has number FIRST,
+     * against the rotors of MACHINE.
+     */
+    private static Map<Long, String> check(Machine machine,
+                                           List<String> lines,
+                                           long first) {
+        SettingsValidator validator = LOCAL.get();
+        if (validator == null || validator._names.length
+                != machine.availableRotors().size()) {
+            validator = new SettingsValidator(machine);
+            LOCAL.set(validator);
+        }
+        Map<Long, String> problems = new TreeMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (skipSpace(line, 0) == line.length()) {
+                continue;
+            }
+            String problem = validator.check(line);
+            if (problem != null) {
+                problems.put(first + i, problem);
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Validate the key sheet named by ARGS[0] against the default rotor
+     * set using ARGS[1] threads (default: one per processor), printing
+     * each bad line.
+     */
+    public static void main(String... args) {
+        if (args.length < 1) {
+            throw EnigmaException.error("Usage: java enigma.SettingsValidator"
+                    + " FILE [THREADS]");
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        Machine machine = Simulator.defaultMachine(
+                "* B Beta I II III AAAA");
+        long start = System.nanoTime();
+        SortedMap<Long, String> problems =
+                validate(machine, new File(args[0]), threads);
+        long elapsed = System.nanoTime() - start;
+        for (Map.Entry<Long, String> e : problems.entrySet()) {
+            System.out.printf("%d: %s%n", e.getKey(), e.getValue());
+        }
+        System.out.printf("%d bad lines, %.1f ms%n", problems.size(),
+                elapsed / 1e6);
+    }
+
+    /**
+     * Return a problem if the rotor numbered ID may not go in SLOT.
+     */
+    private String checkSlot(int slot, int id) {
+        byte kind = _kinds[id];
+        if (slot == 0) {
+            if (kind == BAD_REFLECTOR) {
+                return String.format("config error, reflector %s is not "
+                        + "a derangement.", _names[id]);
+            } else if (kind != REFLECTOR) {
+                return String.format("config error, the first rotor isn't "
+                        + "a reflector.\nfirst rotor: Rotor %s", _names[id]);
+            }
+        } else if (slot < _first && kind == MOVING) {
+            return String.format("setting error, The %dth position "
+                    + "(0 indexed) of the rotor Slots should NOT contain a "
+                    + "MovingRotor, but does.", slot);
+        } else if (slot >= _first && kind != MOVING) {
+            return String.format("setting error, The %dth position "
+                    + "(0 indexed) of the rotor Slots should contain a "
+                    + "MovingRotor, but not.", slot);
+        }
+        return null;
+    }
+
+    /**
+     * Return a problem if LINE[START .. END - 1] is not one letter of the
+     * alphabet per rotor after the reflector.  WHAT names the token.  As
+     * in Machine.setRotors, letters for reflectors are not checked if
+     * POSITIONS.
+     */
+    private String checkLetters(CharSequence line, int start, int end,
+                                String what, boolean positions) {
+        if (end - start != _numRotors - 1) {
+            return String.format("config error, the number of %s: %d "
+                    + "is not 1 less than numRotors: %d.", what,
+                    end - start, _numRotors);
+        }
+        for (int i = start; i < end; i++) {
+            byte kind = _slotKinds[i - start + 1];
+            if (positions && (kind == REFLECTOR || kind == BAD_REFLECTOR)) {
+                continue;
+            }
+            if (!_alphabet.contains(line.charAt(i))) {
+                return String.format("`%c` is NOT in the alphabet!",
+                        line.charAt(i));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return a problem if the plugboard cycles in LINE from START on are
+     * bad.  As in Permutation, whitespace is ignored, as is anything
+     * outside parentheses.
+     */
+    private String checkPlugboard(CharSequence line, int start) {
+        clear(_usedLetters);
+        boolean inCycle = false;
+        for (int i = start; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (isSpace(c)) {
+                continue;
+            } else if (!inCycle) {
+                inCycle = c == '(' && hasClose(line, i + 1);
+            } else if (c == ')') {
+                inCycle = false;
+            } else if (!_alphabet.contains(c)) {
+                return String.format("`%c` is NOT in the alphabet!", c);
+            } else {
+                int index = _alphabet.toInt(c);
+                if (test(_usedLetters, index)) {
+                    return String.format("config error, duplicate "
+                            + "character `%c` in permutation.", c);
+                }
+                set(_usedLetters, index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true iff LINE has a ')' at or after index FROM.
+     */
+    private static boolean hasClose(CharSequence line, int from) {
+        for (int i = from; i < line.length(); i++) {
+            if (line.charAt(i) == ')') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of the available rotor named LINE[START .. END -
+     * 1], or -1 if there is none.
+     */
+    private int rotorId(CharSequence line, int start, int end) {
+        for (int id = 0; id < _names.length; id++) {
+            String name = _names[id];
+            if (name.length() != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length() && name.charAt(i)
+                    == line.charAt(start + i)) {
+                i += 1;
+            }
+            if (i == name.length()) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index just past the token starting at START in LINE.
+     */
+    private static int tokenEnd(CharSequence line, int start) {
+        while (start < line.length() && !isSpace(line.charAt(start))) {
+            start += 1;
+        }
+        return start;
+    }
+
+    /**
+     * Return the first index at or after START in LINE that is not
+     * whitespace.
+     */
+    private static int skipSpace(CharSequence line, int start) {
+        while (start < line.length() && isSpace(line.charAt(start))) {
+            start += 1;
+        }
+        return start;
+    }
+
+    /**
+     * Return true iff C is whitespace as matched by \s.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r'
+                || c == '\f' || c == '\u000B';
+    }
+
+    /**
+     * Clear all bits of BITS.
+     */
+    private static void clear(long[] bits) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 0;
+        }
+    }
+
+    /**
+     * Return true iff bit K of BITS is set.
+     */
+    private static boolean test(long[] bits, int k) {
+        return (bits[k >>> 6] & (1L << k)) != 0;
+    }
+
+    /**
+     * Set bit K of BITS.
+     */
+    private static void set(long[] bits, int k) {
+        bits[k >>> 6] |= 1L << k;
+    }
+
+    /**
+     * Number of lines checked per task.
+     */
+    private static final int BATCH = 8192;
+
+    /**
+     * Kinds of available rotors.
+     */
+    private static final byte FIXED = 0, MOVING = 1, REFLECTOR = 2,
+            BAD_REFLECTOR = 3;
+
+    /**
+     * One validator per worker thread.
+     */
+    private static final ThreadLocal<SettingsValidator> LOCAL =
+            new ThreadLocal<>();
+
+    /**
+     * The alphabet.
+     */
+    private final Alphabet _alphabet;
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * Slot of the leftmost moving rotor.
+     */
+    private final int _first;
+
+    /**
+     * Names of the available rotors.
+     */
+    private final String[] _names;
+
+    /**
+     * Kind of each available rotor.
+     */
+    private final byte[] _kinds;
+
+    /**
+     * Kind of the rotor named for each slot of the line being checked.
+     */
+    private final byte[] _slotKinds;
+
+    /**
+     * Rotors used so far in the line being checked.
+     */
+    private final long[] _usedRotors;
+
+    /**
+     * Plugboard letters used so far in the line being checked.
+     */
+    private final long[] _usedLetters;
+}
@@ -1,10 +1,8 @@
 package enigma;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
 import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static enigma.EnigmaException.*;
 
@@ -19,147 +17,170 @@ public final class Simulator {
      * Check ARGS and open the necessary files (see comment on main).
      */
     public Simulator(String input) {
+        _input = new Scanner(input);
 
-        String config = "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n" +
-                " 5 3\n" +
-                " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n" +
-                " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n" +
-                " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n" +
-                " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n" +
-                " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n" +
-                " VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK) \n" +
-                " VII MZM   (ANOUPFRIMBZTLWKSVEGCJYDHXQ) \n" +
-                " VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n" +
-                " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n" +
-                " Gamma N   (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n" +
-                " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n" +
-                "           (RX) (SZ) (TV)\n" +
-                " C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n" +
-                "           (QZ) (SX) (UY)\n";
-
-        _config = new Scanner(config);
+        _inputLength = input.length();
 
-        _input = new Scanner(input);
+        _output = new StringBuilder();
 
-        _output = new StringBuffer();
+        _formatter = GroupFormatter.FIVES;
     }
 
     /**
-     * Configure an Enigma machine from the contents of configuration
-     * file _config and apply it to the messages in _input, sending the
-     * results to _output.
+     * Configure an Enigma machine with the default rotor set and apply
+     * it to the messages in _input, sending the results to _output.
      */
     public void process() {
         Machine machine = readConfig();
-        while (_input.hasNextLine()) {
-            boolean setOK = setUp(machine, _input.nextLine());
-            while (setOK && _input.hasNext("[^*].*")) {
-                printMessageLine(
-                        machine.convert(
-                                _input.nextLine().replaceAll(
-                                        "\\s+", "")));
+        _engine = new TieredEngine(machine);
+        _filter = _lenient ? InputFilter.lenient(_alphabet)
+                : InputFilter.strict(_alphabet);
+        long done = 0;
+        while (_input.hasNextLine() && !_cancelled) {
+            String settings = _input.nextLine();
+            done += settings.length() + 1;
+            boolean setOK = setUp(machine, settings);
+            while (setOK && _input.hasNext("[^*].*") && !_cancelled) {
+                String line = _input.nextLine();
+                int n = letters(line);
+                for (int i = 0; i < n && !_cancelled; i += PROGRESS_CHUNK) {
+                    int end = Math.min(n, i + PROGRESS_CHUNK);
+                    _engine.convert(_letters, i, end - i);
+                    reportProgress(done + (long) end * line.length() / n);
+                }
+                _engine.sync();
+                done += line.length() + 1;
+                if (!_cancelled) {
+                    for (int i = 0; i < n; i++) {
+                        _text[i] = _alphabet.toChar(_letters[i]);
+                    }
+                    printMessageLine(CharBuffer.wrap(_text, 0, n));
+                }
             }
+            reportProgress(done);
         }
     }
 
     /**
-     * Return an Enigma machine configured from the contents of configuration
-     * file _config.
+     * Store the letters of the message LINE, as indices, at the start of
+     * _letters, and return how many there are.
      */
-    private Machine readConfig() {
-        try {
-            String alpha = _config.nextLine();
-            _alphabet = new Alphabet(alpha);
-            int numRotors = _config.nextInt();
-            int numPawls = _config.nextInt();
-
-            StringBuffer stringBuffer = new StringBuffer();
-            while (_config.hasNextLine()) {
-                stringBuffer.append(_config.nextLine());
-            }
+    private int letters(String line) {
+        int room = line.length() * _filter.maxExpansion();
+        if (_letters == null || _letters.length < room) {
+            _letters = new int[Math.max(room, INITIAL_LETTERS)];
+            _text = new char[_letters.length];
+        }
+        return _filter.filter(line, 0, line.length(), _letters, 0);
+    }
 
-            Pattern pattern = Pattern.compile("\\s?[^()\\s]+"
-                    + "\\s(M[^()\\s]*|R|N)\\s+"
-                    + "(\\([^()]+\\)\\s*)*");
-            Matcher matcher = pattern.matcher(new String(stringBuffer));
-            ArrayList<Rotor> rotors = new ArrayList<>();
-
-            while (matcher.find()) {
-                String[] rotorConfig = new String[2];
-                String cs = matcher.group().trim().replaceAll(
-                        "[\\n|\\r]", " ").replaceAll(
-                        "\\r\\n", " ");
-                Pattern initial = Pattern.compile("\\s?[^()\\s]+"
-                        + "\\s(M[^()\\s]*|R|N)\\s+");
-                Pattern cycles = Pattern.compile("\\(.*?\\)");
-                Matcher m;
-                m = initial.matcher(cs);
-                if (m.find()) {
-                    rotorConfig[0] = m.group();
-                } else {
-                    throw error("config error, not specify the rotor name "
-                            + "or type.\n setting: %s", cs);
-                }
-                m = cycles.matcher(cs);
-                StringBuffer cyclesBuffer = new StringBuffer();
-                while (m.find()) {
-                    cyclesBuffer.append(m.group());
-                }
-                rotorConfig[1] = new String(cyclesBuffer);
-                Rotor rotor = readRotor(rotorConfig);
-                rotors.add(rotor);
-            }
-            return new Machine(_alphabet, numRotors, numPawls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+    /**
+     * Accept messages as typed, if LENIENT: lower case letters are folded,
+     * umlauts and accented letters are spelled with plain ones, digits
+     * become the letters above them, and anything else is dropped (see
+     * InputFilter).  Otherwise, as by default, a message must be made of
+     * letters of the alphabet and whitespace.
+     */
+    public void setLenientInput(boolean lenient) {
+        _lenient = lenient;
+    }
+
+    /**
+     * Receives progress reports from process().
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after DONE of the TOTAL characters of input have been
+         * processed.
+         */
+        void onProgress(long done, long total);
+    }
+
+    /**
+     * Report progress of process() to LISTENER, which may be null.
+     */
+    public void setProgressListener(ProgressListener listener) {
+        _listener = listener;
+    }
+
+    /**
+     * Stop a running process() as soon as possible.  May be called
+     * from any thread; the output produced so far is left incomplete.
+     */
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    /**
+     * Return true iff cancel() has been called.
+     */
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+
+    /**
+     * Tell the progress listener, if any, that DONE characters of input
+     * have been processed.
+     */
+    private void reportProgress(long done) {
+        if (_listener != null) {
+            _listener.onProgress(Math.min(done, _inputLength), _inputLength);
         }
     }
 
     /**
-     * Return a rotor, reading its description from ROTOR.
+     * Return a machine with the default rotor set, set up according to
+     * the settings line SETTINGS.
      */
-    private Rotor readRotor(String[] rotor) {
-        try {
-            if (rotor.length != 2) {
-                throw error("config error, rotor configuration wrong.");
-            }
-            String[] initial = rotor[0].split("\\s+");
-            if (initial.length != 2) {
-                throw error("config error, either rotor's name "
-                        + "or type is missing.\n origin: %s", rotor[0]);
+    static Machine defaultMachine(String settings) {
+        Simulator simulator = new Simulator("");
+        Machine machine = simulator.readConfig();
+        if (!simulator.setUp(machine, settings)) {
+            throw error("input error, the setting line is empty.");
+        }
+        return machine;
+    }
+
+    /**
+     * Return an Enigma machine with the default rotor set, taken from the
+     * tables DefaultRotors generated at build time.  The rotors are new,
+     * since rotors hold their settings, but their wirings are shared.
+     */
+    private Machine readConfig() {
+        _alphabet = new Alphabet(DefaultRotors.ALPHABET);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (int k = 0; k < DEFAULT_WIRINGS.length; k++) {
+            String name = DefaultRotors.NAMES[k];
+            Permutation perm = new Permutation(DEFAULT_WIRINGS[k], _alphabet);
+            switch (DefaultRotors.TYPES[k]) {
+                case 'M':
+                    rotors.add(new MovingRotor(name, perm,
+                            notches(DefaultRotors.NOTCHES[k])));
+                    break;
+                case 'N':
+                    rotors.add(new FixedRotor(name, perm));
+                    break;
+                default:
+                    rotors.add(new Reflector(name, perm));
+                    break;
             }
-            switch (initial[1].charAt(0)) {
-                case 'M': {
-                    if (initial[1].length() < 2) {
-                        throw error(
-                                "config error, doesn't assign any "
-                                        + "notches to a moving rotor %s.\n"
-                                        + "origin: %s", initial[0], rotor[0]
-                        );
-                    }
-                    return new MovingRotor(initial[0],
-                            new Permutation(rotor[1], _alphabet),
-                            initial[1].substring(1));
-                }
-                case 'N': {
-                    return new FixedRotor(initial[0],
-                            new Permutation(rotor[1], _alphabet));
-                }
-                case 'R': {
-                    return new Reflector(initial[0],
-                            new Permutation(rotor[1], _alphabet));
-                }
-                default: {
-                    throw error(
-                            "config error, a rotor must be "
-                                    + "either `R`, `N`, `M` configured, "
-                                    + "but found %s",
-                            initial[1].charAt(0));
-                }
+        }
+        return new Machine(_alphabet, DefaultRotors.NUM_ROTORS,
+                DefaultRotors.NUM_PAWLS, rotors);
+    }
+
+    /**
+     * Return the letters of the default alphabet in the notch mask MASK.
+     */
+    private static String notches(long mask) {
+        StringBuilder result = new StringBuilder();
+        for (int c = 0; c < DefaultRotors.ALPHABET.length(); c++) {
+            if ((mask & 1L << c) != 0) {
+                result.append(DefaultRotors.ALPHABET.charAt(c));
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
         }
+        return result.toString();
     }
 
     /**
@@ -172,6 +193,13 @@ public final class Simulator {
         if (settings.matches("\\s*")) {
             return false;
         }
+        if (_validator == null) {
+            _validator = new SettingsValidator(M);
+        }
+        String problem = _validator.check(settings);
+        if (problem != null) {
+            throw error("%s\nsetting: %s", problem, settings);
+        }
         String[] rotors = new String[M.numRotors()];
         String[] line = settings.split("\\s+");
         if (line.length == 0) {
@@ -206,23 +234,32 @@ public final class Simulator {
     }
 
     /**
-     * Print MSG in groups of five (except that the last group may
-     * have fewer letters).
+     * Lay out each message line of output with FORMATTER instead of in
+     * groups of five.
      */
-    private void printMessageLine(String msg) {
-        for (int i = 0; i < msg.length(); i++) {
-            if ((i + 1) % 5 == 0 && i != msg.length() - 1) {
-                _output.append(msg.charAt(i));
-                _output.append(" ");
-            } else {
-                _output.append(msg.charAt(i));
-            }
-        }
-        _output.append("\n");
+    public void setFormatter(GroupFormatter formatter) {
+        _formatter = formatter;
+    }
+
+    /**
+     * Print MSG as laid out by the formatter, in groups of five by
+     * default (except that the last group may have fewer letters).
+     */
+    private void printMessageLine(CharSequence msg) {
+        _formatter.format(msg, 0, msg.length(), _output);
+        _output.append('\n');
     }
 
     public String getEncode() {
-        return new String(_output);
+        return _output.toString();
+    }
+
+    /**
+     * Return how process() ran the machine: the tier in use and the
+     * letters each tier converted (see TieredEngine).
+     */
+    public String engineMetrics() {
+        return _engine == null ? "not run" : _engine.toString();
     }
 
     /**
@@ -230,19 +267,89 @@ public final class Simulator {
      */
     private Alphabet _alphabet;
 
+    /**
+     * Runs the machine for process().
+     */
+    private TieredEngine _engine;
+
+    /**
+     * Checks settings lines before they reach the machine.
+     */
+    private SettingsValidator _validator;
+
+    /**
+     * Turns message lines into letters.
+     */
+    private InputFilter _filter;
+
+    /**
+     * Whether messages are filtered leniently.
+     */
+    private boolean _lenient;
+
+    /**
+     * Letters of the message being converted, as indices.
+     */
+    private int[] _letters;
+
+    /**
+     * The converted message, as characters.
+     */
+    private char[] _text;
+
     /**
      * Source of input messages.
      */
     private Scanner _input;
 
     /**
-     * Source of machine configuration.
+     * File for encoded/decoded messages.
      */
-    private Scanner _config;
+    private StringBuilder _output;
 
     /**
-     * File for encoded/decoded messages.
+     * Lays out the output.
+     */
+    private GroupFormatter _formatter;
+
+    /**
+     * Number of characters of input, for progress reports.
+     */
+    private final long _inputLength;
+
+    /**
+     * Receiver of progress reports, or null.
+     */
+    private volatile ProgressListener _listener;
+
+    /**
+     * True iff process() should stop.
+     */
+    private volatile boolean _cancelled;
+
+    /**
+     * Number of message characters converted between progress reports
+     * and cancellation checks.
+     */
+    private static final int PROGRESS_CHUNK = 8192;
+
+    /**
+     * Initial room for the letters of a message.
      */
-    private StringBuffer _output;
+    private static final int INITIAL_LETTERS = 1024;
+
+    /**
+     * Wirings of the default rotors, in the order of DefaultRotors.NAMES,
+     * built once so that every machine shares their per-setting tables.
+     */
+    private static final Wiring[] DEFAULT_WIRINGS =
+            new Wiring[DefaultRotors.NAMES.length];
+
+    static {
+        for (int k = 0; k < DEFAULT_WIRINGS.length; k++) {
+            DEFAULT_WIRINGS[k] = Wiring.of(DefaultRotors.FORWARD[k],
+                    DefaultRotors.INVERSE[k]);
+        }
+    }
 
 }
@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs the whole state of a machine into a long: which of the available
+ * rotors is in each slot, and the ring and position of every rotor but
+ * the reflector, as the digits of one mixed-radix number.  The rotor in
+ * each slot is a digit in base availableRotors().size(), most
+ * significant first, then the rings and the positions in base
+ * alphabet().size(), leftmost slot first.  The plugboard is not part of
+ * the state.
+ * <p>
+ * Packed states can be hashed, compared and stored in eight bytes, for
+ * instance in a LongHashSet of states already visited by a search.
+ *
+ * @author Junyi Cao
+ */
+final class StateCodec {
+
+    /**
+     * A codec for the states of MACHINE, which must have no more than
+     * Long.MAX_VALUE of them.
+     */
+    StateCodec(Machine machine) {
+        _numRotors = machine.numRotors();
+        _size = machine.alphabet().size();
+        List<Rotor> rotors = machine.availableRotors();
+        _rotors = rotors.toArray(new Rotor[rotors.size()]);
+        _ids = new IdentityHashMap<>();
+        for (int i = 0; i < _rotors.length; i++) {
+            _ids.put(_rotors[i], i);
+        }
+        double bits = _numRotors * Math.log(_rotors.length)
+                + 2 * (_numRotors - 1) * Math.log(_size);
+        if (bits / Math.log(2) >= Long.SIZE - 1) {
+            throw EnigmaException.error("the states of this machine do not "
+                    + "fit in %d bits.", Long.SIZE - 1);
+        }
+        _digits = new int[2 * (_numRotors - 1)];
+    }
+
+    /**
+     * Return the state of MACHINE, which must be the machine I was made
+     * for and have all its rotors inserted.
+     */
+    long pack(Machine machine) {
+        long state = 0;
+        for (int k = 0; k < _numRotors; k++) {
+            Integer id = _ids.get(machine.rotor(k));
+            if (id == null) {
+                throw EnigmaException.error("setting error, slot %d holds "
+                        + "no available rotor.", k);
+            }
+            state = state * _rotors.length + id;
+        }
+        for (int k = 1; k < _numRotors; k++) {
+            state = state * _size + machine.rotor(k).alphabetRing();
+        }
+        for (int k = 1; k < _numRotors; k++) {
+            Rotor r = machine.rotor(k);
+            state = state * _size
+                    + r.permutation().wrap(r.setting() + r.alphabetRing());
+        }
+        return state;
+    }
+
+    /**
+     * Put MACHINE, which must be the machine I was made for, in STATE, as
+     * returned by pack().  As for Machine.setRotor, the rotor order is
+     * not checked.
+     */
+    void load(long state, Machine machine) {
+        if (state < 0) {
+            throw EnigmaException.error("not a machine state: %d", state);
+        }
+        int[] digits = _digits;
+        for (int i = digits.length - 1; i >= 0; i--) {
+            digits[i] = (int) (state % _size);
+            state /= _size;
+        }
+        for (int k = _numRotors - 1; k >= 0; k--) {
+            machine.setRotor(k, _rotors[(int) (state % _rotors.length)]);
+            state /= _rotors.length;
+        }
+        if (state != 0) {
+            throw EnigmaException.error("not a machine state of this "
+                    + "machine.");
+        }
+        for (int k = 1; k < _numRotors; k++) {
+            machine.setRing(k, digits[k - 1]);
+            machine.rotor(k).set(digits[_numRotors - 2 + k]);
+        }
+    }
+
+    /**
+     * Number of rotor slots.
+     */
+    private final int _numRotors;
+
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+
+    /**
+     * The available rotors, by id.
+     */
+    private final Rotor[] _rotors;
+
+    /**
+     * The id of each available rotor.
+     */
+    private final Map<Rotor, Integer> _ids;
+
+    /**
+     * Scratch space for load(): the rings, then the positions.
+     */
+    private final int[] _digits;
+}
@@ -0,0 +1,539 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The complete stepping schedule of a configured machine: the period of
+ * its rotor states and every keystroke at which a carry (including a
+ * double-step) moves a rotor other than the fast one.
+ * <p>
+ * Carry events are kept as runs (first keystroke, gap, count, mask), so
+ * the usual "middle rotor turns over every 26 keystrokes" pattern costs
+ * one entry. The schedule is built by jumping from one carry event to
+ * the next, in time proportional to the number of events rather than
+ * to the period.  Machines that carry too often for that to pay, such
+ * as odometers of many rotors, are not analyzed; their schedules step
+ * the rotors one keystroke at a time instead.
+ *
+ * @author Junyi Cao
+ */
+class SteppingSchedule {
+
+    /**
+     * Return the schedule of MACHINE starting from its current rotor
+     * settings.  Schedules are cached per rotor order, rings, carries
+     * and start settings.
+     */
+    static SteppingSchedule of(Machine machine) {
+        Layout layout = new Layout(machine);
+        String key = layout.key();
+        synchronized (CACHE) {
+            SteppingSchedule cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        SteppingSchedule schedule = new SteppingSchedule(layout);
+        synchronized (CACHE) {
+            CACHE.put(key, schedule);
+        }
+        return schedule;
+    }
+
+    /**
+     * Analyze LAYOUT.
+     */
+    private SteppingSchedule(Layout layout) {
+        _layout = layout;
+        _runs = new long[4 * 8];
+        _numRuns = 0;
+        _events = 0;
+        analyze();
+    }
+
+    /**
+     * Return true iff my carry events were analyzed, so that period(),
+     * preperiod() and the runs are known and seeking takes time
+     * proportional to the number of runs.  Otherwise seeking takes time
+     * proportional to the offset.
+     */
+    boolean analyzed() {
+        return !_direct;
+    }
+
+    /**
+     * Return the number of keystrokes after which the rotor states
+     * repeat, once past preperiod(), or -1 if I was not analyzed().
+     */
+    long period() {
+        return _period;
+    }
+
+    /**
+     * Return the number of keystrokes before the rotor states enter
+     * their cycle, or -1 if I was not analyzed().  States at offsets K
+     * and K + period() are equal for every K >= preperiod().
+     */
+    long preperiod() {
+        return _preperiod;
+    }
+
+    /**
+     * Return the number of carry events recorded in
+     * [0, preperiod() + period()).
+     */
+    long events() {
+        return _events;
+    }
+
+    /**
+     * Return the number of runs of carry events.
+     */
+    int runs() {
+        return _numRuns;
+    }
+
+    /**
+     * Return the keystroke offset of the first event of run K.
+     */
+    long runStart(int k) {
+        return _runs[4 * k];
+    }
+
+    /**
+     * Return the distance in keystrokes between the events of run K.
+     */
+    long runGap(int k) {
+        return _runs[4 * k + 1];
+    }
+
+    /**
+     * Return the number of events in run K.
+     */
+    long runCount(int k) {
+        return _runs[4 * k + 2];
+    }
+
+    /**
+     * Return the carry mask of run K: bit I is set iff the rotor in slot
+     * I advances at each event of the run.  The fast rotor, which always
+     * advances, is never included.
+     */
+    int runMask(int k) {
+        return (int) _runs[4 * k + 3];
+    }
+
+    /**
+     * Return the carry mask (as for runMask) of keystroke number
+     * OFFSET (numbering from 0), or 0 if only the fast rotor moves.
+     */
+    int carryMask(long offset) {
+        if (_direct) {
+            return _layout.carryMask(step(offset));
+        }
+        offset = fold(offset);
+        int lo = 0, hi = _numRuns - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runStart(mid) <= offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found == -1) {
+            return 0;
+        }
+        long delta = offset - runStart(found);
+        if (delta % runGap(found) == 0
+                && delta / runGap(found) < runCount(found)) {
+            return runMask(found);
+        }
+        return 0;
+    }
+
+    /**
+     * Return the rotor settings after OFFSET keystrokes, indexed by rotor
+     * slot (entries for slots that do not move are 0).
+     */
+    int[] settingsAt(long offset) {
+        if (_direct) {
+            return step(offset);
+        }
+        offset = fold(offset);
+        Layout l = _layout;
+        int[] result = l.start.clone();
+        for (int k = 0; k < _numRuns; k++) {
+            long start = runStart(k);
+            if (offset <= start) {
+                break;
+            }
+            long n = Math.min(runCount(k),
+                    (offset - start - 1) / runGap(k) + 1);
+            int mask = runMask(k);
+            for (int i = l.first; i < l.fast; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    result[i] = (int) ((result[i] + n) % l.sizes[i]);
+                }
+            }
+        }
+        if (l.fast >= l.first) {
+            result[l.fast] = (int) ((result[l.fast] + offset)
+                    % l.sizes[l.fast]);
+        }
+        return result;
+    }
+
+    /**
+     * Set the rotors of MACHINE, which must have the layout this schedule
+     * was computed for, to their settings after OFFSET keystrokes.
+     */
+    void seek(Machine machine, long offset) {
+        if (!new Layout(machine).config.equals(_layout.config)) {
+            throw EnigmaException.error("schedule does not match the "
+                    + "rotor order, rings and carries of this machine.");
+        }
+        int[] settings = settingsAt(offset);
+        for (int i = _layout.first; i < machine.numRotors(); i++) {
+            Rotor r = machine.rotor(i);
+            r.set(settings[i] + r.alphabetRing());
+        }
+    }
+
+    /**
+     * Return the rotor settings after OFFSET keystrokes, as for
+     * settingsAt, found by making each keystroke in turn.
+     */
+    private int[] step(long offset) {
+        if (offset < 0) {
+            throw EnigmaException.error("negative offset: %d", offset);
+        }
+        Layout l = _layout;
+        int[] s = l.start.clone();
+        for (long k = 0; k < offset; k++) {
+            int mask = l.carries.mask(s);
+            for (int i = l.first; i <= l.fast; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    s[i] = (s[i] + 1) % l.sizes[i];
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Return OFFSET mapped into [0, preperiod() + period()).
+     */
+    private long fold(long offset) {
+        if (offset < 0) {
+            throw EnigmaException.error("negative offset: %d", offset);
+        }
+        if (offset >= _preperiod + _period) {
+            offset = _preperiod + (offset - _preperiod) % _period;
+        }
+        return offset;
+    }
+
+    /**
+     * Walk the state graph from one carry event to the next until an
+     * event state repeats, or give up after MAX_EVENTS events.
+     */
+    private void analyze() {
+        Layout l = _layout;
+        if (l.fast < l.first) {
+            _period = 1;
+            _preperiod = 0;
+            return;
+        }
+        int[] s = l.start.clone();
+        Map<Long, Long> seen = new HashMap<>();
+        long k = 0;
+        long last = -1;
+        while (true) {
+            long d = l.staticCarry(s) ? 0 : l.distanceToFastNotch(s[l.fast]);
+            if (d < 0) {
+                _period = l.sizes[l.fast];
+                _preperiod = last + 1;
+                return;
+            }
+            k += d;
+            s[l.fast] = (int) ((s[l.fast] + d) % l.sizes[l.fast]);
+            long state = l.pack(s);
+            Long previous = seen.get(state);
+            if (previous != null) {
+                _period = k - previous;
+                long gap1 = previous - before(previous) - 1;
+                long gap2 = k - last - 1;
+                _preperiod = previous - Math.min(gap1, gap2);
+                return;
+            }
+            if (seen.size() == MAX_EVENTS) {
+                _direct = true;
+                _period = _preperiod = -1;
+                _numRuns = 0;
+                _events = 0;
+                return;
+            }
+            seen.put(state, k);
+            int mask = l.carryMask(s);
+            record(k, mask);
+            for (int i = l.first; i < l.fast; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    s[i] = (s[i] + 1) % l.sizes[i];
+                }
+            }
+            s[l.fast] = (s[l.fast] + 1) % l.sizes[l.fast];
+            last = k;
+            k += 1;
+        }
+    }
+
+    /**
+     * Return the offset of the last recorded event before OFFSET, or -1
+     * if there is none.
+     */
+    private long before(long offset) {
+        long result = -1;
+        for (int k = 0; k < _numRuns && runStart(k) < offset; k++) {
+            long n = Math.min(runCount(k),
+                    (offset - runStart(k) - 1) / runGap(k) + 1);
+            result = runStart(k) + (n - 1) * runGap(k);
+        }
+        return result;
+    }
+
+    /**
+     * Append a carry event with MASK at keystroke OFFSET, extending the
+     * last run when possible.
+     */
+    private void record(long offset, int mask) {
+        _events += 1;
+        if (_numRuns > 0 && runMask(_numRuns - 1) == mask) {
+            int r = 4 * (_numRuns - 1);
+            long count = _runs[r + 2];
+            if (count == 1) {
+                _runs[r + 1] = offset - _runs[r];
+                _runs[r + 2] = 2;
+                return;
+            } else if (offset == _runs[r] + count * _runs[r + 1]) {
+                _runs[r + 2] = count + 1;
+                return;
+            }
+        }
+        if (4 * (_numRuns + 1) > _runs.length) {
+            _runs = Arrays.copyOf(_runs, 2 * _runs.length);
+        }
+        int r = 4 * _numRuns;
+        _runs[r] = offset;
+        _runs[r + 1] = 1;
+        _runs[r + 2] = 1;
+        _runs[r + 3] = mask;
+        _numRuns += 1;
+    }
+
+    /**
+     * The stepping-relevant parts of a configured machine: rotor sizes,
+     * carry masks and start settings, all indexed by rotor slot.
+     */
+    private static class Layout {
+
+        /**
+         * The layout of MACHINE in its current state.
+         */
+        Layout(Machine machine) {
+            int n = machine.numRotors();
+            first = n - machine.numPawls();
+            fast = n - 1;
+            sizes = new int[n];
+            start = new int[n];
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                Rotor r = machine.rotor(i);
+                if (r == null) {
+                    throw EnigmaException.error("setting error, rotors "
+                            + "have not been inserted.");
+                }
+                sizes[i] = r.size();
+                key.append(r.name()).append('/').append(sizes[i])
+                        .append(' ');
+            }
+            carries = machine.stepping().compile(machine);
+            for (int i = first; i < n; i++) {
+                start[i] = machine.rotor(i).setting();
+                int[] row = carries.row(i);
+                key.append('[').append(carries.requires(i)).append(':');
+                for (int p = 0; p < sizes[i]; p++) {
+                    if (row[p] != 0) {
+                        key.append(p).append('=').append(row[p])
+                                .append(',');
+                    }
+                }
+                key.append("] ");
+            }
+            config = key.toString();
+            if (fast > first) {
+                int[] row = carries.row(fast);
+                fastDistance = new int[sizes[fast]];
+                for (int p = 0; p < sizes[fast]; p++) {
+                    fastDistance[p] = -1;
+                    for (int d = 0; d < sizes[fast]; d++) {
+                        if (row[(p + d) % sizes[fast]] != 0) {
+                            fastDistance[p] = d;
+                            break;
+                        }
+                    }
+                }
+            }
+            long states = 1;
+            for (int i = first; i < n; i++) {
+                if (states > Long.MAX_VALUE / sizes[i]) {
+                    throw EnigmaException.error("too many rotor states "
+                            + "to analyze the stepping schedule.");
+                }
+                states *= sizes[i];
+            }
+        }
+
+        /**
+         * Return the cache key: the configuration plus start settings.
+         */
+        String key() {
+            return config + Arrays.toString(start);
+        }
+
+        /**
+         * Return true iff some rotor other than the fast one carries in
+         * settings S, wherever the fast rotor is.
+         */
+        boolean staticCarry(int[] s) {
+            return fast > first && carries.mask(s, fast - 1) != 1 << fast;
+        }
+
+        /**
+         * Return the number of keystrokes before the fast rotor, now at
+         * SETTING, reaches a setting that carries, or -1 if it never
+         * does.
+         */
+        long distanceToFastNotch(int setting) {
+            return fastDistance == null ? -1 : fastDistance[setting];
+        }
+
+        /**
+         * Return the carry mask (excluding the fast rotor) of the
+         * keystroke made in settings S.
+         */
+        int carryMask(int[] s) {
+            return carries.mask(s) & ~(1 << fast);
+        }
+
+        /**
+         * Return the settings S of the moving rotors as a single number.
+         */
+        long pack(int[] s) {
+            long result = 0;
+            for (int i = first; i <= fast; i++) {
+                result = result * sizes[i] + s[i];
+            }
+            return result;
+        }
+
+        /**
+         * Rotor order, carries and sizes, used to match machines.
+         */
+        final String config;
+
+        /**
+         * Slot of the leftmost moving rotor.
+         */
+        final int first;
+
+        /**
+         * Slot of the fast rotor.
+         */
+        final int fast;
+
+        /**
+         * Alphabet size of each rotor.
+         */
+        final int[] sizes;
+
+        /**
+         * Start setting of each moving rotor.
+         */
+        final int[] start;
+
+        /**
+         * Carry masks of the machine's stepping strategy.
+         */
+        final SteppingStrategy.Carries carries;
+
+        /**
+         * Distance from each fast-rotor setting to its next notch.
+         */
+        private int[] fastDistance;
+    }
+
+    /**
+     * Maximum number of carry events analyzed before a schedule falls
+     * back to stepping.  A double-stepping machine of three rotors has
+     * fewer than 700 events a period; an odometer of four has 17576.
+     */
+    static final int MAX_EVENTS = 1 << 12;
+
+    /**
+     * Maximum number of cached schedules.
+     */
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * Recently used schedules, keyed by Layout.key().
+     */
+    private static final Map<String, SteppingSchedule> CACHE =
+            new LinkedHashMap<String, SteppingSchedule>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, SteppingSchedule> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /**
+     * The layout I was computed for.
+     */
+    private final Layout _layout;
+
+    /**
+     * Runs of carry events, four entries per run: start, gap, count and
+     * mask.
+     */
+    private long[] _runs;
+
+    /**
+     * Number of runs in _runs.
+     */
+    private int _numRuns;
+
+    /**
+     * Number of carry events.
+     */
+    private long _events;
+
+    /**
+     * True iff I step the rotors rather than use the runs.
+     */
+    private boolean _direct;
+
+    /**
+     * Length of the cycle of rotor states.
+     */
+    private long _period;
+
+    /**
+     * Number of keystrokes before the cycle is entered.
+     */
+    private long _preperiod;
+}
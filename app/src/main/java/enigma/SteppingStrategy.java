@@ -0,0 +1,227 @@
+package enigma;
+
+/**
+ * How the moving rotors of a Machine advance at each keystroke.  The
+ * fast rotor always advances.  A strategy says at which settings each
+ * other moving rotor, and the fast rotor, carries into the rotor to its
+ * left, and whether a carry needs the carrying rotor to move on the same
+ * keystroke, as in a gear train or an odometer, or not, as with the
+ * Enigma's pawls, which then push the carrying rotor along too (the
+ * double-step).
+ * <p>
+ * Machine asks its strategy about each rotor at each keystroke.  The
+ * compiled engines and SteppingSchedule instead use compile(), which
+ * turns the strategy and the machine's rotors and rings into Carries:
+ * carry masks by slot and setting.  Every strategy steps through the
+ * same few table lookups, so a new family of machines costs nothing per
+ * keystroke.  Strategies are immutable and may be shared.
+ *
+ * @author Junyi Cao
+ */
+abstract class SteppingStrategy {
+
+    /**
+     * Enigma I, M3 and M4: a pawl drops into the notch of the rotor to
+     * its right, so a rotor at a notch moves the rotor to its left and
+     * itself, whether or not it was going to move.
+     */
+    static final SteppingStrategy DOUBLE_STEP =
+            new SteppingStrategy("double-step", false) {
+                @Override
+                boolean carries(MovingRotor rotor, int setting) {
+                    return rotor.notchAt(setting);
+                }
+            };
+
+    /**
+     * A plain counter: each rotor carries once a revolution, as it moves
+     * from the last letter of its ring back to the first, whatever its
+     * notches.
+     */
+    static final SteppingStrategy ODOMETER =
+            new SteppingStrategy("odometer", true) {
+                @Override
+                boolean carries(MovingRotor rotor, int setting) {
+                    return position(rotor, setting) == rotor.size() - 1;
+                }
+            };
+
+    /**
+     * Enigma G: the rotors are driven by cogs rather than pawls, so a
+     * rotor carries only as it moves past one of its notches, and
+     * there is no double-step.
+     */
+    static final SteppingStrategy GEARED =
+            new SteppingStrategy("geared", true) {
+                @Override
+                boolean carries(MovingRotor rotor, int setting) {
+                    return rotor.notchAt(setting);
+                }
+            };
+
+    /**
+     * Return Typex-style stepping: pawls as for DOUBLE_STEP, but the
+     * notches are cut in the sleeve around each rotor, at the letters
+     * NOTCHES of its ring, whichever rotor is inside.
+     */
+    static SteppingStrategy multiNotch(final String notches) {
+        if (notches.isEmpty()) {
+            throw EnigmaException.error("config error, a multi-notch "
+                    + "sleeve needs at least one notch.");
+        }
+        return new SteppingStrategy("multi-notch " + notches, false) {
+            @Override
+            boolean carries(MovingRotor rotor, int setting) {
+                char c = rotor.alphabet().toChar(position(rotor, setting));
+                return notches.indexOf(c) >= 0;
+            }
+        };
+    }
+
+    /**
+     * A strategy called NAME, in which a rotor carries only on the
+     * keystrokes that move it iff GEARED.
+     */
+    private SteppingStrategy(String name, boolean geared) {
+        _name = name;
+        _geared = geared;
+    }
+
+    /**
+     * Return true iff ROTOR, at SETTING, carries into the rotor to its
+     * left at the next keystroke (if it moves, when geared()).
+     */
+    abstract boolean carries(MovingRotor rotor, int setting);
+
+    /**
+     * Return true iff a rotor carries only on keystrokes that move it.
+     * Otherwise a carry also moves the carrying rotor.
+     */
+    boolean geared() {
+        return _geared;
+    }
+
+    /**
+     * Return my carry masks for the rotors and rings now in MACHINE.
+     */
+    Carries compile(Machine machine) {
+        return new Carries(this, machine);
+    }
+
+    @Override
+    public String toString() {
+        return _name;
+    }
+
+    /**
+     * Return the position (setting plus ring) of ROTOR at SETTING.
+     */
+    private static int position(Rotor rotor, int setting) {
+        return rotor.permutation().wrap(setting + rotor.alphabetRing());
+    }
+
+    /**
+     * A strategy compiled for the rotors in a machine: for each moving
+     * slot and setting, the mask of slots a carry from that slot
+     * advances, and the slots that must be advancing for it to carry.
+     */
+    static final class Carries {
+
+        /**
+         * The carry masks of STRATEGY for the rotors in MACHINE.
+         */
+        private Carries(SteppingStrategy strategy, Machine machine) {
+            int n = machine.numRotors();
+            _first = n - machine.numPawls();
+            _fast = n - 1;
+            _masks = new int[n][];
+            _requires = new int[n];
+            for (int i = _first; i <= _fast; i++) {
+                Rotor r = machine.rotor(i);
+                if (r == null) {
+                    throw EnigmaException.error("setting error, rotors "
+                            + "have not been inserted.");
+                }
+                _masks[i] = new int[r.size()];
+                if (i == _first) {
+                    continue;
+                }
+                int mask = strategy.geared() ? 1 << (i - 1) : 3 << (i - 1);
+                for (int s = 0; s < r.size(); s++) {
+                    if (strategy.carries((MovingRotor) r, s)) {
+                        _masks[i][s] = mask;
+                    }
+                }
+                _requires[i] = strategy.geared() ? 1 << i : 0;
+            }
+        }
+
+        /**
+         * Return the mask of the slots that advance at the next
+         * keystroke when the rotors are at SETTINGS, indexed by slot.
+         */
+        int mask(int[] settings) {
+            return mask(settings, _fast);
+        }
+
+        /**
+         * Return the mask as for mask(SETTINGS), but counting only the
+         * carries of the slots up to FROM.
+         */
+        int mask(int[] settings, int from) {
+            int mask = 1 << _fast;
+            for (int i = from; i > _first; i--) {
+                if ((mask & _requires[i]) == _requires[i]) {
+                    mask |= _masks[i][settings[i]];
+                }
+            }
+            return mask;
+        }
+
+        /**
+         * Return the carry masks of slot K, a moving slot, by setting.
+         * The table is mine and must not be modified.
+         */
+        int[] row(int k) {
+            return _masks[k];
+        }
+
+        /**
+         * Return the mask of the slots that must advance for slot K to
+         * carry.
+         */
+        int requires(int k) {
+            return _requires[k];
+        }
+
+        /**
+         * Slot of the leftmost moving rotor.
+         */
+        private final int _first;
+
+        /**
+         * Slot of the fast rotor.
+         */
+        private final int _fast;
+
+        /**
+         * Carry mask of each moving slot by setting.
+         */
+        private final int[][] _masks;
+
+        /**
+         * Slots that must advance for each slot to carry.
+         */
+        private final int[] _requires;
+    }
+
+    /**
+     * My name.
+     */
+    private final String _name;
+
+    /**
+     * Whether a rotor carries only on keystrokes that move it.
+     */
+    private final boolean _geared;
+}
@@ -0,0 +1,138 @@
+package enigma;
+
+import java.util.Arrays;
+
+/**
+ * A CompiledEngine for any layout of rotors, which loops over its moving
+ * rotors.
+ *
+ * @author Junyi Cao
+ */
+class TableMachine extends CompiledEngine {
+
+    /**
+     * An engine compiled from MACHINE in its current state.
+     */
+    TableMachine(Machine machine) {
+        super(machine);
+        int n = machine.numRotors();
+        _fast = n - 1;
+        _plugboard = plugboardTable(machine);
+        _middle = middleTable(machine);
+        _forward = new int[n][];
+        _backward = new int[n][];
+        _carries = machine.stepping().compile(machine);
+        _settings = new int[n];
+        for (int i = _first; i < n; i++) {
+            Rotor r = machine.rotor(i);
+            _forward[i] = forwardTable(r);
+            _backward[i] = backwardTable(r);
+            _settings[i] = r.setting();
+        }
+    }
+
+    @Override
+    public int convert(int c) {
+        advance();
+        return pass(c);
+    }
+
+    /**
+     * Advance the rotors as for one keystroke, and store the permutation
+     * that keystroke applies into PERMUTATION.  Since the machine's
+     * permutation is an involution, only half of it is computed.
+     */
+    void step(int[] permutation) {
+        advance();
+        Arrays.fill(permutation, 0, _size, -1);
+        for (int c = 0; c < _size; c++) {
+            if (permutation[c] < 0) {
+                int e = pass(c);
+                permutation[c] = e;
+                permutation[e] = c;
+            }
+        }
+    }
+
+    /**
+     * Set my moving rotors to the positions of those of MACHINE, which
+     * must be the machine I was compiled from or one with the same
+     * rotors and rings: the reverse of store().
+     */
+    void load(Machine machine) {
+        for (int i = _first; i <= _fast; i++) {
+            _settings[i] = machine.rotor(i).setting();
+        }
+    }
+
+    /**
+     * Advance the rotors as for one keystroke.
+     */
+    private void advance() {
+        int[] s = _settings;
+        int size = _size;
+        int carry = _carries.mask(s);
+        for (int i = _first; i <= _fast; i++) {
+            if ((carry & (1 << i)) != 0) {
+                s[i] = s[i] + 1 == size ? 0 : s[i] + 1;
+            }
+        }
+    }
+
+    /**
+     * Return the conversion of C at the current settings.
+     */
+    private int pass(int c) {
+        int[] s = _settings;
+        int size = _size;
+        c = _plugboard[c];
+        for (int i = _fast; i >= _first; i--) {
+            c = _forward[i][s[i] * size + c];
+        }
+        c = _middle[c];
+        for (int i = _first; i <= _fast; i++) {
+            c = _backward[i][s[i] * size + c];
+        }
+        return _plugboard[c];
+    }
+
+    @Override
+    int[] settings() {
+        return _settings.clone();
+    }
+
+    /**
+     * Slot of the fast rotor.
+     */
+    private final int _fast;
+
+    /**
+     * The plugboard.
+     */
+    private final int[] _plugboard;
+
+    /**
+     * The non-moving rotors and the reflector, composed.
+     */
+    private final int[] _middle;
+
+    /**
+     * Forward table of each moving rotor, indexed by slot.
+     */
+    private final int[][] _forward;
+
+    /**
+     * Backward table of each moving rotor, indexed by slot.
+     */
+    private final int[][] _backward;
+
+    /**
+     * Carry masks of the machine's stepping strategy.
+     */
+    private final SteppingStrategy.Carries _carries;
+
+    /**
+     * Current setting of each moving rotor, indexed by slot.
+     */
+    private final int[] _settings;
+}
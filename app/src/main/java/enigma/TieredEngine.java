@@ -0,0 +1,408 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * An Engine over a Machine that picks how to run each piece of work by
+ * its size.  Short inputs go straight through the Machine; compiling
+ * costs more than it saves on them.  Once a call, or a run of single
+ * letters, reaches a tier's threshold, the machine is compiled into a
+ * TableMachine or, for layouts that have one, a fused straight-line
+ * engine, and the engine is kept for the calls that follow until sync()
+ * copies its positions back into the machine.
+ * <p>
+ * The thresholds come from a profile file named by the enigma.tiers
+ * property if there is one, and otherwise from the default profile,
+ * the resource tiers.properties next to this class.  Nothing is timed
+ * unless calibrate() is called, as EngineBenchmark does to write a new
+ * profile.
+ *
+ * @author Junyi Cao
+ */
+final class TieredEngine implements Engine {
+
+    /**
+     * The ways of running a machine, slowest to set up first.
+     */
+    enum Tier {
+        /** The Machine itself. */
+        INTERPRETED,
+        /** A TableMachine. */
+        TABLE,
+        /** A generated engine for the machine's layout. */
+        FUSED
+    }
+
+    /**
+     * An engine over MACHINE, with the thresholds of this process.
+     */
+    TieredEngine(Machine machine) {
+        this(machine, Thresholds.current());
+    }
+
+    /**
+     * An engine over MACHINE, with THRESHOLDS.
+     */
+    TieredEngine(Machine machine, Thresholds thresholds) {
+        _machine = machine;
+        _thresholds = thresholds;
+    }
+
+    @Override
+    public int convert(int c) {
+        if (_engine == null) {
+            _streak += 1;
+            if (!choose(_streak)) {
+                _letters[Tier.INTERPRETED.ordinal()] += 1;
+                return _machine.convert(c);
+            }
+        }
+        _letters[_tier.ordinal()] += 1;
+        return _engine.convert(c);
+    }
+
+    @Override
+    public void convert(int[] msg, int offset, int length) {
+        if (_engine == null && !choose(_streak + length)) {
+            _streak += length;
+            _letters[Tier.INTERPRETED.ordinal()] += length;
+            _machine.convert(msg, offset, length);
+        } else {
+            _letters[_tier.ordinal()] += length;
+            _engine.convert(msg, offset, length);
+        }
+    }
+
+    /**
+     * Copy the positions of the compiled engine, if any, into the
+     * machine and drop it, so that the machine is up to date and may be
+     * changed.  Must be called before the machine is used or set up
+     * again directly.
+     */
+    void sync() {
+        if (_engine != null) {
+            _engine.store(_machine);
+            _engine = null;
+            _tier = Tier.INTERPRETED;
+        }
+        _streak = 0;
+    }
+
+    /**
+     * Return the tier now in use.
+     */
+    Tier tier() {
+        return _tier;
+    }
+
+    /**
+     * Return the number of letters converted by TIER.
+     */
+    long letters(Tier tier) {
+        return _letters[tier.ordinal()];
+    }
+
+    /**
+     * Return the number of times the machine was compiled.
+     */
+    long compiles() {
+        return _compiles;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d interpreted, %d table, %d fused "
+                + "letters, %d compiles", _tier,
+                _letters[Tier.INTERPRETED.ordinal()],
+                _letters[Tier.TABLE.ordinal()],
+                _letters[Tier.FUSED.ordinal()], _compiles);
+    }
+
+    /**
+     * Compile the machine into the best tier for WORK letters, if that
+     * is not INTERPRETED, and return true iff it was compiled.
+     */
+    private boolean choose(long work) {
+        Tier tier = _thresholds.choose(_machine, work);
+        if (tier == Tier.INTERPRETED) {
+            return false;
+        }
+        _engine = tier == Tier.FUSED ? CompiledEngine.compile(_machine)
+                : new TableMachine(_machine);
+        _tier = tier;
+        _compiles += 1;
+        return true;
+    }
+
+    /**
+     * The work, in letters, from which each tier pays for its setup.
+     */
+    static final class Thresholds {
+
+        /**
+         * Thresholds of TABLE letters for a TableMachine and FUSED
+         * letters for a generated engine.
+         */
+        Thresholds(long table, long fused) {
+            if (table < 0 || fused < 0) {
+                throw EnigmaException.error("negative tier threshold.");
+            }
+            _table = table;
+            _fused = fused;
+        }
+
+        /**
+         * Return the thresholds of this process: those in the profile
+         * named by the enigma.tiers property, if it is set, or else
+         * those in the default profile.
+         */
+        static synchronized Thresholds current() {
+            if (_current == null) {
+                String profile = System.getProperty("enigma.tiers");
+                _current = profile != null ? load(new File(profile))
+                        : loadDefault();
+            }
+            return _current;
+        }
+
+        /**
+         * Return the thresholds in the default profile, the resource
+         * DEFAULT_PROFILE.
+         */
+        static Thresholds loadDefault() {
+            InputStream in =
+                    TieredEngine.class.getResourceAsStream(DEFAULT_PROFILE);
+            if (in == null) {
+                throw EnigmaException.error("missing tier profile %s.",
+                        DEFAULT_PROFILE);
+            }
+            return load(in, DEFAULT_PROFILE);
+        }
+
+        /**
+         * Return the thresholds at which the tiers overtake the machine
+         * on the default rotor set, timed here and now.
+         */
+        static Thresholds calibrate() {
+            Machine machine = Simulator.defaultMachine(
+                    "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+            int[] msg = new int[CALIBRATION_LETTERS];
+            double direct = Double.MAX_VALUE;
+            double[] setup = {Double.MAX_VALUE, Double.MAX_VALUE};
+            double[] perLetter = {Double.MAX_VALUE, Double.MAX_VALUE};
+            for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+                long start = System.nanoTime();
+                machine.convert(msg, 0, msg.length);
+                direct = Math.min(direct,
+                        (System.nanoTime() - start) / (double) msg.length);
+                for (int t = 0; t < 2; t++) {
+                    start = System.nanoTime();
+                    CompiledEngine engine = null;
+                    for (int k = 0; k < CALIBRATION_SETUPS; k++) {
+                        engine = t == 0 ? new TableMachine(machine)
+                                : CompiledEngine.compile(machine);
+                    }
+                    long built = System.nanoTime();
+                    engine.convert(msg, 0, msg.length);
+                    long done = System.nanoTime();
+                    setup[t] = Math.min(setup[t],
+                            (built - start) / (double) CALIBRATION_SETUPS);
+                    perLetter[t] = Math.min(perLetter[t],
+                            (done - built) / (double) msg.length);
+                }
+            }
+            return new Thresholds(breakEven(setup[0], direct, perLetter[0]),
+                    breakEven(setup[1], direct, perLetter[1]));
+        }
+
+        /**
+         * Return the thresholds in the profile FILE, a properties file
+         * with the keys "table" and "fused".
+         */
+        static Thresholds load(File file) {
+            try {
+                return load(new FileInputStream(file), file);
+            } catch (IOException excp) {
+                throw EnigmaException.error("cannot read tier profile %s: "
+                        + "%s", file, excp.getMessage());
+            }
+        }
+
+        /**
+         * Return the thresholds in the profile read from IN, which is
+         * closed afterwards, describing the profile as NAME in errors.
+         */
+        private static Thresholds load(InputStream in, Object name) {
+            Properties profile = new Properties();
+            try {
+                try {
+                    profile.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException excp) {
+                throw EnigmaException.error("cannot read tier profile %s: "
+                        + "%s", name, excp.getMessage());
+            }
+            String table = profile.getProperty("table");
+            String fused = profile.getProperty("fused");
+            try {
+                return new Thresholds(Long.parseLong(table.trim()),
+                        Long.parseLong(fused.trim()));
+            } catch (RuntimeException excp) {
+                throw EnigmaException.error("tier profile %s needs whole "
+                        + "numbers for table and fused.", name);
+            }
+        }
+
+        /**
+         * Write me to the profile FILE, to be read by load().
+         */
+        void save(File file) {
+            Properties profile = new Properties();
+            profile.setProperty("table", Long.toString(_table));
+            profile.setProperty("fused", Long.toString(_fused));
+            try {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    profile.store(out, "enigma tier thresholds, in letters");
+                } finally {
+                    out.close();
+                }
+            } catch (IOException excp) {
+                throw EnigmaException.error("cannot write tier profile %s: "
+                        + "%s", file, excp.getMessage());
+            }
+        }
+
+        /**
+         * Return the threshold for a TableMachine.
+         */
+        long table() {
+            return _table;
+        }
+
+        /**
+         * Return the threshold for a generated engine.
+         */
+        long fused() {
+            return _fused;
+        }
+
+        /**
+         * Return the tier for WORK letters on MACHINE.
+         */
+        Tier choose(Machine machine, long work) {
+            if (machine.alphabet().size() > CompiledEngine.MAX_SIZE) {
+                return Tier.INTERPRETED;
+            }
+            if (work >= _fused && fuses(machine)) {
+                return Tier.FUSED;
+            }
+            return work >= _table ? Tier.TABLE : Tier.INTERPRETED;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("table from %d, fused from %d letters",
+                    _table, _fused);
+        }
+
+        /**
+         * Return true iff CompiledEngine.compile gives a generated engine
+         * for MACHINE.
+         */
+        private static boolean fuses(Machine machine) {
+            return machine.numRotors() == 5 && machine.numPawls() == 3
+                    && !machine.stepping().geared();
+        }
+
+        /**
+         * Return the letters after which a tier that takes SETUP ns to
+         * build and PERLETTER ns a letter beats DIRECT ns a letter.
+         */
+        private static long breakEven(double setup, double direct,
+                                      double perLetter) {
+            if (perLetter >= direct) {
+                return Long.MAX_VALUE;
+            }
+            return (long) Math.ceil(setup / (direct - perLetter));
+        }
+
+        /**
+         * The default profile, a resource beside TieredEngine.
+         */
+        private static final String DEFAULT_PROFILE = "tiers.properties";
+
+        /**
+         * Letters converted by each tier in each round of calibration.
+         */
+        private static final int CALIBRATION_LETTERS = 4096;
+
+        /**
+         * Engines built by each tier in each round of calibration.
+         */
+        private static final int CALIBRATION_SETUPS = 16;
+
+        /**
+         * Rounds of calibration, the best of which is kept.
+         */
+        private static final int CALIBRATION_ROUNDS = 20;
+
+        /**
+         * The thresholds of this process, once known.
+         */
+        private static Thresholds _current;
+
+        /**
+         * Threshold for a TableMachine.
+         */
+        private final long _table;
+
+        /**
+         * Threshold for a generated engine.
+         */
+        private final long _fused;
+    }
+
+    /**
+     * The machine run and kept up to date by sync().
+     */
+    private final Machine _machine;
+
+    /**
+     * When to compile.
+     */
+    private final Thresholds _thresholds;
+
+    /**
+     * The compiled engine in use, or null while the machine is.
+     */
+    private CompiledEngine _engine;
+
+    /**
+     * The tier in use.
+     */
+    private Tier _tier = Tier.INTERPRETED;
+
+    /**
+     * Letters converted by the machine since the last sync().
+     */
+    private long _streak;
+
+    /**
+     * Letters converted by each tier.
+     */
+    private final long[] _letters = new long[Tier.values().length];
+
+    /**
+     * Times the machine was compiled.
+     */
+    private long _compiles;
+}
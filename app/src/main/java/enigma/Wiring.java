@@ -0,0 +1,263 @@
+package enigma;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The immutable wiring behind a Permutation.  Wirings parsed from the
+ * same cycles over the same alphabet are interned, so every rotor I of
+ * every machine shares one instance.  Only the forward table is built
+ * eagerly; the inverse table, the derangement test and the per-setting
+ * tables used by compiled engines are built on first use.
+ *
+ * @author Junyi Cao
+ */
+final class Wiring {
+
+    /**
+     * Return the wiring given by CYCLES, in the form "(cccc) (cc) ..."
+     * where the c's are characters in ALPHABET.  Characters that are
+     * not included in any cycle map to themselves.  Equal arguments give
+     * the same instance for as long as it is in use.
+     */
+    static Wiring of(String cycles, Alphabet alphabet) {
+        String key = alphabet + "\u0000" + cycles;
+        synchronized (INTERNED) {
+            WeakReference<Wiring> ref = INTERNED.get(key);
+            Wiring wiring = ref == null ? null : ref.get();
+            if (wiring != null) {
+                return wiring;
+            }
+        }
+        Wiring wiring = new Wiring(key, parse(cycles, alphabet));
+        synchronized (INTERNED) {
+            WeakReference<Wiring> ref = INTERNED.get(key);
+            Wiring other = ref == null ? null : ref.get();
+            if (other != null) {
+                return other;
+            }
+            INTERNED.put(key, new WeakReference<>(wiring));
+        }
+        return wiring;
+    }
+
+    /**
+     * Return a wiring, not interned, in which index I maps to FORWARD[I].
+     * FORWARD must be a permutation of 0 .. FORWARD.length - 1.
+     */
+    static Wiring of(int[] forward) {
+        boolean[] seen = new boolean[forward.length];
+        for (int p : forward) {
+            if (p < 0 || p >= forward.length || seen[p]) {
+                throw EnigmaException.error("config error, the wiring "
+                        + "is not a permutation.");
+            }
+            seen[p] = true;
+        }
+        return new Wiring(null, forward);
+    }
+
+    /**
+     * Return a wiring, not interned, in which index I maps to FORWARD[I]
+     * and back from INVERSE[I], tables generated at build time and
+     * trusted to be a permutation and its inverse.
+     */
+    static Wiring of(int[] forward, int[] inverse) {
+        Wiring wiring = new Wiring(null, forward);
+        wiring._inverse = IndexTable.of(inverse, forward.length);
+        return wiring;
+    }
+
+    /**
+     * A wiring interned under KEY (or null) in which index I maps to
+     * FORWARD[I].
+     */
+    private Wiring(String key, int[] forward) {
+        _key = key;
+        _size = forward.length;
+        _forward = IndexTable.of(forward, _size);
+    }
+
+    /**
+     * Return the number of indices I permute.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the index P, in 0 .. size() - 1, maps to.
+     */
+    int forward(int p) {
+        return _forward.get(p);
+    }
+
+    /**
+     * Return the index C, in 0 .. size() - 1, maps to under the inverse.
+     */
+    int inverse(int c) {
+        IndexTable inverse = _inverse;
+        if (inverse == null) {
+            int[] table = new int[_size];
+            for (int p = 0; p < _size; p++) {
+                table[_forward.get(p)] = p;
+            }
+            inverse = _inverse = IndexTable.of(table, _size);
+        }
+        return inverse.get(c);
+    }
+
+    /**
+     * Return true iff no index maps to itself.
+     */
+    boolean derangement() {
+        Boolean derangement = _derangement;
+        if (derangement == null) {
+            derangement = true;
+            for (int p = 0; p < _size; p++) {
+                if (_forward.get(p) == p) {
+                    derangement = false;
+                    break;
+                }
+            }
+            _derangement = derangement;
+        }
+        return derangement;
+    }
+
+    /**
+     * Return the forward pass of a rotor with this wiring at every
+     * setting: entry S * size() + C is the conversion of C at setting S.
+     */
+    int[] forwardBySetting() {
+        int[] table = _forwardBySetting;
+        if (table == null) {
+            table = _forwardBySetting = bySetting(false);
+        }
+        return table;
+    }
+
+    /**
+     * Return the backward pass of a rotor with this wiring at every
+     * setting, laid out as for forwardBySetting.
+     */
+    int[] backwardBySetting() {
+        int[] table = _backwardBySetting;
+        if (table == null) {
+            table = _backwardBySetting = bySetting(true);
+        }
+        return table;
+    }
+
+    /**
+     * Return the per-setting table of the forward pass, or of the
+     * backward pass if INVERSE.
+     */
+    private int[] bySetting(boolean inverse) {
+        int[] table = new int[_size * _size];
+        for (int s = 0; s < _size; s++) {
+            for (int c = 0; c < _size; c++) {
+                int p = (c + s) % _size;
+                int converted = inverse ? inverse(p) : forward(p);
+                table[s * _size + c] = (converted - s + _size) % _size;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Return the forward table given by CYCLES over ALPHABET.
+     */
+    private static int[] parse(String cycles, Alphabet alphabet) {
+        int[] forward = new int[alphabet.size()];
+        Arrays.fill(forward, -1);
+        Matcher m = CYCLE.matcher(cycles);
+        while (m.find()) {
+            String cycle = m.group();
+            if (cycle.charAt(0) == '('
+                    && cycle.charAt(cycle.length() - 1) == ')') {
+                addCycle(cycle.substring(1, cycle.length() - 1),
+                        alphabet, forward);
+            } else {
+                throw EnigmaException.error(
+                        "parentheses of a cycle in the permutation "
+                                + "is missing.\ncycle: %s", cycle);
+            }
+        }
+        for (int i = 0; i < forward.length; i++) {
+            if (forward[i] == -1) {
+                forward[i] = i;
+            }
+        }
+        return forward;
+    }
+
+    /**
+     * Add the cycle c0->c1->...->cm->c0 to FORWARD, where CYCLE is
+     * c0c1...cm in ALPHABET.
+     */
+    private static void addCycle(String cycle, Alphabet alphabet,
+                                 int[] forward) {
+        int length = cycle.length();
+        for (int i = 0; i < length; i++) {
+            int index = alphabet.toInt(cycle.charAt(i));
+            if (forward[index] != -1) {
+                throw EnigmaException.error("config error, duplicate "
+                                + "character `%c` in permutation.",
+                        cycle.charAt(i));
+            }
+            forward[index] = alphabet.toInt(cycle.charAt((i + 1) % length));
+        }
+    }
+
+    /**
+     * Matches one cycle.
+     */
+    private static final Pattern CYCLE = Pattern.compile("\\(.*?\\)");
+
+    /**
+     * Interned wirings by key.  A wiring holds its key strongly, so an
+     * entry lives exactly as long as its wiring is in use.
+     */
+    private static final Map<String, WeakReference<Wiring>> INTERNED =
+            new WeakHashMap<>();
+
+    /**
+     * My key in INTERNED, or null if I am not interned.
+     */
+    private final String _key;
+
+    /**
+     * Number of indices permuted.
+     */
+    private final int _size;
+
+    /**
+     * The index each index maps to.
+     */
+    private final IndexTable _forward;
+
+    /**
+     * The inverse of _forward, once built.
+     */
+    private volatile IndexTable _inverse;
+
+    /**
+     * Whether I am a derangement, once computed.
+     */
+    private volatile Boolean _derangement;
+
+    /**
+     * Per-setting forward table, once built.
+     */
+    private volatile int[] _forwardBySetting;
+
+    /**
+     * Per-setting backward table, once built.
+     */
+    private volatile int[] _backwardBySetting;
+}
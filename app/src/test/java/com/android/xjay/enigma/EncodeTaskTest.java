@@ -0,0 +1,174 @@
+package com.android.xjay.enigma;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import enigma.EncryptionCache;
+import enigma.EnigmaException;
+import enigma.Simulator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for EncodeTask, run with executors that queue their
+ * tasks until told to run them.
+ */
+public class EncodeTaskTest {
+
+    /**
+     * An executor that holds tasks until runAll() is called.
+     */
+    private static class QueueExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * A callback that records everything it receives.
+     */
+    private static class Recorder implements EncodeTask.Callback {
+        boolean started, finished;
+        Throwable error;
+        int lastPercent = -1;
+        int chunks;
+        StringBuilder output = new StringBuilder();
+
+        @Override
+        public void onStarted() {
+            started = true;
+        }
+
+        @Override
+        public void onProgress(int percent) {
+            assertTrue(percent >= lastPercent);
+            lastPercent = percent;
+        }
+
+        @Override
+        public void onOutput(CharSequence chunk) {
+            chunks += 1;
+            output.append(chunk);
+        }
+
+        @Override
+        public void onFinished() {
+            finished = true;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+        }
+    }
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    private static String message(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('A' + (i * 7) % 26));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void deliversSimulatorOutputInChunks() {
+        String input = SETTINGS + "\n" + message(30000);
+        Simulator expected = new Simulator(input);
+        expected.process();
+
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor ui = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        new EncodeTask(input, background, ui, recorder).start();
+        ui.runAll();
+        assertTrue(recorder.started);
+        assertEquals(0, recorder.output.length());
+        background.runAll();
+        ui.runAll();
+
+        assertTrue(recorder.finished);
+        assertNull(recorder.error);
+        assertEquals(100, recorder.lastPercent);
+        assertEquals(expected.getEncode(), recorder.output.toString());
+        assertTrue(recorder.chunks > 1);
+    }
+
+    @Test
+    public void cancelSuppressesCallbacks() {
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor ui = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        EncodeTask task = new EncodeTask(SETTINGS + "\n" + message(100),
+                background, ui, recorder);
+        task.start();
+        background.runAll();
+        task.cancel();
+        ui.runAll();
+        assertTrue(task.isCancelled());
+        assertFalse(recorder.started);
+        assertFalse(recorder.finished);
+        assertEquals(0, recorder.output.length());
+    }
+
+    @Test
+    public void reportsErrors() {
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor ui = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        new EncodeTask("* B Beta III IV I AXLE\nHELLO1", background, ui,
+                recorder).start();
+        background.runAll();
+        ui.runAll();
+        assertTrue(recorder.error instanceof EnigmaException);
+        assertFalse(recorder.finished);
+    }
+
+    @Test
+    public void reportsUnexpectedFailures() {
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor ui = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        new EncodeTask(null, background, ui, recorder).start();
+        background.runAll();
+        ui.runAll();
+        assertTrue(recorder.error instanceof NullPointerException);
+        assertFalse(recorder.finished);
+    }
+
+    @Test
+    public void repeatedInputComesFromTheCache() {
+        String input = SETTINGS + "\n" + message(1000);
+        EncryptionCache cache = new EncryptionCache(1 << 20);
+        String[] outputs = new String[2];
+        for (int k = 0; k < outputs.length; k++) {
+            QueueExecutor background = new QueueExecutor();
+            QueueExecutor ui = new QueueExecutor();
+            Recorder recorder = new Recorder();
+            EncodeTask task = new EncodeTask(input, background, ui, recorder);
+            task.setCache(cache);
+            task.start();
+            background.runAll();
+            ui.runAll();
+            assertTrue(recorder.finished);
+            outputs[k] = recorder.output.toString();
+        }
+        assertEquals(outputs[0], outputs[1]);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+}
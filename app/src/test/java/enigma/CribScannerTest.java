@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of CribScanner.
+ */
+public class CribScannerTest {
+
+    @Test
+    public void matchesDirectComparison() {
+        Random random = new Random(48);
+        Alphabet alphabet = new Alphabet();
+        int length = 2 * CribScanner.CHUNK + 1000;
+        int[] ciphertext = new int[length];
+        for (int i = 0; i < length; i++) {
+            ciphertext[i] = random.nextInt(alphabet.size());
+        }
+        List<String> cribs = new ArrayList<>();
+        for (int len : new int[] {1, 5, 63, 64, 65, 150}) {
+            StringBuilder crib = new StringBuilder();
+            for (int j = 0; j < len; j++) {
+                crib.append(alphabet.toChar(random.nextInt(2)));
+            }
+            cribs.add(crib.toString());
+        }
+        CribScanner scanner = new CribScanner(alphabet, cribs);
+        for (int n : new int[] {0, 100, CribScanner.CHUNK + 7, length}) {
+            long[][] one = scanner.scan(ciphertext, n, 1);
+            long[][] many = scanner.scan(ciphertext, n, 3);
+            for (int c = 0; c < cribs.size(); c++) {
+                assertArrayEquals(one[c], many[c]);
+                String crib = cribs.get(c);
+                List<Integer> expected = new ArrayList<>();
+                for (int o = 0; o + crib.length() <= n; o++) {
+                    int j = 0;
+                    while (j < crib.length() && ciphertext[o + j]
+                           != alphabet.toInt(crib.charAt(j))) {
+                        j += 1;
+                    }
+                    if (j == crib.length()) {
+                        expected.add(o);
+                    }
+                }
+                int[] found = CribScanner.offsets(one[c]);
+                assertEquals(expected.size(), found.length);
+                for (int i = 0; i < found.length; i++) {
+                    assertEquals((int) expected.get(i), found[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void trueOffsetIsAdmissible() {
+        Machine machine = Simulator.defaultMachine(
+                "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+        String plain = "FROMHIGHCOMMANDWETTERVORHERSAGEBISKAYAKEINEBESONDER"
+                + "HEITENHEILHITLER";
+        String cipher = machine.convert(plain);
+        int[] letters = new int[cipher.length()];
+        Alphabet alphabet = machine.alphabet();
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = alphabet.toInt(cipher.charAt(i));
+        }
+        CribScanner scanner = new CribScanner(alphabet,
+                Arrays.asList("WETTER VORHERSAGE", "HEIL HITLER"));
+        long[][] offsets = scanner.scan(letters, letters.length, 2);
+        int[] weather = CribScanner.offsets(offsets[0]);
+        int[] heil = CribScanner.offsets(offsets[1]);
+        assertTrue(Arrays.binarySearch(weather, plain.indexOf("WETTER")) >= 0);
+        assertTrue(Arrays.binarySearch(heil, plain.indexOf("HEILHITLER"))
+                >= 0);
+        assertTrue(heil.length < letters.length - 9);
+    }
+}
@@ -0,0 +1,582 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Differential tests of every fast path against Machine.convert(String),
+ * on machines with random alphabets, wirings, notches, rings and
+ * plugboards.  The seed is taken from the enigma.seed property.  The
+ * throughput gate requires the compiled engine to be at least
+ * enigma.minSpeedup times faster than Machine; the build sets it from
+ * gradle.properties, and a run without it uses MIN_SPEEDUP.
+ */
+public class DifferentialTest {
+
+    private static final long SEED = Long.getLong("enigma.seed", 35);
+
+    private static final int MACHINES = 60;
+
+    /**
+     * Default speedup of the throughput gate, well below what the
+     * compiled engine reaches so that a loaded machine still passes.
+     */
+    private static final String MIN_SPEEDUP = "3";
+
+    private static final String DEFAULT_SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /**
+     * A random machine that can be built any number of times.
+     */
+    static final class Spec {
+
+        /**
+         * A random machine of SIZE characters, NUMROTORS slots and
+         * NUMPAWLS pawls, drawn from RANDOM.
+         */
+        Spec(Random random, int size, int numRotors, int numPawls) {
+            _numRotors = numRotors;
+            _numPawls = numPawls;
+            _alphabet = alphabet(random, size);
+            int first = numRotors - numPawls;
+            _reflectors = new String[] {
+                pairs(random, size / 2), pairs(random, size / 2)
+            };
+            _fixed = new String[first];
+            for (int i = 0; i < _fixed.length; i++) {
+                _fixed[i] = cycles(random);
+            }
+            _moving = new String[numPawls + 1];
+            _notches = new String[numPawls + 1];
+            for (int i = 0; i < _moving.length; i++) {
+                _moving[i] = cycles(random);
+                StringBuilder notches = new StringBuilder();
+                for (int k = random.nextInt(4); k > 0; k--) {
+                    char c = _alphabet.charAt(random.nextInt(size));
+                    if (notches.indexOf(String.valueOf(c)) < 0) {
+                        notches.append(c);
+                    }
+                }
+                _notches[i] = notches.toString();
+            }
+            _slots = new String[numRotors];
+            _slots[0] = "R" + random.nextInt(2);
+            int[] fixed = shuffled(random, _fixed.length);
+            for (int i = 1; i < first; i++) {
+                _slots[i] = "F" + fixed[i - 1];
+            }
+            int[] moving = shuffled(random, _moving.length);
+            for (int i = first; i < numRotors; i++) {
+                _slots[i] = "M" + moving[i - first];
+            }
+            _positions = characters(random, numRotors - 1);
+            _rings = characters(random, numRotors - 1);
+            _plugboard = pairs(random, random.nextInt(size / 2 + 1));
+        }
+
+        /**
+         * Return a new machine set up as I describe.
+         */
+        Machine build() {
+            Alphabet alphabet = new Alphabet(_alphabet);
+            ArrayList<Rotor> rotors = new ArrayList<>();
+            for (int i = 0; i < _reflectors.length; i++) {
+                rotors.add(new Reflector("R" + i,
+                        new Permutation(_reflectors[i], alphabet)));
+            }
+            for (int i = 0; i < _fixed.length; i++) {
+                rotors.add(new FixedRotor("F" + i,
+                        new Permutation(_fixed[i], alphabet)));
+            }
+            for (int i = 0; i < _moving.length; i++) {
+                rotors.add(new MovingRotor("M" + i,
+                        new Permutation(_moving[i], alphabet), _notches[i]));
+            }
+            Machine machine = new Machine(alphabet, _numRotors, _numPawls,
+                    rotors);
+            machine.insertRotors(_slots);
+            machine.setRotors(_positions);
+            machine.setRings(_rings);
+            machine.setPlugboard(new Permutation(_plugboard, alphabet));
+            return machine;
+        }
+
+        /**
+         * Return a random message of LENGTH characters of my alphabet.
+         */
+        String message(Random random, int length) {
+            char[] msg = new char[length];
+            for (int i = 0; i < length; i++) {
+                msg[i] = _alphabet.charAt(random.nextInt(_alphabet.length()));
+            }
+            return new String(msg);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d chars, %d/%d, %s %s %s %s",
+                    _alphabet.length(), _numRotors, _numPawls,
+                    Arrays.toString(_slots), _positions, _rings,
+                    _plugboard);
+        }
+
+        /**
+         * Return SIZE distinct characters in random order.
+         */
+        private static String alphabet(Random random, int size) {
+            char base = size <= 62 ? '0' : '\u0100';
+            StringBuilder chars = new StringBuilder();
+            for (int c = base; chars.length() < Math.max(size, 62); c++) {
+                if (Character.isLetterOrDigit((char) c)) {
+                    chars.append((char) c);
+                }
+            }
+            StringBuilder result = new StringBuilder();
+            for (int k : shuffled(random, chars.length())) {
+                if (result.length() < size) {
+                    result.append(chars.charAt(k));
+                }
+            }
+            return result.toString();
+        }
+
+        /**
+         * Return COUNT random disjoint pairs of my characters as cycles.
+         */
+        private String pairs(Random random, int count) {
+            int[] order = shuffled(random, _alphabet.length());
+            StringBuilder cycles = new StringBuilder();
+            for (int k = 0; k < count; k++) {
+                cycles.append('(').append(_alphabet.charAt(order[2 * k]))
+                        .append(_alphabet.charAt(order[2 * k + 1]))
+                        .append(") ");
+            }
+            return cycles.toString();
+        }
+
+        /**
+         * Return a random permutation of my characters as cycles.
+         */
+        private String cycles(Random random) {
+            int[] order = shuffled(random, _alphabet.length());
+            StringBuilder cycles = new StringBuilder();
+            int k = 0;
+            while (k < order.length) {
+                int length = 1 + random.nextInt(order.length - k);
+                cycles.append('(');
+                for (int end = k + length; k < end; k++) {
+                    cycles.append(_alphabet.charAt(order[k]));
+                }
+                cycles.append(')');
+            }
+            return cycles.toString();
+        }
+
+        /**
+         * Return COUNT random characters of my alphabet.
+         */
+        private String characters(Random random, int count) {
+            StringBuilder result = new StringBuilder();
+            for (int k = 0; k < count; k++) {
+                result.append(_alphabet.charAt(
+                        random.nextInt(_alphabet.length())));
+            }
+            return result.toString();
+        }
+
+        /**
+         * Return 0 .. N - 1 in random order.
+         */
+        private static int[] shuffled(Random random, int n) {
+            int[] result = new int[n];
+            for (int i = 0; i < n; i++) {
+                int j = random.nextInt(i + 1);
+                result[i] = result[j];
+                result[j] = i;
+            }
+            return result;
+        }
+
+        private final int _numRotors;
+        private final int _numPawls;
+        private final String _alphabet;
+        private final String[] _reflectors;
+        private final String[] _fixed;
+        private final String[] _moving;
+        private final String[] _notches;
+        private final String[] _slots;
+        private final String _positions;
+        private final String _rings;
+        private final String _plugboard;
+    }
+
+    /**
+     * Return the random machines shared by the tests.
+     */
+    static Spec[] specs() {
+        Random random = new Random(SEED);
+        Spec[] specs = new Spec[MACHINES];
+        for (int k = 0; k < specs.length; k++) {
+            int size = k % 10 == 9 ? 256 : 2 * (1 + random.nextInt(31));
+            int numRotors = k % 3 == 0 ? 5 : 2 + random.nextInt(5);
+            int numPawls = k % 3 == 0 ? 3 : 1 + random.nextInt(numRotors - 1);
+            specs[k] = new Spec(random, size, numRotors, numPawls);
+        }
+        return specs;
+    }
+
+    /**
+     * Return LENGTH random upper-case letters.
+     */
+    private static String letters(Random random, int length) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(result);
+    }
+
+    /**
+     * Return the indices in MACHINE's alphabet of the characters of MSG.
+     */
+    private static int[] indices(Machine machine, String msg) {
+        int[] result = new int[msg.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = machine.alphabet().toInt(msg.charAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Return the positions of MACHINE's moving rotors.
+     */
+    private static int[] positions(Machine machine) {
+        int[] result = new int[machine.numPawls()];
+        machine.savePositions(result, 0);
+        return result;
+    }
+
+    @Test
+    public void fastPathsMatchMachine() {
+        Random random = new Random(SEED + 1);
+        for (Spec spec : specs()) {
+            String msg = spec.message(random, 2000 + random.nextInt(3000));
+            Machine reference = spec.build();
+            int[] expected = indices(reference, reference.convert(msg));
+            int[] input = indices(reference, msg);
+
+            Machine bulk = spec.build();
+            int[] actual = input.clone();
+            bulk.convert(actual, 0, actual.length);
+            assertArrayEquals(spec + ": int[]", expected, actual);
+
+            Machine source = spec.build();
+            CompiledEngine[] engines = {
+                CompiledEngine.compile(source), new TableMachine(source)
+            };
+            for (CompiledEngine engine : engines) {
+                actual = input.clone();
+                engine.convert(actual, 0, actual.length);
+                assertArrayEquals(spec + ": " + engine.getClass(),
+                        expected, actual);
+                engine.store(source);
+                assertArrayEquals(spec + ": store", positions(reference),
+                        positions(source));
+                source = spec.build();
+            }
+
+            if (reference.alphabet().size() == 256) {
+                byte[] data = new byte[input.length];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) input[i];
+                }
+                spec.build().convert(data, 0, data.length);
+                for (int i = 0; i < data.length; i++) {
+                    actual[i] = data[i] & 0xFF;
+                }
+                assertArrayEquals(spec + ": byte[]", expected, actual);
+            }
+
+            Machine sought = spec.build();
+            SteppingSchedule.of(sought).seek(sought, msg.length());
+            assertArrayEquals(spec + ": seek", positions(reference),
+                    positions(sought));
+        }
+    }
+
+    @Test
+    public void steppingStrategiesMatchMachine() {
+        Random random = new Random(SEED + 9);
+        for (Spec spec : specs()) {
+            String msg = spec.message(random, 1000 + random.nextInt(2000));
+            Alphabet alphabet = spec.build().alphabet();
+            String sleeve = "" + alphabet.toChar(0)
+                    + alphabet.toChar(alphabet.size() / 2);
+            SteppingStrategy[] strategies = {
+                SteppingStrategy.ODOMETER, SteppingStrategy.GEARED,
+                SteppingStrategy.multiNotch(sleeve),
+            };
+            for (SteppingStrategy stepping : strategies) {
+                String where = spec + " " + stepping;
+                Machine reference = spec.build();
+                reference.setStepping(stepping);
+                int[] expected = indices(reference, reference.convert(msg));
+                int[] input = indices(reference, msg);
+
+                Machine source = spec.build();
+                source.setStepping(stepping);
+                CompiledEngine[] engines = {
+                    CompiledEngine.compile(source), new TableMachine(source)
+                };
+                for (CompiledEngine engine : engines) {
+                    int[] actual = input.clone();
+                    engine.convert(actual, 0, actual.length);
+                    assertArrayEquals(where + ": " + engine.getClass(),
+                            expected, actual);
+                }
+
+                Machine sought = spec.build();
+                sought.setStepping(stepping);
+                SteppingSchedule.of(sought).seek(sought, msg.length());
+                assertArrayEquals(where + ": seek", positions(reference),
+                        positions(sought));
+            }
+        }
+    }
+
+    @Test
+    public void tieredEngineMatchesMachine() {
+        Random random = new Random(SEED + 10);
+        TieredEngine.Thresholds[] thresholds = {
+            new TieredEngine.Thresholds(0, 0),
+            new TieredEngine.Thresholds(40, 300),
+            new TieredEngine.Thresholds(Long.MAX_VALUE, Long.MAX_VALUE),
+            TieredEngine.Thresholds.loadDefault(),
+        };
+        for (Spec spec : specs()) {
+            String msg = spec.message(random, 1000 + random.nextInt(1000));
+            Machine reference = spec.build();
+            int[] expected = indices(reference, reference.convert(msg));
+            int[] input = indices(reference, msg);
+            for (TieredEngine.Thresholds limits : thresholds) {
+                String where = spec + " " + limits;
+                Machine machine = spec.build();
+                TieredEngine engine = new TieredEngine(machine, limits);
+                int[] actual = input.clone();
+                for (int i = 0; i < actual.length; ) {
+                    int n = Math.min(actual.length - i,
+                            random.nextInt(4) == 0 ? 1 : random.nextInt(400));
+                    if (n == 1) {
+                        actual[i] = engine.convert(actual[i]);
+                    } else {
+                        engine.convert(actual, i, n);
+                    }
+                    i += n;
+                    if (random.nextInt(8) == 0) {
+                        engine.sync();
+                    }
+                }
+                engine.sync();
+                assertArrayEquals(where, expected, actual);
+                assertArrayEquals(where + ": sync", positions(reference),
+                        positions(machine));
+                long total = 0;
+                for (TieredEngine.Tier tier : TieredEngine.Tier.values()) {
+                    total += engine.letters(tier);
+                }
+                assertEquals(where, actual.length, total);
+            }
+        }
+    }
+
+    @Test
+    public void encryptingTwiceIsTheIdentity() {
+        Random random = new Random(SEED + 2);
+        for (Spec spec : specs()) {
+            String msg = spec.message(random, 1000 + random.nextInt(1000));
+            Machine machine = spec.build();
+            assertEquals(spec.toString(), msg,
+                    spec.build().convert(machine.convert(msg)));
+            int[] input = indices(machine, msg);
+            int[] twice = input.clone();
+            CompiledEngine.compile(spec.build())
+                    .convert(twice, 0, twice.length);
+            new TableMachine(spec.build()).convert(twice, 0, twice.length);
+            assertArrayEquals(spec.toString(), input, twice);
+        }
+    }
+
+    @Test
+    public void streamingMatchesMachine() {
+        Random random = new Random(SEED + 3);
+        for (int round = 0; round < 20; round++) {
+            String settings = DEFAULT_SETTINGS.replace("AXLE",
+                    letters(random, 4));
+            LiveSession session = new LiveSession(settings);
+            StringBuilder text = new StringBuilder();
+            for (int edit = 0; edit < 200; edit++) {
+                int start = random.nextInt(text.length() + 1);
+                int before = random.nextInt(text.length() - start + 1);
+                String inserted = random.nextInt(4) == 0 ? ""
+                        : "hello, World".substring(random.nextInt(12));
+                text.replace(start, start + before, inserted);
+                session.update(text, start, before, inserted.length());
+            }
+            String letters = text.toString().toUpperCase()
+                    .replaceAll("[^A-Z]", "");
+            assertEquals(settings,
+                    Simulator.defaultMachine(settings).convert(letters),
+                    session.ciphertext().toString());
+        }
+    }
+
+    @Test
+    public void permutationStreamsMatchMachine() throws IOException {
+        File directory = Files.createTempDirectory("perm").toFile();
+        for (Spec spec : specs()) {
+            Machine reference = spec.build();
+            int size = reference.alphabet().size();
+            int[] start = positions(reference);
+            int[] expected = new int[size];
+            int[] actual = new int[size];
+            PermutationStream stream = new PermutationStream(spec.build());
+            for (int k = 0; k < 300; k++) {
+                for (int c = 0; c < size; c++) {
+                    reference.loadPositions(start, 0);
+                    expected[c] = reference.convert(c);
+                }
+                start = positions(reference);
+                stream.next(actual);
+                assertArrayEquals(spec + ": keystroke " + k, expected,
+                        actual);
+            }
+
+            PermutationStream computed = new PermutationStream(spec.build());
+            PermutationStream first =
+                    PermutationStream.cached(spec.build(), directory);
+            byte[] pairs = new byte[computed.width()];
+            byte[] cached = new byte[computed.width()];
+            for (int k = 0; k < 500; k++) {
+                computed.next(pairs, 0);
+                if (k < 200) {
+                    first.next(cached, 0);
+                    assertArrayEquals(spec.toString(), pairs, cached);
+                }
+            }
+            first.close();
+            computed = new PermutationStream(spec.build());
+            PermutationStream second =
+                    PermutationStream.cached(spec.build(), directory);
+            assertEquals(spec.toString(), 200, second.cached());
+            for (int k = 0; k < 500; k++) {
+                computed.next(pairs, 0);
+                second.next(cached, 0);
+                assertArrayEquals(spec.toString(), pairs, cached);
+            }
+            second.close();
+        }
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+    }
+
+    /**
+     * Ciphertexts of the original machine, whose stepping every fast
+     * path is compared against, so that they are checked against more
+     * than each other.
+     */
+    @Test
+    public void defaultMachineMatchesGoldenCiphertexts() {
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                Simulator.defaultMachine(DEFAULT_SETTINGS)
+                        .convert("FROMHISSHOULDERHIAWATHA"));
+        StringBuilder msg = new StringBuilder();
+        while (msg.length() < 150) {
+            msg.append("WETTERVORHERSAGEBISKAYA");
+        }
+        msg.setLength(150);
+        String[][] golden = {
+            {DEFAULT_SETTINGS,
+             "CPWNWLHSXQABGCFXGAWPBSWZCACLVCHWBAAQUMWTWLSKDZSKLJJXZMJJZY"
+             + "FPJUCUQABHWUVAFILABCIFJTWIJJQAXZLIDBJVOBSUAGLVKVHNKYNYIMF"
+             + "TLSGXVHZAKRSICZIYJUISZQQAEBJKISUCCZ"},
+            {"* B Beta I II III AADU",
+             "OBNFGHOQKXOTBKBSHZETQQIZBQEOJYAGKIWKDTKZEKNMFRLCKCNSRLBUWK"
+             + "OYXRVQHGWQCLBPXPUDFTPSXXSCGNXJXPMGQMQJONPGHWQJOEDPVQKVKEU"
+             + "NCIXHJDHBYREGXKNWZYGMTBYJXKITNSZSGS"},
+            {"* C Gamma VI VII VIII ZZYY QRSA (AB) (CD)",
+             "ARADZWHPFXRMPZYWJPXNFOODSYWSWDYDYHXXJICYACEMCZPSRZLLYDYJIM"
+             + "KZYDUKACBQJXRFKHXZVSOHILRKIAZJWZOKRCWHSOKGNWTCJQMTCZOVNSV"
+             + "HNINOKIYUEUEQZYACSWUGZKAMYCWFGNEQLL"},
+        };
+        for (String[] pair : golden) {
+            Machine machine = Simulator.defaultMachine(pair[0]);
+            assertEquals(pair[0], pair[1], machine.convert(msg.toString()));
+            machine = Simulator.defaultMachine(pair[0]);
+            int[] letters = indices(machine, msg.toString());
+            CompiledEngine.compile(machine).convert(letters, 0,
+                    letters.length);
+            assertArrayEquals(pair[0], indices(machine, pair[1]), letters);
+        }
+    }
+
+    @Test
+    public void keyRecordsMatchSettingsLines() {
+        Random random = new Random(SEED + 4);
+        Machine machine = Simulator.defaultMachine(DEFAULT_SETTINGS);
+        KeyRecord format = new KeyRecord(machine);
+        ByteBuffer record = ByteBuffer.allocate(format.width());
+        String[] lines = {
+            DEFAULT_SETTINGS,
+            "* C Gamma VI VII VIII ZZYY QRSA (AB) (CD)",
+            "* B Beta I II V KDOZ",
+        };
+        for (String line : lines) {
+            record.clear();
+            format.encode(line, record);
+            format.apply(record, 0);
+            String msg = letters(random, 3000);
+            assertEquals(line, Simulator.defaultMachine(line).convert(msg),
+                    machine.convert(msg));
+        }
+    }
+
+    @Test
+    public void compiledEngineIsFastEnough() {
+        double minSpeedup = Double.parseDouble(
+                System.getProperty("enigma.minSpeedup", MIN_SPEEDUP));
+        int[] msg = new int[1 << 20];
+        Random random = new Random(SEED + 5);
+        for (int i = 0; i < msg.length; i++) {
+            msg[i] = random.nextInt(26);
+        }
+        double machine = 0, compiled = 0;
+        for (int round = 0; round < 6; round++) {
+            int[] copy = msg.clone();
+            long start = System.nanoTime();
+            Simulator.defaultMachine(DEFAULT_SETTINGS)
+                    .convert(copy, 0, copy.length);
+            long middle = System.nanoTime();
+            CompiledEngine.compile(Simulator.defaultMachine(DEFAULT_SETTINGS))
+                    .convert(copy, 0, copy.length);
+            long end = System.nanoTime();
+            assertArrayEquals(msg, copy);
+            machine = Math.max(machine, 1.0 / (middle - start));
+            compiled = Math.max(compiled, 1.0 / (end - middle));
+        }
+        assertTrue(String.format("compiled engine is only %.1f times "
+                + "faster than Machine", compiled / machine),
+                compiled >= minSpeedup * machine);
+    }
+}
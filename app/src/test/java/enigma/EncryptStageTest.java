@@ -0,0 +1,188 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of EncryptStage, fed by an in-memory publisher.
+ */
+public class EncryptStageTest {
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Publishes a list of messages, as many as are requested.
+     */
+    static class ListPublisher implements Flow.Publisher<CharSequence> {
+
+        ListPublisher(List<String> items) {
+            _items = items;
+        }
+
+        @Override
+        public void subscribe(
+                final Flow.Subscriber<? super CharSequence> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    _requested += n;
+                    if (_emitting) {
+                        return;
+                    }
+                    _emitting = true;
+                    while (_requested > 0 && _sent < _items.size()) {
+                        _requested -= 1;
+                        subscriber.onNext(_items.get(_sent++));
+                    }
+                    if (_sent == _items.size() && !_completed) {
+                        _completed = true;
+                        subscriber.onComplete();
+                    }
+                    _emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    _cancelled = true;
+                }
+            });
+        }
+
+        private final List<String> _items;
+        private long _requested;
+        private int _sent;
+        private boolean _emitting, _completed, _cancelled;
+    }
+
+    /**
+     * Collects what it receives, requesting INITIAL items at the start.
+     */
+    static class Collector implements Flow.Subscriber<CharSequence> {
+
+        Collector(long initial) {
+            _initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            if (_initial > 0) {
+                subscription.request(_initial);
+            }
+        }
+
+        @Override
+        public void onNext(CharSequence item) {
+            _items.add(item.toString());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            _complete = true;
+        }
+
+        private final long _initial;
+        private Flow.Subscription _subscription;
+        private final List<String> _items = new ArrayList<>();
+        private Throwable _error;
+        private boolean _complete;
+    }
+
+    private static List<String> messages(int count) {
+        List<String> result = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            StringBuilder msg = new StringBuilder();
+            for (int i = 0; i < k % 13; i++) {
+                msg.append((char) ('A' + (7 * k + i) % 26));
+                if (i % 5 == 4) {
+                    msg.append(' ');
+                }
+            }
+            result.add(msg.toString());
+        }
+        return result;
+    }
+
+    @Test
+    public void continuousStageEncryptsOneText() {
+        List<String> input = messages(500);
+        EncryptStage stage = new EncryptStage(SETTINGS, true, 16, DIRECT);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        stage.subscribe(collector);
+        new ListPublisher(input).subscribe(stage);
+        assertTrue(collector._complete);
+        assertEquals(input.size(), collector._items.size());
+        StringBuilder plain = new StringBuilder();
+        StringBuilder cipher = new StringBuilder();
+        for (int k = 0; k < input.size(); k++) {
+            plain.append(input.get(k).replace(" ", ""));
+            cipher.append(collector._items.get(k));
+        }
+        assertEquals(Simulator.defaultMachine(SETTINGS)
+                .convert(plain.toString()), cipher.toString());
+        assertEquals(plain.length(), stage.characters());
+    }
+
+    @Test
+    public void resetStageStartsEachMessageAfresh() {
+        List<String> input = messages(100);
+        EncryptStage stage = new EncryptStage(SETTINGS, false, 8, DIRECT);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        stage.subscribe(collector);
+        new ListPublisher(input).subscribe(stage);
+        for (int k = 0; k < input.size(); k++) {
+            assertEquals(Simulator.defaultMachine(SETTINGS)
+                    .convert(input.get(k).replace(" ", "")),
+                    collector._items.get(k));
+        }
+    }
+
+    @Test
+    public void respectsBackpressure() {
+        EncryptStage stage = new EncryptStage(SETTINGS, true, 4, DIRECT);
+        Collector collector = new Collector(0);
+        stage.subscribe(collector);
+        ListPublisher publisher = new ListPublisher(messages(100));
+        publisher.subscribe(stage);
+        assertEquals(4, publisher._sent);
+        assertEquals(4, stage.queueDepth());
+        collector._subscription.request(3);
+        assertEquals(3, collector._items.size());
+        assertEquals(7, publisher._sent);
+        assertEquals(4, stage.queueDepth());
+        collector._subscription.cancel();
+        assertTrue(publisher._cancelled);
+    }
+
+    @Test
+    public void failsOnCharactersOutsideTheAlphabet() {
+        List<String> input = new ArrayList<>(messages(10));
+        input.add("HELLO, WORLD");
+        EncryptStage stage = new EncryptStage(SETTINGS, true, 4, DIRECT);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        stage.subscribe(collector);
+        ListPublisher publisher = new ListPublisher(input);
+        publisher.subscribe(stage);
+        assertTrue(collector._error instanceof EnigmaException);
+        assertFalse(collector._complete);
+        assertTrue(publisher._cancelled);
+    }
+}
@@ -0,0 +1,67 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of EncryptionCache.
+ */
+public class EncryptionCacheTest {
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    @Test
+    public void cachedOutputsMatchSimulator() {
+        EncryptionCache cache = new EncryptionCache(1 << 20);
+        String input = SETTINGS + "\nHELLO WORLD\nfrom here";
+        Simulator simulator = new Simulator(input);
+        simulator.setLenientInput(true);
+        simulator.process();
+        assertEquals(simulator.getEncode(), cache.process(input, true));
+        assertEquals(simulator.getEncode(), cache.process(input, true));
+        assertNull(cache.getEncode(input, false));
+        assertEquals(Simulator.defaultMachine(SETTINGS).convert("HELLO"),
+                cache.convert(SETTINGS, "HELLO"));
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(2, cache.entries());
+    }
+
+    @Test
+    public void outputsAreKeptPerFormatter() {
+        EncryptionCache cache = new EncryptionCache(1 << 20);
+        String input = SETTINGS + "\nFROMHISSHOULDERHIAWATHA";
+        GroupFormatter fours = new GroupFormatter(4, 8, " ", "\n");
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n",
+                cache.process(input, false));
+        assertNull(cache.getEncode(input, false, fours));
+        assertEquals("QVPQ SOKO\nILPU BKJZ\nPISF XDW\n",
+                cache.process(input, false, fours));
+        assertEquals("QVPQ SOKO\nILPU BKJZ\nPISF XDW\n",
+                cache.getEncode(input, false,
+                        new GroupFormatter(4, 8, " ", "\n")));
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n",
+                cache.getEncode(input, false));
+        assertEquals(2, cache.entries());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithinBudget() {
+        EncryptionCache cache = new EncryptionCache(2000);
+        String message = "ABCDEFGHIJKLMNOPQRSTUVWXYZABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        String[] positions = { "AAAA", "BBBB", "CCCC", "DDDD", "EEEE" };
+        for (String p : positions) {
+            cache.convert("* B Beta I II III " + p, message);
+            cache.convert("* B Beta I II III AAAA", message);
+            assertTrue(cache.toString(), cache.bytes() <= 2000);
+        }
+        assertTrue(cache.evictions() > 0);
+        long misses = cache.misses();
+        cache.convert("* B Beta I II III AAAA", message);
+        assertEquals(misses, cache.misses());
+        cache.convert("* B Beta I II III BBBB", message);
+        assertEquals(misses + 1, cache.misses());
+    }
+}
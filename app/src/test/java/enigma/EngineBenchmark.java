@@ -0,0 +1,296 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Throughput comparison of the engines, run by hand with
+ * <pre>
+ *     java -cp ... enigma.EngineBenchmark [MEGACHARS [PROFILE]]
+ * </pre>
+ * Each engine encrypts the same random message several times after a
+ * warm-up, and the best rate is reported in millions of characters per
+ * second.  Each stepping strategy is timed on Machine and on its
+ * compiled engine.  Quadgram scoring of the message, as candidate
+ * plaintexts of CANDIDATE letters, is timed the same way, in millions of
+ * scores per second, with the table in memory and mapped from a file.
+ * Laying the message out in groups of five, as Simulator prints it, is
+ * timed in megabytes of output per second.  The TieredEngine thresholds
+ * are calibrated and printed, and written to the tier profile PROFILE
+ * if it is given, e.g. to replace the default profile
+ * src/main/resources/enigma/tiers.properties.
+ * <p>
+ * A PermutationStream of MEGACHARS / 4 million keystrokes is timed
+ * without a cache, then writing its cache and then reading it, in
+ * nanoseconds per keystroke.  Scanning the message for CRIBS with
+ * CribScanner is timed in gigabytes of ciphertext per second, on one
+ * thread and, if there are more processors, on one per processor.
+ * Converting a text key sheet of MEGACHARS / 40 million random keys into
+ * a KeySheet is timed, and so is setting up from each of its records.
+ */
+public class EngineBenchmark {
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    private static final int CANDIDATE = 100;
+
+    private static final String[] CRIBS = {
+        "WETTERVORHERSAGE", "KEINEBESONDERENEREIGNISSE", "OBERKOMMANDO",
+    };
+
+    /**
+     * Something that can be set up and then timed.
+     */
+    interface Case {
+        /** Encrypt MSG in place with a freshly set-up engine. */
+        void run(int[] msg);
+    }
+
+    public static void main(String... args) throws IOException {
+        int length = (args.length > 0 ? Integer.parseInt(args[0]) : 4)
+                * 1000000;
+        int[] msg = new int[length];
+        Random random = new Random(0);
+        for (int i = 0; i < length; i++) {
+            msg[i] = random.nextInt(26);
+        }
+        report("Machine.convert(int)", msg, new Case() {
+            @Override
+            public void run(int[] m) {
+                Simulator.defaultMachine(SETTINGS).convert(m, 0, m.length);
+            }
+        });
+        report("TableMachine", msg, new Case() {
+            @Override
+            public void run(int[] m) {
+                new TableMachine(Simulator.defaultMachine(SETTINGS))
+                        .convert(m, 0, m.length);
+            }
+        });
+        report("Layout53Machine", msg, new Case() {
+            @Override
+            public void run(int[] m) {
+                new Layout53Machine(Simulator.defaultMachine(SETTINGS))
+                        .convert(m, 0, m.length);
+            }
+        });
+        TieredEngine.Thresholds thresholds =
+                TieredEngine.Thresholds.calibrate();
+        System.out.printf("%-28s %s%n", "TieredEngine thresholds",
+                thresholds);
+        if (args.length > 1) {
+            thresholds.save(new File(args[1]));
+        }
+        SteppingStrategy[] strategies = {
+            SteppingStrategy.DOUBLE_STEP, SteppingStrategy.ODOMETER,
+            SteppingStrategy.multiNotch("AEIMQUY"), SteppingStrategy.GEARED,
+        };
+        for (final SteppingStrategy stepping : strategies) {
+            report("Machine " + stepping, msg, new Case() {
+                @Override
+                public void run(int[] m) {
+                    Machine machine = Simulator.defaultMachine(SETTINGS);
+                    machine.setStepping(stepping);
+                    machine.convert(m, 0, m.length);
+                }
+            });
+            report("compiled " + stepping, msg, new Case() {
+                @Override
+                public void run(int[] m) {
+                    Machine machine = Simulator.defaultMachine(SETTINGS);
+                    machine.setStepping(stepping);
+                    CompiledEngine.compile(machine).convert(m, 0, m.length);
+                }
+            });
+        }
+        Alphabet alphabet = Simulator.defaultMachine(SETTINGS).alphabet();
+        NgramScorer trained = NgramScorer.train(alphabet, 4, msg, 0,
+                msg.length);
+        File table = File.createTempFile("quadgrams", ".bin");
+        try {
+            trained.write(table);
+            reportScores("NgramScorer (float[])",
+                    NgramScorer.load(alphabet, table), msg);
+            reportScores("NgramScorer (mapped)",
+                    NgramScorer.map(alphabet, table), msg);
+        } finally {
+            table.delete();
+        }
+        char[] letters = new char[length];
+        for (int i = 0; i < length; i++) {
+            letters[i] = alphabet.toChar(msg[i]);
+        }
+        reportFormat("GroupFormatter FIVES", GroupFormatter.FIVES, letters);
+        CribScanner scanner = new CribScanner(alphabet,
+                Arrays.asList(CRIBS));
+        reportScan("CribScanner, 1 thread", scanner, msg, 1);
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (processors > 1) {
+            reportScan("CribScanner, " + processors + " threads", scanner,
+                    msg, processors);
+        }
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        long keystrokes = length / 4;
+        reportStream("PermutationStream", new PermutationStream(machine),
+                keystrokes);
+        File cache = Files.createTempDirectory("permutations").toFile();
+        try {
+            reportStream("PermutationStream writing",
+                    PermutationStream.cached(machine, cache), keystrokes);
+            reportStream("PermutationStream reading",
+                    PermutationStream.cached(machine, cache), keystrokes);
+        } finally {
+            for (File file : cache.listFiles()) {
+                file.delete();
+            }
+            cache.delete();
+        }
+        reportKeySheet(machine, length / 40, random);
+    }
+
+    /**
+     * Time converting a text key sheet of N keys of MACHINE's rotor set,
+     * drawn from RANDOM, into a KeySheet and setting MACHINE up from
+     * each of its records, and print the times.
+     */
+    static void reportKeySheet(Machine machine, int n, Random random)
+            throws IOException {
+        File text = File.createTempFile("keys", ".txt");
+        File sheet = File.createTempFile("keys", ".bin");
+        try {
+            KeySpace space = new KeySpace(machine);
+            PrintWriter out = new PrintWriter(text, "UTF-8");
+            for (int i = 0; i < n; i++) {
+                long key = (long) (random.nextDouble() * space.size());
+                out.println(space.describe(key, machine.alphabet()));
+            }
+            out.close();
+            long start = System.nanoTime();
+            long count = KeySheet.write(machine, text, sheet);
+            long written = System.nanoTime();
+            KeySheet keys = KeySheet.open(machine, sheet);
+            try {
+                for (long k = 0; k < keys.size(); k++) {
+                    keys.load(k);
+                }
+            } finally {
+                keys.close();
+            }
+            long loaded = System.nanoTime();
+            System.out.printf("%-28s %10.1f ms for %d records%n",
+                    "KeySheet.write", (written - start) / 1e6, count);
+            System.out.printf("%-28s %10.1f ns/record%n", "KeySheet.load",
+                    (loaded - written) / (double) Math.max(1, count));
+        } finally {
+            text.delete();
+            sheet.delete();
+        }
+    }
+
+    /**
+     * Time scanning MSG with SCANNER on THREADS threads and print the
+     * best rate under NAME, with the offsets left for each crib.
+     */
+    static void reportScan(String name, CribScanner scanner, int[] msg,
+                           int threads) {
+        double best = 0;
+        long[][] offsets = null;
+        for (int round = 0; round < 8; round++) {
+            long start = System.nanoTime();
+            offsets = scanner.scan(msg, msg.length, threads);
+            long elapsed = System.nanoTime() - start;
+            if (round >= 3) {
+                best = Math.max(best, msg.length / (double) elapsed);
+            }
+        }
+        StringBuilder left = new StringBuilder();
+        for (long[] crib : offsets) {
+            left.append(left.length() == 0 ? "" : " ")
+                    .append(CribScanner.count(crib));
+        }
+        System.out.printf("%-28s %10.2f GB/s (%s)%n", name, best, left);
+    }
+
+    /**
+     * Time producing N keystrokes with STREAM, close it, and print the
+     * time per keystroke under NAME.
+     */
+    static void reportStream(String name, PermutationStream stream,
+                             long n) {
+        byte[] pairs = new byte[stream.width()];
+        long start = System.nanoTime();
+        long check = 0;
+        for (long k = 0; k < n; k++) {
+            stream.next(pairs, 0);
+            check += pairs[0];
+        }
+        stream.close();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-28s %10.1f ns/keystroke (%d)%n", name,
+                elapsed / (double) Math.max(1, n), check);
+    }
+
+    /**
+     * Time laying out LETTERS with FORMATTER into an array and print the
+     * best rate under NAME.
+     */
+    static void reportFormat(String name, GroupFormatter formatter,
+                             char[] letters) {
+        char[] out = new char[formatter.length(letters.length)];
+        double best = 0;
+        for (int round = 0; round < 8; round++) {
+            long start = System.nanoTime();
+            formatter.format(letters, 0, letters.length, out, 0);
+            long elapsed = System.nanoTime() - start;
+            if (round >= 3) {
+                best = Math.max(best, out.length * 1e3 / elapsed);
+            }
+        }
+        System.out.printf("%-28s %10.1f MB/s%n", name, best);
+    }
+
+    /**
+     * Time scoring MSG with SCORER, CANDIDATE letters at a time, and
+     * print the best rate under NAME.
+     */
+    static void reportScores(String name, NgramScorer scorer, int[] msg) {
+        double best = 0;
+        float total = 0;
+        for (int round = 0; round < 8; round++) {
+            long start = System.nanoTime();
+            int scores = 0;
+            for (int i = 0; i + CANDIDATE <= msg.length; i += CANDIDATE) {
+                total += scorer.score(msg, i, CANDIDATE);
+                scores += 1;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= 3) {
+                best = Math.max(best, scores * 1e3 / elapsed);
+            }
+        }
+        System.out.printf("%-28s %10.2f Mscores/s (%.0f)%n", name, best,
+                total);
+    }
+
+    /**
+     * Time CASE on copies of MSG and print the best rate under NAME.
+     */
+    static void report(String name, int[] msg, Case c) {
+        double best = 0;
+        for (int round = 0; round < 8; round++) {
+            int[] copy = msg.clone();
+            long start = System.nanoTime();
+            c.run(copy);
+            long elapsed = System.nanoTime() - start;
+            if (round >= 3) {
+                best = Math.max(best, copy.length * 1e3 / elapsed);
+            }
+        }
+        System.out.printf("%-28s %10.1f Mchars/s%n", name, best);
+    }
+}
@@ -0,0 +1,141 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of GroupFormatter through each of its outputs.
+ */
+public class GroupFormatterTest {
+
+    /**
+     * Return MSG formatted by FORMATTER, checking that every output
+     * gives the same text and that length() predicts it.
+     */
+    private static String format(GroupFormatter formatter, String msg)
+            throws IOException {
+        char[] src = ("<" + msg + ">").toCharArray();
+        int count = msg.length();
+
+        StringBuilder built = new StringBuilder("<");
+        formatter.format(msg, 0, count, built);
+        String result = built.substring(1);
+        assertEquals(result.length(), formatter.length(count));
+
+        for (int from = 0; from <= count; from += 1 + count / 7) {
+            StringBuilder extended = new StringBuilder();
+            formatter.format(msg, 0, from, extended);
+            formatter.formatTail(msg, 0, from, count, extended);
+            assertEquals(result, extended.toString());
+        }
+
+        char[] dst = new char[formatter.length(count) + 2];
+        int end = formatter.format(src, 1, count, dst, 1);
+        assertEquals(dst.length - 1, end);
+        assertEquals(result, new String(dst, 1, end - 1));
+
+        StringWriter writer = new StringWriter();
+        formatter.format(src, 1, count, writer);
+        assertEquals(result, writer.toString());
+
+        ByteBuffer bytes = ByteBuffer.allocate(formatter.length(count));
+        formatter.format(src, 1, count, bytes);
+        assertFalse(bytes.hasRemaining());
+        assertEquals(result, new String(bytes.array(), "ISO-8859-1"));
+        return result;
+    }
+
+    /**
+     * Return MSG formatted a letter at a time, with GROUPSIZE,
+     * LINEWIDTH, GROUPSEPARATOR and LINESEPARATOR as for GroupFormatter.
+     */
+    private static String slowly(String msg, int groupSize, int lineWidth,
+                                 String groupSeparator,
+                                 String lineSeparator) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < msg.length(); i++) {
+            if (i > 0 && lineWidth > 0 && i % lineWidth == 0) {
+                result.append(lineSeparator);
+            } else if (i > 0 && groupSize > 0 && i % groupSize == 0) {
+                result.append(groupSeparator);
+            }
+            result.append(msg.charAt(i));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void groupsOfFive() throws IOException {
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW",
+                format(GroupFormatter.FIVES, "QVPQSOKOILPUBKJZPISFXDW"));
+        assertEquals("QVPQS OKOIL",
+                format(GroupFormatter.FIVES, "QVPQSOKOIL"));
+        assertEquals("Q", format(GroupFormatter.FIVES, "Q"));
+        assertEquals("", format(GroupFormatter.FIVES, ""));
+    }
+
+    @Test
+    public void wrapsLines() throws IOException {
+        GroupFormatter formatter = new GroupFormatter(4, 12, "-", "\r\n");
+        assertEquals("ABCD-EFGH-IJKL\r\nMNOP-QR",
+                format(formatter, "ABCDEFGHIJKLMNOPQR"));
+        assertEquals("ABCD-EFGH-IJKL\r\nMNOP-QRST-UVWX",
+                format(formatter, "ABCDEFGHIJKLMNOPQRSTUVWX"));
+    }
+
+    @Test
+    public void zeroMeansNoGroupingOrNoLines() throws IOException {
+        assertEquals("ABCDEFGHIJ",
+                format(new GroupFormatter(0, 0, " ", "\n"), "ABCDEFGHIJ"));
+        assertEquals("ABCD\nEFGH\nIJ",
+                format(new GroupFormatter(0, 4, " ", "\n"), "ABCDEFGHIJ"));
+        assertEquals("ABC DEF GHI J",
+                format(new GroupFormatter(3, 0, " ", "\n"), "ABCDEFGHIJ"));
+    }
+
+    @Test
+    public void matchesFormattingALetterAtATime() throws IOException {
+        Random random = new Random(36);
+        for (int trial = 0; trial < 200; trial++) {
+            int groupSize = random.nextInt(7);
+            int lineWidth = random.nextInt(3) == 0 ? 0
+                    : Math.max(1, groupSize) * (1 + random.nextInt(4));
+            String groupSeparator = random.nextBoolean() ? " " : " | ";
+            String lineSeparator = random.nextBoolean() ? "\n" : "\r\n";
+            StringBuilder msg = new StringBuilder();
+            int length = random.nextInt(3) == 0 ? 20000
+                    : random.nextInt(60);
+            for (int i = 0; i < length; i++) {
+                msg.append((char) ('A' + random.nextInt(26)));
+            }
+            GroupFormatter formatter = new GroupFormatter(groupSize,
+                    lineWidth, groupSeparator, lineSeparator);
+            assertEquals(slowly(msg.toString(), groupSize, lineWidth,
+                    groupSeparator, lineSeparator),
+                    format(formatter, msg.toString()));
+        }
+    }
+
+    @Test
+    public void rejectsBadSizes() {
+        String[] problems = new String[3];
+        int[][] sizes = {{-1, 0}, {5, -5}, {5, 12}};
+        for (int k = 0; k < sizes.length; k++) {
+            try {
+                new GroupFormatter(sizes[k][0], sizes[k][1], " ", "\n");
+                fail("accepted " + sizes[k][0] + ", " + sizes[k][1]);
+            } catch (EnigmaException excp) {
+                problems[k] = excp.getMessage();
+            }
+        }
+        assertTrue(problems[0].contains("negative"));
+        assertTrue(problems[1].contains("negative"));
+        assertTrue(problems[2].contains("not a multiple"));
+    }
+}
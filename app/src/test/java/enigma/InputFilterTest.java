@@ -0,0 +1,76 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of InputFilter and of Simulator's lenient input.
+ */
+public class InputFilterTest {
+
+    private static final Alphabet UPPER =
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n";
+
+    private static String apply(InputFilter filter, String text) {
+        int[] letters = new int[text.length() * filter.maxExpansion()];
+        int n = filter.filter(text, 0, text.length(), letters, 0);
+        assertEquals(n, filter.count(text, 0, text.length()));
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            result.append(UPPER.toChar(letters[i]));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void strictDropsWhitespaceOnly() {
+        InputFilter filter = InputFilter.strict(UPPER);
+        assertEquals("HELLOWORLD", apply(filter, " HELLO\tWORLD\r\n"));
+        for (String bad : new String[] {"hello", "HELLO1", "\u00C4RGER"}) {
+            try {
+                apply(filter, bad);
+                fail(bad + " was accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("NOT in"));
+            }
+        }
+    }
+
+    @Test
+    public void lenientSpellsOutWhatItCan() {
+        InputFilter filter = InputFilter.lenient(UPPER);
+        assertEquals("HELLOWORLD", apply(filter, "Hello, world!"));
+        assertEquals("GRUESSEAUSKOELN",
+                apply(filter, "Gr\u00FC\u00DFe aus K\u00F6ln"));
+        assertEquals("CAFEFACADE", apply(filter, "caf\u00E9 fa\u00E7ade"));
+        assertEquals("QWERTZUIOP", apply(filter, "1234567890"));
+        assertEquals("", apply(filter, "\u4E2D\u6587 \u2014 \u20AC"));
+    }
+
+    @Test
+    public void lenientHandlesCharactersAboveTheTable() {
+        InputFilter filter = InputFilter.lenient(UPPER);
+        assertEquals("GROSS", apply(filter, "GRO\u1E9E"));
+        assertEquals("KELVIN", apply(filter, "\u212AELVIN"));
+        assertEquals("SS", apply(filter, "\u1E9E"));
+        int[] letters = new int[2];
+        assertEquals(2, filter.filter('\u1E9E', letters, 0));
+        assertEquals(1, filter.filter('\u212A', letters, 0));
+        assertEquals(UPPER.toInt('K'), letters[0]);
+    }
+
+    @Test
+    public void lenientSimulatorMatchesCleanInput() {
+        Simulator clean = new Simulator(SETTINGS + "GRUESSE AUS KOELN Q\n");
+        clean.process();
+        Simulator typed = new Simulator(SETTINGS
+                + "Gr\u00FC\u00DFe aus K\u00F6ln, 1!\n");
+        typed.setLenientInput(true);
+        typed.process();
+        assertEquals(clean.getEncode(), typed.getEncode());
+    }
+}
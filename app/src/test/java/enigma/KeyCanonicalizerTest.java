@@ -0,0 +1,84 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of KeyCanonicalizer on keys of the default rotor set.
+ */
+public class KeyCanonicalizerTest {
+
+    private static final int LENGTH = 60;
+
+    /**
+     * Return the encryption of MSG by MACHINE, leaving MACHINE as it
+     * was.
+     */
+    private static String encrypt(Machine machine, String msg) {
+        long state = machine.packState();
+        String result = machine.convert(msg);
+        machine.loadState(state);
+        return result;
+    }
+
+    @Test
+    public void equivalentKeysEncryptAlike() {
+        Random random = new Random(47);
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        KeySpace space = new KeySpace(machine);
+        KeyCanonicalizer canonicalizer = new KeyCanonicalizer(LENGTH);
+        SteppingStrategy[] strategies = {
+            SteppingStrategy.DOUBLE_STEP, SteppingStrategy.GEARED,
+            SteppingStrategy.multiNotch("AEIMQUY"),
+        };
+        char[] msg = new char[LENGTH];
+        for (int i = 0; i < 300; i++) {
+            for (int k = 0; k < LENGTH; k++) {
+                msg[k] = (char) ('A' + random.nextInt(26));
+            }
+            String text = new String(msg);
+            machine.setStepping(strategies[i % strategies.length]);
+            space.apply((random.nextLong() >>> 1) % space.size(), machine);
+            String expected = encrypt(machine, text);
+            long size = canonicalizer.classSize(machine);
+
+            Machine other = Simulator.defaultMachine("* B Beta I II III AAAA");
+            other.setStepping(machine.stepping());
+            other.loadState(machine.packState());
+            for (int k = 1; k < other.numRotors(); k++) {
+                Rotor r = other.rotor(k);
+                if (k > 2 && random.nextBoolean()) {
+                    continue;
+                }
+                int setting = r.setting();
+                int ring = random.nextInt(26);
+                other.setRing(k, ring);
+                r.set(setting + ring);
+            }
+            String otherExpected = encrypt(other, text);
+
+            canonicalizer.canonicalize(machine);
+            assertTrue(canonicalizer.isCanonical(machine));
+            assertEquals(size, canonicalizer.classSize(machine));
+            assertEquals(expected, encrypt(machine, text));
+            canonicalizer.canonicalize(other);
+            assertEquals(otherExpected, encrypt(other, text));
+            assertEquals(otherExpected.equals(expected),
+                    other.packState() == machine.packState());
+        }
+    }
+
+    @Test
+    public void shortMessagesShrinkTheKeySpace() {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        double shortFactor = new KeyCanonicalizer(20).reduction(machine,
+                2000, new Random(1));
+        double longFactor = new KeyCanonicalizer(2000).reduction(machine,
+                200, new Random(2));
+        assertTrue(shortFactor > longFactor);
+        assertTrue(longFactor >= 26 * 26);
+    }
+}
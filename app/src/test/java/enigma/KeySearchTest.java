@@ -0,0 +1,202 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of KeySpace, KeySearchCoordinator and KeySearchWorker.
+ */
+public class KeySearchTest {
+
+    /**
+     * Return a quadgram table trained on NgramScorerTest.TEXT, in a
+     * temporary file.
+     */
+    private static File table() throws IOException {
+        int[] text = letters(NgramScorerTest.TEXT);
+        File table = File.createTempFile("quadgrams", ".bin");
+        table.deleteOnExit();
+        NgramScorer.train(alphabet(), 4, text, 0, text.length).write(table);
+        return table;
+    }
+
+    private static Alphabet alphabet() {
+        return Simulator.defaultMachine("* B Beta I II III AAAA").alphabet();
+    }
+
+    private static int[] letters(String text) {
+        InputFilter filter = InputFilter.lenient(alphabet());
+        int[] letters = new int[text.length() * filter.maxExpansion()];
+        int n = filter.filter(text, 0, text.length(), letters, 0);
+        int[] result = new int[n];
+        System.arraycopy(letters, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * Return the encryption with key KEY of the first 120 letters of
+     * NgramScorerTest.TEXT.
+     */
+    private static String ciphertext(long key) {
+        return ciphertext(key, false);
+    }
+
+    /**
+     * Return the encryption with key KEY of the key space with fixed
+     * rings iff FIXEDRINGS of the first 120 letters of
+     * NgramScorerTest.TEXT.
+     */
+    private static String ciphertext(long key, boolean fixedRings) {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        new KeySpace(machine, fixedRings).apply(key, machine);
+        int[] text = letters(NgramScorerTest.TEXT);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            result.append(machine.alphabet().toChar(
+                    machine.convert(text[i])));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void keysMatchTheirSettingsLines() {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        KeySpace space = new KeySpace(machine);
+        assertEquals(2L * 2 * 8 * 7 * 6 * 456976 * 456976, space.size());
+        assertEquals("* B Beta I II III AAAA AAAA",
+                space.describe(0, machine.alphabet()));
+        assertEquals("* C Gamma VIII VII VI ZZZZ ZZZZ",
+                space.describe(space.size() - 1, machine.alphabet()));
+        long[] keys = {0, 1, 456976L * 456976 * 200 + 12345678901L,
+            space.size() - 1};
+        for (long key : keys) {
+            String line = space.describe(key, machine.alphabet());
+            space.apply(key, machine);
+            String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+            assertEquals(line, Simulator.defaultMachine(line).convert(msg),
+                    machine.convert(msg));
+        }
+    }
+
+    @Test
+    public void fixedRingsLeaveOutRingsThatNeverMatter() {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        KeySpace space = new KeySpace(machine, true);
+        assertTrue(space.fixedRings());
+        assertEquals(2L * 2 * 8 * 7 * 6 * 456976 * 676, space.size());
+        assertEquals("* B Beta I II III AAAA AAAA",
+                space.describe(0, machine.alphabet()));
+        assertEquals("* B Beta I II III AAAA AAAB",
+                space.describe(456976, machine.alphabet()));
+        assertEquals("* C Gamma VIII VII VI ZZZZ AAZZ",
+                space.describe(space.size() - 1, machine.alphabet()));
+        long[] keys = {1, 456976L * 676 * 200 + 123456789L,
+            space.size() - 1};
+        for (long key : keys) {
+            String line = space.describe(key, machine.alphabet());
+            space.apply(key, machine);
+            String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+            assertEquals(line, Simulator.defaultMachine(line).convert(msg),
+                    machine.convert(msg));
+            assertEquals("AA", line.substring(line.length() - 4,
+                    line.length() - 2));
+        }
+    }
+
+    @Test
+    public void oneEngineServesARunOfKeys() {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        KeySpace space = new KeySpace(machine);
+        assertEquals(26L * 26 * 26, space.run());
+        long start = space.run() * 123456789L;
+        space.apply(start, machine);
+        TableMachine engine = new TableMachine(machine);
+        int[] msg = letters("THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG");
+        for (long key = start; key < start + space.run(); key += 97) {
+            space.apply(key, machine);
+            engine.load(machine);
+            int[] text = msg.clone();
+            engine.convert(text, 0, text.length);
+            int[] expected = msg.clone();
+            machine.convert(expected, 0, expected.length);
+            assertArrayEquals(space.describe(key, machine.alphabet()),
+                    expected, text);
+        }
+    }
+
+    @Test
+    public void canonicalSearchFindsTheKey() throws Exception {
+        long key = 456976L * 676 * 37 + 456976L * 14 + 98765;
+        KeySearchCoordinator coordinator = KeySearchCoordinator.start(
+                ciphertext(key, true), table(), key - 300, key + 200, 64, 3,
+                30000, true);
+        try {
+            KeySearchWorker.run(coordinator.port());
+            assertTrue(coordinator.await(10000));
+        } finally {
+            coordinator.close();
+        }
+        assertEquals(key, coordinator.results().get(0).key);
+        assertEquals(500, coordinator.keysSearched());
+    }
+
+    @Test
+    public void workerProcessesFindTheKey() throws Exception {
+        long key = 456976L * 456976 * 37 + 456976L * 1234 + 98765;
+        KeySearchCoordinator coordinator = KeySearchCoordinator.start(
+                ciphertext(key), table(), key - 300, key + 200, 64, 3,
+                30000);
+        List<Process> workers = coordinator.launchWorkers(2);
+        try {
+            assertTrue(coordinator.await(60000));
+        } finally {
+            coordinator.close();
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+        List<KeySearchCoordinator.Result> results = coordinator.results();
+        assertEquals(3, results.size());
+        assertEquals(key, results.get(0).key);
+        assertEquals(500, coordinator.keysSearched());
+    }
+
+    @Test
+    public void leasesOfDeadWorkersAreReassigned() throws Exception {
+        long key = 456976L * 456976 * 5 + 777;
+        KeySearchCoordinator coordinator = KeySearchCoordinator.start(
+                ciphertext(key), table(), key - 100, key + 100, 50, 1,
+                30000);
+        try {
+            Socket dead = new Socket(InetAddress.getLoopbackAddress(),
+                    coordinator.port());
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    dead.getInputStream(), "UTF-8"));
+            Writer out = new OutputStreamWriter(dead.getOutputStream(),
+                    "UTF-8");
+            assertTrue(in.readLine().startsWith("JOB 1 "));
+            out.write("LEASE\n");
+            out.flush();
+            assertTrue(in.readLine().startsWith("LEASE 0 "));
+            dead.close();
+            KeySearchWorker.run(coordinator.port());
+            assertTrue(coordinator.await(10000));
+        } finally {
+            coordinator.close();
+        }
+        assertEquals(1, coordinator.reassigned());
+        assertEquals(200, coordinator.keysSearched());
+        assertEquals(key, coordinator.results().get(0).key);
+    }
+}
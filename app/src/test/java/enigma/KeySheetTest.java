@@ -0,0 +1,204 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of KeySheet on temporary files.
+ */
+public class KeySheetTest {
+
+    private static final String[] REFLECTORS = {"B", "C"};
+
+    private static final String[] THIN = {"Beta", "Gamma"};
+
+    private static final String[] MOVING = {
+        "I", "II", "III", "IV", "V", "VI", "VII", "VIII",
+    };
+
+    private static final String MSG = "WETTERVORHERSAGEBISKAYA";
+
+    /**
+     * Return a random valid settings line from RANDOM.
+     */
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder("* ");
+        line.append(REFLECTORS[random.nextInt(2)]).append(' ')
+                .append(THIN[random.nextInt(2)]);
+        int[] order = {0, 1, 2, 3, 4, 5, 6, 7};
+        for (int i = 0; i < 3; i++) {
+            int j = i + random.nextInt(order.length - i);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+            line.append(' ').append(MOVING[order[i]]);
+        }
+        line.append(' ').append(letters(random, 4));
+        if (random.nextBoolean()) {
+            line.append(' ').append(letters(random, 4));
+        }
+        String pairs = letters(random, 2 * random.nextInt(6));
+        for (int i = 0; i < pairs.length(); i += 2) {
+            if (pairs.indexOf(pairs.charAt(i)) == i
+                    && pairs.indexOf(pairs.charAt(i + 1)) == i + 1) {
+                line.append(" (").append(pairs, i, i + 2).append(')');
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Return LENGTH random letters from RANDOM.
+     */
+    private static String letters(Random random, int length) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Write LINES, with a blank line now and then, as a text key sheet
+     * and convert it into a key sheet for MACHINE.
+     */
+    private static File sheet(Machine machine, String[] lines)
+            throws IOException {
+        File text = File.createTempFile("keys", ".txt");
+        File sheet = File.createTempFile("keys", ".bin");
+        text.deleteOnExit();
+        sheet.deleteOnExit();
+        PrintWriter out = new PrintWriter(text, "UTF-8");
+        for (int i = 0; i < lines.length; i++) {
+            if (i % 10 == 3) {
+                out.println("  ");
+            }
+            out.println(lines[i]);
+        }
+        out.close();
+        assertEquals(lines.length, KeySheet.write(machine, text, sheet));
+        return sheet;
+    }
+
+    /**
+     * Assert that MACHINE is set up as by the settings line LINE.
+     */
+    private static void assertSetUp(String line, Machine machine) {
+        assertEquals(line, Simulator.defaultMachine(line).convert(MSG),
+                machine.convert(MSG));
+    }
+
+    /**
+     * Assert that opening FILE for MACHINE fails with a message
+     * containing PROBLEM.
+     */
+    private static void assertRejected(Machine machine, File file,
+                                       String problem) {
+        try {
+            KeySheet.open(machine, file).close();
+            fail("opened " + file);
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                    excp.getMessage().contains(problem));
+        }
+    }
+
+    @Test
+    public void loadsRecordsByIndexAcrossWindows() throws IOException {
+        Random random = new Random(34);
+        Machine machine = Simulator.defaultMachine(randomLine(random));
+        String[] lines = new String[500];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = randomLine(random);
+        }
+        File file = sheet(machine, lines);
+        int width = new KeyRecord(machine).width();
+        KeySheet sheet = KeySheet.open(machine, file, 7 * width);
+        try {
+            assertEquals(lines.length, sheet.size());
+            for (int k = 0; k < lines.length; k++) {
+                sheet.load(k);
+                assertSetUp(lines[k], machine);
+            }
+            for (int i = 0; i < 2000; i++) {
+                int k = random.nextInt(lines.length);
+                sheet.load(k);
+                assertSetUp(lines[k], machine);
+            }
+            for (long k : new long[] {-1, lines.length}) {
+                try {
+                    sheet.load(k);
+                    fail("loaded record " + k);
+                } catch (EnigmaException excp) {
+                    assertTrue(excp.getMessage().contains("no key record"));
+                }
+            }
+        } finally {
+            sheet.close();
+        }
+
+        sheet = KeySheet.open(machine, file);
+        try {
+            sheet.load(lines.length - 1);
+            assertSetUp(lines[lines.length - 1], machine);
+            sheet.load(0);
+            assertSetUp(lines[0], machine);
+        } finally {
+            sheet.close();
+        }
+    }
+
+    @Test
+    public void dropsATruncatedLastRecord() throws IOException {
+        Random random = new Random(35);
+        Machine machine = Simulator.defaultMachine(randomLine(random));
+        String[] lines = new String[20];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = randomLine(random);
+        }
+        File file = sheet(machine, lines);
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(raw.length() - 1);
+        raw.close();
+        KeySheet sheet = KeySheet.open(machine, file);
+        try {
+            assertEquals(lines.length - 1, sheet.size());
+            sheet.load(lines.length - 2);
+            assertSetUp(lines[lines.length - 2], machine);
+        } finally {
+            sheet.close();
+        }
+    }
+
+    @Test
+    public void rejectsForeignAndTruncatedHeaders() throws IOException {
+        Random random = new Random(36);
+        Machine machine = Simulator.defaultMachine(randomLine(random));
+        File file = sheet(machine, new String[] {randomLine(random)});
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(4);
+        int signature = raw.readInt();
+        raw.seek(4);
+        raw.writeInt(signature ^ 1);
+        raw.close();
+        assertRejected(machine, file, "different machine");
+
+        raw = new RandomAccessFile(file, "rw");
+        raw.setLength(10);
+        raw.close();
+        assertRejected(machine, file, "not a key sheet");
+
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        out.println("* B Beta I II III AAAA");
+        out.close();
+        assertRejected(machine, file, "not a key sheet");
+    }
+}
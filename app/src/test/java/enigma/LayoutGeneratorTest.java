@@ -0,0 +1,64 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of LayoutGenerator and the engines it produces.
+ */
+public class LayoutGeneratorTest {
+
+    private static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* C Gamma VI VII VIII ZZYY QRSA (AB) (CD)",
+        "* B Beta I II V KDOZ",
+    };
+
+    @Test
+    public void checkedInSourceIsUpToDate() throws IOException {
+        File source = new File("src/main/java/enigma/Layout53Machine.java");
+        if (!source.exists()) {
+            source = new File("app", source.getPath());
+        }
+        String expected = LayoutGenerator.generate(5, 3);
+        String actual = new String(Files.readAllBytes(source.toPath()),
+                Charset.forName("UTF-8"));
+        assertEquals("regenerate with java enigma.LayoutGenerator 5 3",
+                expected, actual.replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void compiledEnginesMatchMachine() {
+        Random random = new Random(61);
+        for (String settings : SETTINGS) {
+            Machine reference = Simulator.defaultMachine(settings);
+            Machine source = Simulator.defaultMachine(settings);
+            CompiledEngine generated = CompiledEngine.compile(source);
+            CompiledEngine tables = new TableMachine(source);
+            assertTrue(generated instanceof Layout53Machine);
+            for (int i = 0; i < 20000; i++) {
+                int c = random.nextInt(26);
+                int expected = reference.convert(c);
+                assertEquals(expected, generated.convert(c));
+                assertEquals(expected, tables.convert(c));
+            }
+            generated.store(source);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(reference.convert(i % 26),
+                        source.convert(i % 26));
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void rejectsBadLayouts() {
+        LayoutGenerator.generate(3, 3);
+    }
+}
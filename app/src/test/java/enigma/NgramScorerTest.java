@@ -0,0 +1,99 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of NgramScorer.
+ */
+public class NgramScorerTest {
+
+    private static final Alphabet UPPER =
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    static final String TEXT =
+            "It was the best of times, it was the worst of times, it was "
+            + "the age of wisdom, it was the age of foolishness, it was the "
+            + "epoch of belief, it was the epoch of incredulity, it was the "
+            + "season of Light, it was the season of Darkness, it was the "
+            + "spring of hope, it was the winter of despair, we had "
+            + "everything before us, we had nothing before us, we were all "
+            + "going direct to Heaven, we were all going direct the other "
+            + "way.";
+
+    private static int[] letters(String text) {
+        InputFilter filter = InputFilter.lenient(UPPER);
+        int[] letters = new int[text.length() * filter.maxExpansion()];
+        int n = filter.filter(text, 0, text.length(), letters, 0);
+        int[] result = new int[n];
+        System.arraycopy(letters, 0, result, 0, n);
+        return result;
+    }
+
+    @Test
+    public void prefersTheLanguageItWasTrainedOn() {
+        int[] text = letters(TEXT);
+        int[] noise = new int[text.length];
+        Random random = new Random(41);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = random.nextInt(26);
+        }
+        for (int n = 1; n <= 4; n++) {
+            NgramScorer scorer =
+                    NgramScorer.train(UPPER, n, text, 0, text.length);
+            assertEquals(n, scorer.order());
+            assertTrue(scorer.score(text, 0, text.length)
+                    > scorer.score(noise, 0, noise.length));
+            float sum = 0;
+            for (int i = 0; i < 40; i++) {
+                sum += scorer.logProbability(text, 10 + i);
+            }
+            assertEquals(sum, scorer.score(text, 10, 40 + n - 1), 1e-3);
+        }
+    }
+
+    @Test
+    public void filesGiveTheSameScores() throws IOException {
+        int[] text = letters(TEXT);
+        NgramScorer trained = NgramScorer.train(UPPER, 3, text, 0,
+                text.length);
+        File counts = File.createTempFile("trigrams", ".txt");
+        File table = File.createTempFile("trigrams", ".bin");
+        try {
+            PrintWriter out = new PrintWriter(counts, "UTF-8");
+            int[] count = new int[26 * 26 * 26];
+            for (int i = 0; i + 3 <= text.length; i++) {
+                count[(text[i] * 26 + text[i + 1]) * 26 + text[i + 2]] += 1;
+            }
+            for (int k = 0; k < count.length; k++) {
+                if (count[k] > 0) {
+                    out.printf("%c%c%c %d%n", UPPER.toChar(k / 676),
+                            UPPER.toChar(k / 26 % 26),
+                            UPPER.toChar(k % 26), count[k]);
+                }
+            }
+            out.close();
+            trained.write(table);
+            NgramScorer[] scorers = {
+                NgramScorer.read(UPPER, counts),
+                NgramScorer.load(UPPER, table),
+                NgramScorer.map(UPPER, table),
+            };
+            float expected = trained.score(text, 0, text.length);
+            for (NgramScorer scorer : scorers) {
+                assertEquals(3, scorer.order());
+                assertEquals(expected, scorer.score(text, 0, text.length),
+                        1e-3);
+            }
+        } finally {
+            assertTrue(counts.delete());
+            table.delete();
+        }
+    }
+}
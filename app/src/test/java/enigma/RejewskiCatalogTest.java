@@ -0,0 +1,91 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of RejewskiCatalog.
+ */
+public class RejewskiCatalogTest {
+
+    @Test
+    public void lookupsFindTheKeysCataloged() throws IOException {
+        File file = File.createTempFile("catalog", ".bin");
+        try {
+            long keys = RejewskiCatalog.build(
+                    Arrays.asList("B Beta I II III", "C Gamma VIII V I"),
+                    file, 2);
+            assertEquals(2 * 26 * 26 * 26 * 26, keys);
+            RejewskiCatalog catalog = RejewskiCatalog.open(file);
+            try {
+                assertEquals(keys, catalog.size());
+                Random random = new Random(49);
+                for (int i = 0; i < 20; i++) {
+                    long key = (random.nextLong() >>> 1) % keys;
+                    String line = catalog.describe(key);
+                    long characteristic = RejewskiCatalog.characteristic(
+                            Simulator.defaultMachine(line));
+                    long[] found = catalog.lookup(characteristic);
+                    assertTrue(line, Arrays.binarySearch(found, key) >= 0);
+                    long other = found[random.nextInt(found.length)];
+                    assertEquals(characteristic,
+                            RejewskiCatalog.characteristic(
+                                    Simulator.defaultMachine(
+                                            catalog.describe(other))));
+                }
+                assertEquals(0, catalog.lookup(
+                        RejewskiCatalog.characteristic("1 1 1 1 1 1 1 1 1 "
+                                + "1 1 1 1", "13", "13")).length);
+            } finally {
+                catalog.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void mergesRunsFromDisk() throws IOException {
+        File directory = Files.createTempDirectory("catalog").toFile();
+        File file = new File(directory, "catalog.bin");
+        List<String> orders = Arrays.asList("B Beta I II III",
+                "B Beta III II I", "C Gamma IV V VI");
+        long keys = RejewskiCatalog.build(orders, file, 1);
+        assertEquals(Arrays.asList(file.getName()),
+                Arrays.asList(directory.list()));
+        RejewskiCatalog catalog = RejewskiCatalog.open(file);
+        try {
+            assertEquals(keys, catalog.size());
+            Random random = new Random(50);
+            for (int i = 0; i < 20; i++) {
+                long key = (random.nextLong() >>> 1) % keys;
+                long[] found = catalog.lookup(RejewskiCatalog.characteristic(
+                        Simulator.defaultMachine(catalog.describe(key))));
+                assertTrue(Arrays.binarySearch(found, key) >= 0);
+            }
+        } finally {
+            catalog.close();
+            assertTrue(file.delete());
+            assertTrue(directory.delete());
+        }
+    }
+
+    @Test
+    public void characteristicsAreRankedByCycleLengths() {
+        assertEquals(0, RejewskiCatalog.characteristic(
+                "1 1 1 1 1 1 1 1 1 1 1 1 1", "1,1,1,1,1,1,1,1,1,1,1,1,1",
+                "1 1 1 1 1 1 1 1 1 1 1 1 1"));
+        long all = RejewskiCatalog.characteristic("13", "13", "13");
+        assertEquals(101L * 101 * 101 - 1, all);
+        assertEquals(RejewskiCatalog.characteristic("10 3", "9 4", "13"),
+                RejewskiCatalog.characteristic("3 10", "4,9", "13"));
+    }
+}
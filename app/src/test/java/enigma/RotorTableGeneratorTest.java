@@ -0,0 +1,56 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of RotorTableGenerator and the tables it produces.
+ */
+public class RotorTableGeneratorTest {
+
+    @Test
+    public void defaultTablesMatchCycles() {
+        Alphabet alphabet = new Alphabet(DefaultRotors.ALPHABET);
+        String[] names = { "I", "Beta", "B" };
+        String[] cycles = {
+            "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+            "(ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+            "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ)"
+                + " (TV)",
+        };
+        for (int i = 0; i < names.length; i++) {
+            int k = Arrays.asList(DefaultRotors.NAMES).indexOf(names[i]);
+            Wiring expected = Wiring.of(cycles[i], alphabet);
+            for (int c = 0; c < alphabet.size(); c++) {
+                assertEquals(expected.forward(c), DefaultRotors.FORWARD[k][c]);
+                assertEquals(expected.inverse(c), DefaultRotors.INVERSE[k][c]);
+            }
+        }
+        assertEquals(1L << alphabet.toInt('Q'), DefaultRotors.NOTCHES[0]);
+        assertEquals(5, DefaultRotors.NUM_ROTORS);
+        assertEquals(3, DefaultRotors.NUM_PAWLS);
+    }
+
+    @Test
+    public void generatesEveryRotor() {
+        String source = RotorTableGenerator.generate("ABCD\n 3 1\n"
+                + " X MBD (ABCD)\n Y N (AB)\n Z R (AC) (BD)\n");
+        assertTrue(source.contains("\"X\", \"Y\", \"Z\""));
+        assertTrue(source.contains("'M', 'N', 'R'"));
+        assertTrue(source.contains("0xaL, 0x0L, 0x0L"));
+        assertTrue(source.contains("1, 2, 3, 0"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void layoutNeedsWholeNumbers() {
+        RotorTableGenerator.generate("ABCD\n 3 x\n B R (AB) (CD)\n");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void movingRotorNeedsNotches() {
+        RotorTableGenerator.generate("ABCD\n 3 1\n X M (ABCD)\n");
+    }
+}
@@ -0,0 +1,122 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load benchmark of SessionServer over loopback, run by hand with
+ * <pre>
+ *     java -cp ... enigma.ServerLoadBenchmark [SESSIONS [MESSAGES [PORT]]]
+ * </pre>
+ * SESSIONS clients (default 2000) connect at once, send a settings line
+ * and then MESSAGES messages (default 200) of 60 letters one at a time,
+ * and the latency of each answer is reported as percentiles.  Without a
+ * PORT the server runs in this JVM.
+ */
+public class ServerLoadBenchmark {
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    private static final String MESSAGE =
+            "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGTHEQUICKBROWNFOXJUMPSOVER";
+
+    public static void main(String... args) throws Exception {
+        final int sessions = args.length > 0 ? Integer.parseInt(args[0])
+                : 2000;
+        final int messages = args.length > 1 ? Integer.parseInt(args[1])
+                : 200;
+        SessionServer server = null;
+        final int port;
+        if (args.length > 2) {
+            port = Integer.parseInt(args[2]);
+        } else {
+            server = SessionServer.start(0);
+            port = server.port();
+            System.out.printf("server on %s threads%n",
+                    server.virtual() ? "virtual" : "platform");
+        }
+        final long[] latencies = new long[sessions * messages];
+        final CountDownLatch ready = new CountDownLatch(sessions);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(sessions);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int s = 0; s < sessions; s++) {
+            final int session = s;
+            Thread client = new Thread(null, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Socket socket = new Socket(
+                                InetAddress.getLoopbackAddress(), port);
+                        socket.setTcpNoDelay(true);
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(),
+                                        "UTF-8"));
+                        Writer out = new OutputStreamWriter(
+                                socket.getOutputStream(), "UTF-8");
+                        out.write(SETTINGS + "\n");
+                        out.flush();
+                        if (!"OK".equals(in.readLine())) {
+                            failures.incrementAndGet();
+                        }
+                        ready.countDown();
+                        go.await();
+                        for (int m = 0; m < messages; m++) {
+                            long start = System.nanoTime();
+                            out.write(MESSAGE + "\n");
+                            out.flush();
+                            String reply = in.readLine();
+                            latencies[session * messages + m] =
+                                    System.nanoTime() - start;
+                            if (reply == null
+                                    || reply.length() != MESSAGE.length()) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                        socket.close();
+                    } catch (Exception excp) {
+                        failures.incrementAndGet();
+                        ready.countDown();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "client-" + s, 128 * 1024);
+            client.setDaemon(true);
+            client.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        System.out.printf("%d sessions x %d messages, %d failures%n",
+                sessions, messages, failures.get());
+        System.out.printf("%.0f messages/s, p50 %.1f us, p99 %.1f us, "
+                + "max %.1f us%n",
+                latencies.length * 1e9 / elapsed,
+                percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3,
+                latencies[latencies.length - 1] / 1e3);
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * Return the P-th quantile of the sorted SORTED.
+     */
+    static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
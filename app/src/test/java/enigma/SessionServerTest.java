@@ -0,0 +1,51 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SessionServer over loopback.
+ */
+public class SessionServerTest {
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    @Test
+    public void encryptsMessagesAfterTheSettingsLine() throws IOException {
+        SessionServer server = SessionServer.start(0);
+        try {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                    server.port());
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), "UTF-8"));
+                Writer out = new OutputStreamWriter(socket.getOutputStream(),
+                        "UTF-8");
+                out.write("HELLO\n" + SETTINGS + "\nHELLO WORLD\nAGAIN\n"
+                        + "HI, THERE\n* B Beta I I I AAAA\n");
+                out.flush();
+                assertTrue(in.readLine().startsWith("ERR"));
+                assertEquals("OK", in.readLine());
+                Machine machine = Simulator.defaultMachine(SETTINGS);
+                assertEquals(machine.convert("HELLOWORLD"), in.readLine());
+                assertEquals(machine.convert("AGAIN"), in.readLine());
+                assertTrue(in.readLine().startsWith("ERR"));
+                assertTrue(in.readLine().startsWith("ERR"));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SessionStore on temporary directories.
+ */
+public class SessionStoreTest {
+
+    private static final String SETTINGS =
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    private static File log() throws IOException {
+        return new File(Files.createTempDirectory("session").toFile(),
+                "session.log");
+    }
+
+    /**
+     * Replace BEFORE characters of TEXT at START by INSERTED, and record
+     * the edit in STORE.
+     */
+    private static void edit(SessionStore store, StringBuilder text,
+                             int start, int before, String inserted) {
+        text.replace(start, start + before, inserted);
+        store.update(text, start, before, inserted.length());
+    }
+
+    /**
+     * Append INSERTED to TEXT and record the edit in STORE.
+     */
+    private static void type(SessionStore store, StringBuilder text,
+                             String inserted) {
+        edit(store, text, text.length(), 0, inserted);
+    }
+
+    private static String expected(CharSequence text) {
+        return Simulator.defaultMachine(SETTINGS).convert(text.toString());
+    }
+
+    @Test
+    public void resumesAfterClose() throws IOException {
+        File file = log();
+        SessionStore store = SessionStore.open(file, false);
+        assertNull(store.session());
+        store.start(SETTINGS);
+        StringBuilder text = new StringBuilder();
+        for (String word : new String[] {"HELLO", "W", "ORLD"}) {
+            type(store, text, word);
+        }
+        store.close();
+
+        store = SessionStore.open(file, true);
+        assertEquals(text.toString(), store.text().toString());
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        type(store, text, "AGAIN");
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        store.close();
+    }
+
+    @Test
+    public void editsBackThenAppends() throws IOException {
+        File file = log();
+        SessionStore store = SessionStore.open(file, false);
+        store.start(SETTINGS);
+        StringBuilder text = new StringBuilder();
+        type(store, text, "WETTERVORHERSAGE");
+        edit(store, text, 6, 3, "NACH");
+        type(store, text, "BISKAYA");
+        edit(store, text, 2, 0, "X");
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        store.close();
+
+        store = SessionStore.open(file, false);
+        assertEquals(text.toString(), store.text().toString());
+        edit(store, text, 10, 4, "");
+        type(store, text, "KEINE");
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        store.close();
+        store = SessionStore.open(file, false);
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        store.close();
+    }
+
+    @Test
+    public void tornOrCorruptTailRecoversLastWholeRecord()
+            throws IOException {
+        File file = log();
+        SessionStore store = SessionStore.open(file, false);
+        store.start(SETTINGS);
+        StringBuilder text = new StringBuilder();
+        List<String> texts = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        for (String word : new String[] {"FROM", "HIGH", "COMMAND"}) {
+            type(store, text, word);
+            texts.add(text.toString());
+            ends.add(file.length());
+        }
+        store.close();
+        long torn = (ends.get(1) + ends.get(2)) / 2;
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(torn);
+        raw.close();
+        store = SessionStore.open(file, false);
+        assertEquals(texts.get(1), store.text().toString());
+        assertEquals(expected(texts.get(1)),
+                store.session().ciphertext().toString());
+        assertEquals((long) ends.get(1), file.length());
+        store.close();
+
+        raw = new RandomAccessFile(file, "rw");
+        raw.seek(ends.get(0) + 8);
+        int b = raw.read();
+        raw.seek(ends.get(0) + 8);
+        raw.write(b ^ 0x40);
+        raw.close();
+        store = SessionStore.open(file, false);
+        assertEquals(texts.get(0), store.text().toString());
+        assertEquals((long) ends.get(0), file.length());
+        type(store, text.replace(0, text.length(), texts.get(0)), "X");
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        store.close();
+    }
+
+    @Test
+    public void compactsAfterManyEdits() throws IOException {
+        File file = log();
+        SessionStore store = SessionStore.open(file, false);
+        store.start(SETTINGS);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < SessionStore.SNAPSHOT_INTERVAL + 10; i++) {
+            type(store, text, String.valueOf((char) ('A' + i % 26)));
+        }
+        store.close();
+        store = SessionStore.open(file, false);
+        assertEquals(text.toString(), store.text().toString());
+        assertEquals(expected(text),
+                store.session().ciphertext().toString());
+        store.close();
+    }
+}
@@ -0,0 +1,196 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that SettingsValidator accepts exactly the settings lines that
+ * setting up a machine of the default rotor set accepts.
+ */
+public class SettingsValidatorTest {
+
+    private static final String VALID = "* B Beta I II III AAAA";
+
+    private static final String[] NAMES = {
+        "B", "C", "Beta", "Gamma", "I", "II", "III", "IV", "V", "VI",
+        "VII", "VIII", "IX", "b", "",
+    };
+
+    private static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private static final String[] EDGE_CASES = {
+        VALID,
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* C Gamma VI VII VIII ZZYY QRSA (AB) (CD)",
+        "  * B Beta I II III AAAA",
+        "*\tB  Beta\tI II III AAAA\t(AB)",
+        "*B Beta I II III AAAA",
+        "# B Beta I II III AAAA",
+        "*",
+        "* B Beta I II III",
+        "* B Beta I II",
+        "* B Beta I II III AAA",
+        "* B Beta I II III AAAAA",
+        "* B Beta I II III AAaA",
+        "* B Beta I II III ?AAA",
+        "* B Beta I II III AAAA BBB",
+        "* B Beta I II III AAAA BBBB (AB",
+        "* B Beta I II III AAAA (AB) (BC)",
+        "* B Beta I II III AAAA (AA)",
+        "* B Beta I II III AAAA (A1)",
+        "* B Beta I II III AAAA () (AB)",
+        "* B Beta I II III AAAA AB) (CD)",
+        "* B Beta I II III AAAA x(AB)y",
+        "* B Beta I I III AAAA",
+        "* B Beta Gamma II III AAAA",
+        "* B B I II III AAAA",
+        "* Beta B I II III AAAA",
+        "* I Beta II III IV AAAA",
+        "* B I Beta II III AAAA",
+        "* B Beta I II Gamma AAAA",
+        "* B Beta I II IX AAAA",
+        "* B Beta I II III AAAA (ABCDEFGHIJKLM) (NOPQRSTUVWXYZ)",
+    };
+
+    /**
+     * Return true iff a machine of the default rotor set can be set up
+     * from LINE by the steps Simulator takes after validating it.
+     */
+    private static boolean setsUp(String line) {
+        Machine machine = Simulator.defaultMachine(VALID);
+        try {
+            String[] tokens = line.split("\\s+");
+            if (tokens.length < machine.numRotors() + 2
+                    || !tokens[0].equals("*")) {
+                return false;
+            }
+            String[] rotors = new String[machine.numRotors()];
+            int index = 1;
+            for (int i = 0; i < rotors.length; i++, index++) {
+                rotors[i] = tokens[index];
+            }
+            machine.insertRotors(rotors);
+            machine.setRotors(tokens[index++]);
+            if (index < tokens.length
+                    && !tokens[index].matches("\\(.*?\\)")) {
+                machine.setRings(tokens[index++]);
+            }
+            StringBuilder plugboard = new StringBuilder();
+            for (int i = index; i < tokens.length; i++) {
+                plugboard.append(tokens[i]);
+            }
+            machine.setPlugboard(new Permutation(plugboard.toString(),
+                    machine.alphabet()));
+            return true;
+        } catch (EnigmaException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a settings line from RANDOM that is usually nearly valid.
+     */
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        line.append(random.nextInt(20) == 0 ? "#" : "*");
+        int rotors = random.nextInt(8) == 0 ? 3 + random.nextInt(4) : 5;
+        for (int i = 0; i < rotors; i++) {
+            line.append(random.nextInt(10) == 0 ? "\t" : " ");
+            if (random.nextInt(3) == 0) {
+                line.append(NAMES[random.nextInt(NAMES.length)]);
+            } else {
+                line.append(i == 0 ? "B" : i == 1 ? "Beta" : NAMES[4 + i]);
+            }
+        }
+        line.append(' ').append(letters(random, length(random)));
+        if (random.nextBoolean()) {
+            line.append(' ').append(letters(random, length(random)));
+        }
+        for (int k = random.nextInt(4); k > 0; k--) {
+            line.append(' ');
+            if (random.nextInt(8) != 0) {
+                line.append('(');
+            }
+            line.append(letters(random, random.nextInt(4)));
+            if (random.nextInt(8) != 0) {
+                line.append(')');
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Return the length of a string of letters from RANDOM, usually one
+     * per rotor after the reflector.
+     */
+    private static int length(Random random) {
+        return random.nextInt(8) == 0 ? 3 + random.nextInt(3) : 4;
+    }
+
+    /**
+     * Return LENGTH letters from RANDOM, now and then one that is not
+     * in the alphabet.
+     */
+    private static String letters(Random random, int length) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            result.append(random.nextInt(40) == 0 ? '?'
+                    : LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void agreesWithSetUpOnEdgeCases() {
+        SettingsValidator validator =
+                new SettingsValidator(Simulator.defaultMachine(VALID));
+        for (String line : EDGE_CASES) {
+            assertEquals(line, setsUp(line), validator.isValid(line));
+        }
+    }
+
+    @Test
+    public void agreesWithSetUpOnRandomLines() {
+        Random random = new Random(33);
+        SettingsValidator validator =
+                new SettingsValidator(Simulator.defaultMachine(VALID));
+        int accepted = 0;
+        for (int i = 0; i < 5000; i++) {
+            String line = randomLine(random);
+            boolean valid = validator.isValid(line);
+            assertEquals(line, setsUp(line), valid);
+            accepted += valid ? 1 : 0;
+        }
+        assertTrue(accepted > 500 && accepted < 4500);
+    }
+
+    @Test
+    public void validatesKeySheetsInParallel() throws IOException {
+        Random random = new Random(34);
+        File file = File.createTempFile("keys", ".txt");
+        file.deleteOnExit();
+        String[] lines = new String[20000];
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = i % 97 == 0 ? "" : randomLine(random);
+            out.println(lines[i]);
+        }
+        out.close();
+        Machine machine = Simulator.defaultMachine(VALID);
+        SettingsValidator validator = new SettingsValidator(machine);
+        SortedMap<Long, String> problems =
+                SettingsValidator.validate(machine, file, 4);
+        for (int i = 0; i < lines.length; i++) {
+            String problem = lines[i].isEmpty() ? null
+                    : validator.check(lines[i]);
+            assertEquals(lines[i], problem, problems.get(i + 1L));
+        }
+    }
+}
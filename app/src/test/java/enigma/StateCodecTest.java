@@ -0,0 +1,70 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of StateCodec, Machine.packState and LongHashSet.
+ */
+public class StateCodecTest {
+
+    @Test
+    public void statesRoundTrip() {
+        Random random = new Random(46);
+        for (DifferentialTest.Spec spec : DifferentialTest.specs()) {
+            Machine machine;
+            try {
+                machine = spec.build();
+                machine.packState();
+            } catch (EnigmaException excp) {
+                continue;
+            }
+            String msg = spec.message(random, random.nextInt(500));
+            machine.convert(msg);
+            long state = machine.packState();
+            String expected = machine.convert(msg);
+
+            Machine other = spec.build();
+            other.loadState(state);
+            assertEquals(spec.toString(), state, other.packState());
+            assertEquals(spec.toString(), expected, other.convert(msg));
+        }
+    }
+
+    @Test
+    public void visitedStatesFindTheCycle() {
+        Machine machine = Simulator.defaultMachine("* B Beta I II III AAAA");
+        SteppingSchedule schedule = SteppingSchedule.of(machine);
+        LongHashSet seen = new LongHashSet();
+        long keys = 0;
+        while (seen.add(machine.packState())) {
+            machine.convert(0);
+            keys += 1;
+        }
+        assertEquals(schedule.preperiod() + schedule.period(), keys);
+        assertEquals(keys, seen.size());
+    }
+
+    @Test
+    public void longSetMatchesHashSet() {
+        Random random = new Random(47);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            long v = random.nextInt(4) == 0 ? Long.MIN_VALUE + random.nextInt(3)
+                    : random.nextInt(50000);
+            assertEquals(expected.add(v), set.add(v));
+            long w = random.nextLong();
+            assertEquals(expected.contains(w), set.contains(w));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long v : expected) {
+            assertTrue(set.contains(v));
+        }
+    }
+}
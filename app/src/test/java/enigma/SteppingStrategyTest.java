@@ -0,0 +1,64 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the stepping strategies on the default rotor set.
+ */
+public class SteppingStrategyTest {
+
+    /**
+     * Return the positions of the moving rotors of a default machine set
+     * up with SETTINGS and STEPPING after KEYS keystrokes.
+     */
+    private static String after(String settings, SteppingStrategy stepping,
+                                int keys) {
+        Machine machine = Simulator.defaultMachine(settings);
+        machine.setStepping(stepping);
+        machine.convert(new int[keys], 0, keys);
+        int[] positions = new int[machine.numPawls()];
+        machine.savePositions(positions, 0);
+        StringBuilder result = new StringBuilder();
+        for (int p : positions) {
+            result.append(machine.alphabet().toChar(p));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void doubleStepMovesTheMiddleRotorTwice() {
+        String settings = "* B Beta I II III AADU";
+        assertEquals("ADV", after(settings, SteppingStrategy.DOUBLE_STEP,
+                1));
+        assertEquals("AEW", after(settings, SteppingStrategy.DOUBLE_STEP,
+                2));
+        assertEquals("BFX", after(settings, SteppingStrategy.DOUBLE_STEP,
+                3));
+        assertEquals("ADV", after(settings, SteppingStrategy.GEARED, 1));
+        assertEquals("AEW", after(settings, SteppingStrategy.GEARED, 2));
+        assertEquals("AEX", after(settings, SteppingStrategy.GEARED, 3));
+    }
+
+    @Test
+    public void odometerCarriesOncePerRevolution() {
+        String settings = "* B Beta I II III AAZY";
+        assertEquals("AZZ", after(settings, SteppingStrategy.ODOMETER, 1));
+        assertEquals("BAA", after(settings, SteppingStrategy.ODOMETER, 2));
+        assertEquals("BAZ", after(settings, SteppingStrategy.ODOMETER,
+                27));
+        assertEquals("BBA", after(settings, SteppingStrategy.ODOMETER,
+                28));
+    }
+
+    @Test
+    public void multiNotchSleevesCarryAtEveryNotch() {
+        SteppingStrategy typex = SteppingStrategy.multiNotch("ACEG");
+        String settings = "* B Beta I II III AAAA";
+        assertEquals("BBB", after(settings, typex, 1));
+        assertEquals("BBC", after(settings, typex, 2));
+        assertEquals("BCD", after(settings, typex, 3));
+        assertEquals("CDE", after(settings, typex, 4));
+    }
+}